@@ -0,0 +1,98 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.kamranzafar.jtar.TarConstants;
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarHeader;
+import org.kamranzafar.jtar.TarHeaderEncoder;
+import org.kamranzafar.jtar.TarHeaderView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Raw header throughput: one operation is one 512-byte header parsed into a
+ * {@link TarEntry} or encoded from one. <code>view</code> reads the name and
+ * size of a header through a reused {@link TarHeaderView} instead. Results
+ * are headers per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HeaderBenchmark {
+	private byte[] block;
+	private byte[] out;
+	private TarEntry entry;
+	private TarHeaderView view;
+	private TarHeaderEncoder encoder;
+	private TarHeader header;
+	private long size;
+
+	@Setup
+	public void setup() {
+		entry = new TarEntry(TarHeader.createHeader("some/reasonably/deep/path/to/a/file.txt", 123456789L,
+				1400000000L, false));
+		block = new byte[TarConstants.HEADER_BLOCK];
+		entry.writeEntryHeader(block);
+		out = new byte[TarConstants.HEADER_BLOCK];
+		view = new TarHeaderView();
+		encoder = new TarHeaderEncoder();
+		header = entry.getHeader();
+	}
+
+	@Benchmark
+	public TarEntry parse() {
+		return new TarEntry(block);
+	}
+
+	@Benchmark
+	public long view() {
+		view.wrap(block);
+		return view.nameEquals("some/reasonably/deep/path/to/a/file.txt") ? view.getSize() : -1;
+	}
+
+	@Benchmark
+	public boolean verify() {
+		return view.wrap(block).isCheckSumValid();
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		entry.writeEntryHeader(out);
+		return out;
+	}
+
+	@Benchmark
+	public byte[] encodeWithTemplate() {
+		// The size changes from entry to entry
+		header.size = ++size & 0xFFFF;
+		encoder.encode(header, out, 0);
+		return out;
+	}
+}
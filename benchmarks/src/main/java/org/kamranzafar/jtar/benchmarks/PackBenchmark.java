@@ -0,0 +1,209 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.kamranzafar.jtar.JTar;
+import org.kamranzafar.jtar.TarConstants;
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Packing throughput. One operation packs the complete synthetic
+ * directory tree into a single archive.</p>
+ *
+ * <p><code>pack</code> copies every file through
+ * {@link TarOutputStream#write(byte[], int, int)}, the way the README
+ * shows it. <code>packFileEntries</code> uses
+ * {@link TarOutputStream#writeFileEntry(TarEntry)}, which transfers the
+ * contents without copying when writing an uncompressed file.
+ * <code>packRecords</code> does the same on a stream that writes whole 10 KiB
+ * records, to a file channel or an unbuffered gzip stream.
+ * <code>packJTar</code> runs the pipelined {@link JTar} packer.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PackBenchmark {
+
+	@Param({ "20000x1024", "4x33554432" })
+	public String shape;
+
+	@Param({ "tar", "tgz" })
+	public String format;
+
+	/**
+	 * Reader threads for {@link JTar#packTar(File, File, int)}.
+	 */
+	@Param({ "4" })
+	public int parallelism;
+
+	private SyntheticArchive archive;
+	private File sourceDir;
+	private File target;
+	private byte[] buffer;
+
+	@Setup(Level.Trial)
+	public void createSource() throws IOException {
+		archive = new SyntheticArchive(shape);
+		File workDir = SyntheticArchive.workDir();
+		sourceDir = archive.directory(workDir);
+		target = new File(workDir, "pack-" + shape + "." + format);
+		buffer = new byte[4096];
+	}
+
+	@TearDown(Level.Invocation)
+	public void deleteTarget() {
+		target.delete();
+	}
+
+	@Benchmark
+	public void pack(Throughput throughput) throws IOException {
+		OutputStream os = new FileOutputStream(target);
+		if ("tgz".equals(format)) {
+			os = new GZIPOutputStream(os, 64 * 1024);
+		}
+
+		TarOutputStream out = new TarOutputStream(new BufferedOutputStream(os));
+		try {
+			packDirectory(sourceDir, "", out);
+		} finally {
+			out.close();
+		}
+
+		throughput.add(archive);
+	}
+
+	@Benchmark
+	public void packJTar(Throughput throughput) throws IOException {
+		if ("tgz".equals(format)) {
+			new JTar().packTarGz(sourceDir, target, parallelism);
+		} else {
+			new JTar().packTar(sourceDir, target, parallelism);
+		}
+
+		throughput.add(archive);
+	}
+
+	@Benchmark
+	public void packFileEntries(Throughput throughput) throws IOException {
+		TarOutputStream out;
+		if ("tgz".equals(format)) {
+			out = new TarOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(target),
+					64 * 1024)));
+		} else {
+			out = new TarOutputStream(target);
+		}
+
+		try {
+			packFileEntries(sourceDir, "", out);
+		} finally {
+			out.close();
+		}
+
+		throughput.add(archive);
+	}
+
+	@Benchmark
+	public void packRecords(Throughput throughput) throws IOException {
+		TarOutputStream out;
+		if ("tgz".equals(format)) {
+			out = new TarOutputStream(new GZIPOutputStream(new FileOutputStream(target), 64 * 1024),
+					TarConstants.DEFAULT_BLOCKING_FACTOR);
+		} else {
+			out = new TarOutputStream(FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE),
+					TarConstants.DEFAULT_BLOCKING_FACTOR);
+		}
+
+		try {
+			packFileEntries(sourceDir, "", out);
+		} finally {
+			out.close();
+		}
+
+		throughput.add(archive);
+	}
+
+	private void packFileEntries(File dir, String parent, TarOutputStream out) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String name = parent + file.getName();
+			out.writeFileEntry(new TarEntry(file, name));
+			if (file.isDirectory()) {
+				packFileEntries(file, name + "/", out);
+			}
+		}
+	}
+
+	private void packDirectory(File dir, String parent, TarOutputStream out) throws IOException {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String name = parent + file.getName();
+			if (file.isDirectory()) {
+				out.putNextEntry(new TarEntry(file, name));
+				packDirectory(file, name + "/", out);
+				continue;
+			}
+
+			out.putNextEntry(new TarEntry(file, name));
+			BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+			try {
+				int count;
+				while ((count = in.read(buffer)) != -1) {
+					out.write(buffer, 0, count);
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+}
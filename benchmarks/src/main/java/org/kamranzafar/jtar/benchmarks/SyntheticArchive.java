@@ -0,0 +1,201 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.kamranzafar.jtar.TarEntry;
+import org.kamranzafar.jtar.TarHeader;
+import org.kamranzafar.jtar.TarOutputStream;
+
+/**
+ * <p>Deterministic test data for the benchmarks.</p>
+ *
+ * <p>A shape is given as <code>COUNTxSIZE</code>, e.g. <code>20000x1024</code>
+ * for many tiny entries or <code>4x67108864</code> for a few huge ones. The
+ * content is generated from a fixed seed, so every run (and every machine)
+ * works on byte-identical archives. The data is half random and half
+ * repeated text, which gives gzip something realistic to chew on.</p>
+ */
+public class SyntheticArchive {
+	private static final long SEED = 0x6A546172L;
+	private static final int CHUNK = 64 * 1024;
+
+	public final int entryCount;
+	public final int entrySize;
+
+	public SyntheticArchive(String shape) {
+		int x = shape.indexOf('x');
+		if (x < 1) {
+			throw new IllegalArgumentException("Shape must look like COUNTxSIZE: " + shape);
+		}
+		this.entryCount = Integer.parseInt(shape.substring(0, x));
+		this.entrySize = Integer.parseInt(shape.substring(x + 1));
+	}
+
+	/**
+	 * Total number of content bytes, excluding headers and padding.
+	 */
+	public long payloadBytes() {
+		return (long) entryCount * entrySize;
+	}
+
+	/**
+	 * Name of the n-th entry. Entries are spread over 100 directories so
+	 * that extraction also has to create some structure.
+	 */
+	public String entryName(int n) {
+		return "dir" + (n % 100) + "/entry" + n + ".bin";
+	}
+
+	/**
+	 * Creates a chunk of content that is reused for all entries.
+	 */
+	public static byte[] content() {
+		byte[] data = new byte[CHUNK];
+		Random random = new Random(SEED);
+		random.nextBytes(data);
+
+		byte[] text = "The quick brown fox jumps over the lazy tar header. ".getBytes();
+		for (int i = CHUNK / 2; i < CHUNK; i++) {
+			data[i] = text[i % text.length];
+		}
+
+		return data;
+	}
+
+	/**
+	 * Writes the archive to the given stream, which is closed afterwards.
+	 */
+	public void writeTar(OutputStream os) throws IOException {
+		byte[] data = content();
+		long modTime = 1400000000L;
+
+		TarOutputStream out = new TarOutputStream(os);
+		try {
+			for (int n = 0; n < entryCount; n++) {
+				out.putNextEntry(new TarEntry(TarHeader.createHeader(entryName(n), entrySize, modTime, false)));
+
+				int left = entrySize;
+				int offset = n % CHUNK;
+				while (left > 0) {
+					int len = Math.min(left, CHUNK - offset);
+					out.write(data, offset, len);
+					left -= len;
+					offset = 0;
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes an uncompressed archive unless it already exists.
+	 */
+	public File tar(File dir) throws IOException {
+		File file = new File(dir, entryCount + "x" + entrySize + ".tar");
+		if (!file.exists()) {
+			writeTar(new BufferedOutputStream(new FileOutputStream(file)));
+		}
+		return file;
+	}
+
+	/**
+	 * Writes a gzip-compressed archive unless it already exists.
+	 */
+	public File tarGz(File dir) throws IOException {
+		File file = new File(dir, entryCount + "x" + entrySize + ".tar.gz");
+		if (!file.exists()) {
+			writeTar(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file), CHUNK)));
+		}
+		return file;
+	}
+
+	/**
+	 * Writes the entries as plain files, the input for packing.
+	 */
+	public File directory(File dir) throws IOException {
+		File root = new File(dir, entryCount + "x" + entrySize);
+		if (root.isDirectory()) {
+			return root;
+		}
+
+		byte[] data = content();
+		for (int n = 0; n < entryCount; n++) {
+			File file = new File(root, entryName(n));
+			file.getParentFile().mkdirs();
+
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+			try {
+				int left = entrySize;
+				while (left > 0) {
+					int len = Math.min(left, CHUNK);
+					out.write(data, 0, len);
+					left -= len;
+				}
+			} finally {
+				out.close();
+			}
+		}
+
+		return root;
+	}
+
+	/**
+	 * Deletes a directory tree, used to clean up between invocations.
+	 */
+	public static void delete(File dir) throws IOException {
+		if (!dir.exists()) {
+			return;
+		}
+
+		Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * The directory in which generated archives are cached between runs.
+	 * Can be overridden with <code>-Djtar.bench.dir=...</code>.
+	 */
+	public static File workDir() {
+		File dir = new File(System.getProperty("jtar.bench.dir", System.getProperty("java.io.tmpdir") + "/jtar-bench"));
+		dir.mkdirs();
+		return dir;
+	}
+}
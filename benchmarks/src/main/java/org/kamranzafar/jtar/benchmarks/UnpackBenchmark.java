@@ -0,0 +1,154 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import org.kamranzafar.jtar.JTar;
+import org.kamranzafar.jtar.TarHeaderView;
+import org.kamranzafar.jtar.TarInputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>Unpacking throughput. One operation is one complete archive.</p>
+ *
+ * <ul>
+ * <li><code>read</code> streams every entry through {@link TarInputStream}
+ * without touching the disk, so it measures header parsing and the read
+ * path only. The archive is not wrapped in a buffered stream, as
+ * TarInputStream buffers whole records itself.</li>
+ * <li><code>list</code> walks the headers with
+ * {@link TarInputStream#getNextHeader()} and skips the content.</li>
+ * <li><code>unpack</code> runs {@link JTar} end-to-end into an empty
+ * directory.</li>
+ * </ul>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UnpackBenchmark {
+
+	@Param({ "20000x1024", "4x33554432" })
+	public String shape;
+
+	@Param({ "tar", "tgz" })
+	public String format;
+
+	/**
+	 * Writer threads for unpacking, try <code>-p parallelism=1,4,8</code>.
+	 * Above 1, tar.gz archives are unpacked in a pipeline.
+	 */
+	@Param({ "1" })
+	public int parallelism;
+
+	private SyntheticArchive archive;
+	private File file;
+	private File targetDir;
+	private byte[] buffer;
+
+	@Setup(Level.Trial)
+	public void createArchive() throws IOException {
+		archive = new SyntheticArchive(shape);
+		File workDir = SyntheticArchive.workDir();
+		file = "tgz".equals(format) ? archive.tarGz(workDir) : archive.tar(workDir);
+		targetDir = new File(workDir, "unpack-" + shape + "-" + format);
+		buffer = new byte[4096];
+	}
+
+	@TearDown(Level.Invocation)
+	public void cleanTarget() throws IOException {
+		SyntheticArchive.delete(targetDir);
+	}
+
+	@Benchmark
+	public long read(Throughput throughput) throws IOException {
+		InputStream is = new FileInputStream(file);
+		if ("tgz".equals(format)) {
+			is = new GZIPInputStream(is, 64 * 1024);
+		}
+
+		long total = 0;
+		TarInputStream tis = new TarInputStream(is);
+		try {
+			while (tis.getNextEntry() != null) {
+				int count;
+				while ((count = tis.read(buffer)) != -1) {
+					total += count;
+				}
+			}
+		} finally {
+			tis.close();
+		}
+
+		throughput.add(archive);
+		return total;
+	}
+
+	@Benchmark
+	public long list(Throughput throughput) throws IOException {
+		InputStream is = new FileInputStream(file);
+		if ("tgz".equals(format)) {
+			is = new GZIPInputStream(is, 64 * 1024);
+		}
+
+		long total = 0;
+		TarInputStream tis = new TarInputStream(is);
+		try {
+			TarHeaderView header;
+			while ((header = tis.getNextHeader()) != null) {
+				total += header.getSize();
+			}
+		} finally {
+			tis.close();
+		}
+
+		throughput.add(archive);
+		return total;
+	}
+
+	@Benchmark
+	public void unpack(Throughput throughput) throws IOException {
+		if ("tgz".equals(format)) {
+			new JTar().unpackTarGz(file, targetDir, parallelism);
+		} else if (parallelism > 1) {
+			new JTar().unpackTar(file, targetDir, parallelism);
+		} else {
+			new JTar().unpackTar(file, targetDir);
+		}
+
+		throughput.add(archive);
+	}
+}
@@ -0,0 +1,252 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Writes ranges of an archive into files with {@link AsynchronousFileChannel}
+ * writes, so that many files are written at the same time. The writes and
+ * the bytes in flight are bounded: {@link #write(FileChannel, long, long, File)}
+ * blocks while either limit is reached.
+ *
+ * Each file is forced to the storage device once its last write has
+ * completed, and then closed. The first failure of any write is kept and
+ * rethrown from the next write or from {@link #await()}.
+ *
+ * Full chunks are read into direct buffers that are reused once their
+ * write has completed. There are at most as many as fit into the bytes in
+ * flight. Shorter chunks, the ends of files, get a heap buffer each.
+ */
+final class AsyncFileWriter {
+	private static final int CHUNK_SIZE = 1024 * 1024;
+	// Each file with writes in flight is a party of the phaser, which allows
+	// 65535 of them, less the one that awaits and the one being issued
+	private static final int MAX_WRITES = 65535 - 2;
+
+	private final int chunkSize;
+	private final Semaphore bytes;
+	private final Semaphore writes;
+	private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final Phaser files = new Phaser(1);
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private final CompletionHandler<Integer, Chunk> handler = new CompletionHandler<Integer, Chunk>() {
+		@Override
+		public void completed(Integer result, Chunk chunk) {
+			chunk.position += result;
+			if (chunk.buffer.hasRemaining() && failure.get() == null) {
+				chunk.target.channel.write(chunk.buffer, chunk.position, chunk, this);
+				return;
+			}
+
+			release(chunk);
+		}
+
+		@Override
+		public void failed(Throwable t, Chunk chunk) {
+			failure.compareAndSet(null, t);
+			release(chunk);
+		}
+	};
+
+	/**
+	 * A file being written, closed when the last of its chunks is written
+	 */
+	private final class Target {
+		final AsynchronousFileChannel channel;
+		// One for each chunk in flight, one while chunks are being issued
+		final AtomicInteger pending = new AtomicInteger(1);
+
+		Target(AsynchronousFileChannel channel) {
+			this.channel = channel;
+			files.register();
+		}
+
+		void done() {
+			if (pending.decrementAndGet() > 0) {
+				return;
+			}
+
+			try {
+				if (failure.get() == null) {
+					channel.force(true);
+				}
+			} catch (IOException e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				try {
+					channel.close();
+				} catch (IOException e) {
+					failure.compareAndSet(null, e);
+				}
+				files.arriveAndDeregister();
+			}
+		}
+	}
+
+	private static final class Chunk {
+		final Target target;
+		final ByteBuffer buffer;
+		long position;
+
+		Chunk(Target target, ByteBuffer buffer, long position) {
+			this.target = target;
+			this.buffer = buffer;
+			this.position = position;
+		}
+	}
+
+	AsyncFileWriter(int maxBytes, int maxWrites) {
+		if (maxBytes < 1 || maxWrites < 1) {
+			throw new IllegalArgumentException("Limits must be positive: " + maxBytes + " bytes, " + maxWrites
+					+ " writes");
+		}
+
+		this.chunkSize = Math.min(CHUNK_SIZE, maxBytes);
+		this.bytes = new Semaphore(maxBytes);
+		this.writes = new Semaphore(Math.min(maxWrites, MAX_WRITES));
+	}
+
+	/**
+	 * Reads the range of the archive chunk by chunk and writes the chunks
+	 * into a new target file, replacing the file that was there
+	 *
+	 * @throws IOException
+	 *             if an earlier write has failed
+	 */
+	void write(FileChannel in, long position, long size, File file) throws IOException {
+		checkFailure();
+
+		TarStreamExtractor.deleteExisting(file);
+		Target target = new Target(AsynchronousFileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE_NEW));
+		try {
+			long offset = 0;
+			while (offset < size && failure.get() == null) {
+				int length = (int) Math.min(chunkSize, size - offset);
+				acquire(bytes, length);
+				try {
+					acquire(writes, 1);
+				} catch (IOException e) {
+					bytes.release(length);
+					throw e;
+				}
+
+				ByteBuffer buffer = takeBuffer(length);
+				try {
+					HeaderScanner.readFully(in, buffer, position + offset);
+				} catch (IOException e) {
+					release(buffer);
+					throw e;
+				}
+				buffer.flip();
+
+				target.pending.incrementAndGet();
+				target.channel.write(buffer, offset, new Chunk(target, buffer, offset), handler);
+				offset += length;
+			}
+		} finally {
+			target.done();
+		}
+	}
+
+	/**
+	 * Waits until every file is written, forced and closed
+	 *
+	 * @throws IOException
+	 *             the first failure of any write
+	 */
+	void await() throws IOException {
+		files.arriveAndAwaitAdvance();
+		checkFailure();
+	}
+
+	/**
+	 * Stops forcing files and waits for the writes in flight, after a
+	 * failure elsewhere
+	 */
+	void abort() {
+		failure.compareAndSet(null, new IOException("Aborted"));
+		files.arriveAndAwaitAdvance();
+	}
+
+	private ByteBuffer takeBuffer(int length) {
+		if (length < chunkSize) {
+			return ByteBuffer.allocate(length);
+		}
+
+		ByteBuffer buffer = buffers.poll();
+		return buffer != null ? buffer : ByteBuffer.allocateDirect(chunkSize);
+	}
+
+	private void release(Chunk chunk) {
+		release(chunk.buffer);
+		chunk.target.done();
+	}
+
+	/**
+	 * Releases the permits of the buffer's chunk and reuses the buffer if it
+	 * is a pooled one
+	 */
+	private void release(ByteBuffer buffer) {
+		bytes.release(buffer.capacity());
+		writes.release();
+		if (buffer.isDirect()) {
+			buffer.clear();
+			buffers.offer(buffer);
+		}
+	}
+
+	private static void acquire(Semaphore semaphore, int permits) throws IOException {
+		try {
+			semaphore.acquire(permits);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for writes");
+		}
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable t = failure.get();
+		if (t == null) {
+			return;
+		}
+
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		throw new IOException(t);
+	}
+}
@@ -0,0 +1,222 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Writes a gzip stream as a series of independent members of at most
+ * <code>blockSize</code> uncompressed bytes each, similar to BGZF.</p>
+ *
+ * <p>Every member can be inflated on its own, so a reader that knows where
+ * the members start can read any part of the data by inflating one small
+ * block. The result is still an ordinary gzip file: gunzip and
+ * <code>GZIPInputStream</code> read the concatenated members as one
+ * stream. The price is a slightly worse ratio, as no member can refer to the
+ * data of another.</p>
+ *
+ * <p>A member ends when it is full or when {@link #endBlock()} is called,
+ * e.g. at a convenient boundary in the data.</p>
+ */
+public class BlockGzipOutputStream extends OutputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+	private static final byte[] HEADER = { 0x1F, (byte) 0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+	private final OutputStream out;
+	private final Deflater deflater;
+	private final CRC32 crc = new CRC32();
+	private final byte[] block;
+	private byte[] compressed;
+	private int blockLength;
+	private long compressedOffset;
+	private long uncompressedOffset;
+	private final List<TarGzIndex.Checkpoint> checkpoints = new ArrayList<TarGzIndex.Checkpoint>();
+	private boolean closed;
+
+	public BlockGzipOutputStream(OutputStream out) {
+		this(out, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param out
+	 *            the stream to write the compressed data to
+	 * @param blockSize
+	 *            the maximum amount of uncompressed data per member
+	 * @param level
+	 *            the deflate compression level
+	 */
+	public BlockGzipOutputStream(OutputStream out, int blockSize, int level) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+		}
+
+		this.out = out;
+		this.deflater = new Deflater(level, true);
+		this.block = new byte[blockSize];
+		this.compressed = new byte[blockSize / 2 + 1024];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+
+		while (len > 0) {
+			int n = Math.min(len, block.length - blockLength);
+			System.arraycopy(b, off, block, blockLength, n);
+			blockLength += n;
+			off += n;
+			len -= n;
+
+			if (blockLength == block.length) {
+				endBlock();
+			}
+		}
+	}
+
+	/**
+	 * Compresses the data written since the last member ended into a member
+	 * of its own. Does nothing if there is no such data.
+	 *
+	 * @throws IOException
+	 */
+	public void endBlock() throws IOException {
+		ensureOpen();
+
+		if (blockLength > 0) {
+			writeMember();
+		}
+	}
+
+	/**
+	 * Returns the maximum amount of uncompressed data per member
+	 *
+	 * @return
+	 */
+	public int getBlockSize() {
+		return block.length;
+	}
+
+	/**
+	 * Returns the amount of data written to the current member so far
+	 *
+	 * @return
+	 */
+	public int getBlockLength() {
+		return blockLength;
+	}
+
+	/**
+	 * Returns the total amount of uncompressed data written
+	 *
+	 * @return
+	 */
+	public long getPosition() {
+		return uncompressedOffset + blockLength;
+	}
+
+	/**
+	 * The start of every member written so far
+	 */
+	List<TarGzIndex.Checkpoint> getCheckpoints() {
+		return checkpoints;
+	}
+
+	/**
+	 * Only flushes the underlying stream. Data of an unfinished member is
+	 * not written until the member ends.
+	 */
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * Writes the last member and closes the underlying stream. An empty
+	 * stream still gets one empty member, so it is valid gzip.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		try {
+			if (blockLength > 0 || checkpoints.isEmpty()) {
+				writeMember();
+			}
+		} finally {
+			closed = true;
+			deflater.end();
+			out.close();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void writeMember() throws IOException {
+		deflater.reset();
+		deflater.setInput(block, 0, blockLength);
+		deflater.finish();
+
+		int length = 0;
+		while (!deflater.finished()) {
+			if (length == compressed.length) {
+				byte[] larger = new byte[compressed.length * 2];
+				System.arraycopy(compressed, 0, larger, 0, length);
+				compressed = larger;
+			}
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+
+		crc.reset();
+		crc.update(block, 0, blockLength);
+
+		byte[] trailer = new byte[8];
+		writeInt(trailer, 0, crc.getValue());
+		writeInt(trailer, 4, blockLength);
+
+		out.write(HEADER);
+		out.write(compressed, 0, length);
+		out.write(trailer);
+
+		checkpoints.add(new TarGzIndex.Checkpoint((compressedOffset + HEADER.length) * 8, uncompressedOffset, null));
+		compressedOffset += HEADER.length + length + trailer.length;
+		uncompressedOffset += blockLength;
+		blockLength = 0;
+	}
+
+	private static void writeInt(byte[] buf, int offset, long value) {
+		buf[offset] = (byte) value;
+		buf[offset + 1] = (byte) (value >> 8);
+		buf[offset + 2] = (byte) (value >> 16);
+		buf[offset + 3] = (byte) (value >> 24);
+	}
+}
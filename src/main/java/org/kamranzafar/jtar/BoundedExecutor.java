@@ -0,0 +1,175 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fixed size worker pool that accepts only a limited number of pending
+ * tasks. Submitting blocks while the limit is reached, which keeps a fast
+ * producer (e.g. a header scan) from queueing up the whole archive.
+ *
+ * The first failure of any task is kept and rethrown from the next
+ * {@link #submit(IOTask)} or from {@link #await()}; tasks that have not
+ * started yet are skipped once a task has failed.
+ */
+class BoundedExecutor implements Closeable {
+	private final ExecutorService executor;
+	private final Semaphore permits;
+	private final int maxPending;
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	/**
+	 * A unit of work that may fail with an IOException
+	 */
+	interface IOTask {
+		void run() throws IOException;
+	}
+
+	BoundedExecutor(int threads, int maxPending) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+
+		this.executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("worker"));
+		this.maxPending = Math.max(threads, maxPending);
+		this.permits = new Semaphore(this.maxPending);
+	}
+
+	/**
+	 * Runs the task on the pool, blocking while too many tasks are pending
+	 *
+	 * @param task
+	 * @throws IOException
+	 *             if an earlier task has failed
+	 */
+	void submit(IOTask task) throws IOException {
+		submit(task, null);
+	}
+
+	/**
+	 * Runs the task on the pool like {@link #submit(IOTask)}, and then the
+	 * completion, which also runs if the task fails or is skipped
+	 *
+	 * @param task
+	 * @param completion
+	 *            or null
+	 * @throws IOException
+	 *             if an earlier task has failed, the completion does not run
+	 *             then
+	 */
+	void submit(final IOTask task, final Runnable completion) throws IOException {
+		checkFailure();
+
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a worker");
+		}
+
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (failure.get() == null) {
+						task.run();
+					}
+				} catch (Throwable t) {
+					failure.compareAndSet(null, t);
+				} finally {
+					permits.release();
+					if (completion != null) {
+						completion.run();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits until all tasks submitted so far have finished, leaving the pool
+	 * running for more tasks
+	 *
+	 * @throws IOException
+	 *             the first failure of any task
+	 */
+	void drain() throws IOException {
+		try {
+			permits.acquire(maxPending);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for workers");
+		}
+		permits.release(maxPending);
+
+		checkFailure();
+	}
+
+	/**
+	 * Waits for all submitted tasks and shuts the pool down
+	 *
+	 * @throws IOException
+	 *             the first failure of any task
+	 */
+	void await() throws IOException {
+		executor.shutdown();
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// keep waiting, tasks may take arbitrarily long
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for workers");
+		}
+
+		checkFailure();
+	}
+
+	private void checkFailure() throws IOException {
+		Throwable t = failure.get();
+		if (t == null) {
+			return;
+		}
+
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		throw new IOException(t);
+	}
+
+	/**
+	 * Stops the pool without waiting for pending tasks
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,243 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * <p>Packs a directory tree into a {@link TarOutputStream} in three
+ * overlapping stages:</p>
+ *
+ * <ol>
+ * <li>a walker thread lists the directories and schedules one task per file,
+ * in archive order,</li>
+ * <li>a pool of workers stats the files and reads the small ones into
+ * memory,</li>
+ * <li>the calling thread takes the results in order and writes them to the
+ * archive.</li>
+ * </ol>
+ *
+ * <p>At most <code>readAhead</code> files are scheduled but not yet written,
+ * and only files up to {@link #SMALL_FILE} bytes are read ahead, so memory
+ * use is bounded. Larger files are written by the calling thread with
+ * {@link TarOutputStream#writeFileEntry(TarEntry)}.</p>
+ *
+ * <p>Directories get an entry only if they are empty, the same as
+ * {@link TarUtils#calculateTarSize(File)} assumes. Names are sorted, so
+ * packing the same tree twice gives the same archive.</p>
+ */
+class DirectoryPacker {
+	static final int SMALL_FILE = 1024 * 1024;
+
+	private final int parallelism;
+	private final int readAhead;
+
+	DirectoryPacker(int parallelism, int readAhead) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + parallelism);
+		}
+
+		this.parallelism = parallelism;
+		this.readAhead = Math.max(1, readAhead);
+	}
+
+	/**
+	 * Packs the given file or directory. Entry names start with its name.
+	 *
+	 * @param source
+	 * @param out
+	 * @throws IOException
+	 */
+	void pack(final File source, TarOutputStream out) throws IOException {
+		final String rootName = rootName(source);
+		final ExecutorService pool = Executors.newFixedThreadPool(parallelism, new DaemonThreadFactory("reader"));
+		final BlockingQueue<Future<Item>> queue = new ArrayBlockingQueue<Future<Item>>(readAhead);
+		final Future<Item> end = new FutureTask<Item>(new Callable<Item>() {
+			@Override
+			public Item call() {
+				return null;
+			}
+		});
+
+		Thread walker = new DaemonThreadFactory("walker").newThread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					walk(source, rootName, pool, queue);
+					queue.put(end);
+				} catch (InterruptedException e) {
+					// The writer has given up
+				} catch (final Throwable t) {
+					// Any failure must reach the writer, or it waits forever
+					FutureTask<Item> failure = new FutureTask<Item>(new Callable<Item>() {
+						@Override
+						public Item call() throws Exception {
+							if (t instanceof Error) {
+								throw (Error) t;
+							}
+							throw (Exception) t;
+						}
+					});
+					failure.run();
+					try {
+						queue.put(failure);
+					} catch (InterruptedException ie) {
+						// The writer has given up
+					}
+				}
+			}
+		});
+		walker.start();
+
+		try {
+			Future<Item> next;
+			while ((next = take(queue)) != end) {
+				get(next).write(out);
+			}
+		} finally {
+			walker.interrupt();
+			pool.shutdownNow();
+		}
+	}
+
+	private static String rootName(File source) {
+		Path path = source.getAbsoluteFile().toPath().normalize().getFileName();
+		if (path == null) {
+			throw new IllegalArgumentException("Cannot pack a file system root: " + source);
+		}
+		return path.toString();
+	}
+
+	private void walk(File file, String name, ExecutorService pool, BlockingQueue<Future<Item>> queue)
+			throws IOException, InterruptedException {
+		if (file.isDirectory()) {
+			String[] children = file.list();
+			if (children == null) {
+				throw new IOException("Cannot list directory: " + file.getAbsolutePath());
+			}
+
+			if (children.length > 0) {
+				Arrays.sort(children);
+				for (String child : children) {
+					walk(new File(file, child), name + "/" + child, pool, queue);
+				}
+				return;
+			}
+		}
+
+		queue.put(pool.submit(new Reader(file, name)));
+	}
+
+	private static Future<Item> take(BlockingQueue<Future<Item>> queue) throws IOException {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while packing");
+		}
+	}
+
+	private static Item get(Future<Item> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while packing");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	/**
+	 * Stats a file and reads it if it is small
+	 */
+	private static class Reader implements Callable<Item> {
+		private final File file;
+		private final String name;
+
+		Reader(File file, String name) {
+			this.file = file;
+			this.name = name;
+		}
+
+		@Override
+		public Item call() throws IOException {
+			TarEntry entry = new TarEntry(file, name);
+
+			if (entry.isDirectory() || entry.getSize() > SMALL_FILE) {
+				return new Item(entry, null, 0);
+			}
+
+			byte[] data = new byte[(int) entry.getSize()];
+			int length = 0;
+			try (FileInputStream in = new FileInputStream(file)) {
+				int res;
+				while (length < data.length && (res = in.read(data, length, data.length - length)) != -1) {
+					length += res;
+				}
+			}
+
+			return new Item(entry, data, length);
+		}
+	}
+
+	/**
+	 * A file ready to be written
+	 */
+	private static class Item {
+		private final TarEntry entry;
+		private final byte[] data;
+		private final int length;
+
+		Item(TarEntry entry, byte[] data, int length) {
+			this.entry = entry;
+			this.data = data;
+			this.length = length;
+		}
+
+		void write(TarOutputStream out) throws IOException {
+			if (data == null) {
+				out.writeFileEntry(entry);
+			} else if (!out.putHardLinkEntry(entry)) {
+				out.putNextEntry(entry);
+				out.write(data, 0, length);
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Finds files with the same content as files written earlier, for the
+ * deduplication of {@link TarOutputStream}. Files are compared by their
+ * SHA-256 digests.</p>
+ *
+ * <p>The digest of a file that is written is taken from the bytes written to
+ * the archive, see {@link #startOriginal()}, so a link to it always stands
+ * for the stored content even if the file changes later. A file is only
+ * read an extra time if a file of its size was written before. At most
+ * <code>maxFiles</code> files are remembered, later ones are still compared
+ * with them but not added.</p>
+ */
+final class DuplicateFiles {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final int maxFiles;
+	private final Map<Long, List<Original>> bySize = new HashMap<Long, List<Original>>();
+	private final MessageDigest sha256 = newDigest();
+	private final MessageDigest written = newDigest();
+	private int files;
+	private ByteBuffer buffer;
+
+	DuplicateFiles(int maxFiles) {
+		this.maxFiles = maxFiles;
+	}
+
+	/**
+	 * Returns the entry name of an earlier file with the same content, or
+	 * null
+	 */
+	String find(File file, long size) throws IOException {
+		List<Original> originals = bySize.get(size);
+		if (originals == null) {
+			return null;
+		}
+
+		byte[] digest = digest(file);
+		for (Original original : originals) {
+			if (Arrays.equals(digest, original.digest)) {
+				return original.name;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Whether another file can be remembered
+	 */
+	boolean isFull() {
+		return files >= maxFiles;
+	}
+
+	/**
+	 * Returns the digest to update with the content of a file as it is
+	 * written, for {@link #addOriginal(String, long, byte[])}
+	 */
+	MessageDigest startOriginal() {
+		written.reset();
+		return written;
+	}
+
+	/**
+	 * Remembers a file that was written under the given name
+	 */
+	void addOriginal(String name, long size, byte[] digest) {
+		if (isFull()) {
+			return;
+		}
+
+		List<Original> originals = bySize.get(size);
+		if (originals == null) {
+			originals = new ArrayList<Original>(1);
+			bySize.put(size, originals);
+		}
+		originals.add(new Original(name, digest));
+		files++;
+	}
+
+	private byte[] digest(File file) throws IOException {
+		if (buffer == null) {
+			buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		}
+
+		try (FileInputStream fis = new FileInputStream(file)) {
+			FileChannel in = fis.getChannel();
+			buffer.clear();
+			while (in.read(buffer) != -1) {
+				buffer.flip();
+				sha256.update(buffer);
+				buffer.clear();
+			}
+		}
+		return sha256.digest();
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final class Original {
+		final String name;
+		final byte[] digest;
+
+		Original(String name, byte[] digest) {
+			this.name = name;
+			this.digest = digest;
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.util.Arrays;
+
+/**
+ * <p>Selects the entries to extract, see
+ * {@link JTar#unpackTar(java.io.File, java.io.File, int, EntryFilter)}.
+ * Filters see the raw header of each entry before its content is read, and
+ * the content of entries they reject is skipped.</p>
+ *
+ * <p>The filters made by {@link #names(String...)},
+ * {@link #prefix(String)} and {@link #glob(String)} match the header's name
+ * bytes directly, without creating a String per entry.</p>
+ */
+public abstract class EntryFilter {
+
+	/**
+	 * Whether the entry with the given header is extracted. The header is
+	 * only valid during the call.
+	 *
+	 * @param header
+	 * @return
+	 */
+	public abstract boolean accept(TarHeaderView header);
+
+	/**
+	 * Whether the filter accepts no further entries. Extraction then stops
+	 * without reading the rest of the archive. The default is false.
+	 *
+	 * @return
+	 */
+	public boolean isComplete() {
+		return false;
+	}
+
+	/**
+	 * Returns the filter to use for one extraction, a new one for filters
+	 * that keep state between entries
+	 */
+	EntryFilter start() {
+		return this;
+	}
+
+	/**
+	 * Accepts the entries with the given names, directories with a trailing
+	 * slash. The whole archive is read, and of several entries with the same
+	 * name the last one is extracted, as with no filter at all.
+	 *
+	 * @param names
+	 * @return
+	 */
+	public static EntryFilter names(String... names) {
+		final String[] all = names.clone();
+
+		return new EntryFilter() {
+			@Override
+			public boolean accept(TarHeaderView header) {
+				for (String name : all) {
+					if (header.nameEquals(name)) {
+						return true;
+					}
+				}
+
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Accepts the first entry of each of the given names, directories with a
+	 * trailing slash, and stops the extraction once all of them were found,
+	 * like <code>tar --occurrence</code>. The rest of the archive is not
+	 * read, so an entry appended later with the same name, e.g. by
+	 * {@link TarOutputStream#TarOutputStream(java.io.File, boolean)}, is
+	 * ignored. Use {@link #names(String...)} for the last entry of a name.
+	 *
+	 * @param names
+	 * @return
+	 */
+	public static EntryFilter firstOccurrence(String... names) {
+		return new FirstOccurrence(names.clone());
+	}
+
+	/**
+	 * Accepts the entries whose names start with the given prefix, e.g.
+	 * "config/" for a directory and everything in it
+	 *
+	 * @param prefix
+	 * @return
+	 */
+	public static EntryFilter prefix(final String prefix) {
+		return new EntryFilter() {
+			@Override
+			public boolean accept(TarHeaderView header) {
+				return header.nameStartsWith(prefix);
+			}
+		};
+	}
+
+	/**
+	 * <p>Accepts the entries whose names match the glob pattern, like
+	 * <code>config/**</code> or <code>*.so</code>:</p>
+	 *
+	 * <ul>
+	 * <li><code>*</code> matches any characters except a slash</li>
+	 * <li><code>**</code> matches any characters including slashes, and
+	 * <code>**&#47;</code> also matches no directory at all</li>
+	 * <li><code>?</code> matches one character except a slash</li>
+	 * </ul>
+	 *
+	 * <p>A pattern without a slash is matched against the last part of the
+	 * name, so <code>*.so</code> finds files in every directory. Other
+	 * patterns are matched against the whole name. The trailing slash of
+	 * directory names is ignored.</p>
+	 *
+	 * @param pattern
+	 * @return
+	 */
+	public static EntryFilter glob(String pattern) {
+		final int[] program = compile(pattern);
+		final boolean lastPart = pattern.indexOf('/') < 0;
+
+		return new EntryFilter() {
+			@Override
+			public boolean accept(TarHeaderView header) {
+				CharSequence name = header.getNameChars();
+				int end = name.length();
+				if (end > 0 && name.charAt(end - 1) == '/') {
+					end--;
+				}
+
+				int start = 0;
+				if (lastPart) {
+					for (int i = end - 1; i >= 0; i--) {
+						if (name.charAt(i) == '/') {
+							start = i + 1;
+							break;
+						}
+					}
+				}
+
+				return matches(program, name, start, end);
+			}
+		};
+	}
+
+	private static final class FirstOccurrence extends EntryFilter {
+		private final String[] names;
+		private final boolean[] found;
+		private int missing;
+
+		FirstOccurrence(String[] names) {
+			this.names = names;
+			this.found = new boolean[names.length];
+			this.missing = names.length;
+		}
+
+		@Override
+		public boolean accept(TarHeaderView header) {
+			boolean accepted = false;
+			for (int i = 0; i < names.length; i++) {
+				if (!found[i] && header.nameEquals(names[i])) {
+					found[i] = true;
+					missing--;
+					accepted = true;
+				}
+			}
+
+			return accepted;
+		}
+
+		@Override
+		public boolean isComplete() {
+			return missing == 0;
+		}
+
+		@Override
+		EntryFilter start() {
+			return new FirstOccurrence(names);
+		}
+	}
+
+	// Instructions of a compiled glob besides the characters to match
+	private static final int ANY = -1;
+	private static final int STAR = -2;
+	private static final int GLOBSTAR = -3;
+	private static final int GLOBSTAR_SLASH = -4;
+
+	/**
+	 * Compiles the glob into one instruction per character or wildcard, a
+	 * <code>**&#47;</code> being a single instruction
+	 */
+	private static int[] compile(String pattern) {
+		int[] program = new int[pattern.length()];
+		int length = 0;
+
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (c == '*' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '*') {
+				i++;
+				if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '/') {
+					i++;
+					program[length++] = GLOBSTAR_SLASH;
+				} else {
+					program[length++] = GLOBSTAR;
+				}
+			} else if (c == '*') {
+				program[length++] = STAR;
+			} else if (c == '?') {
+				program[length++] = ANY;
+			} else {
+				program[length++] = c;
+			}
+		}
+
+		return Arrays.copyOf(program, length);
+	}
+
+	/**
+	 * Runs the glob as an automaton over the name: each instruction is a
+	 * state, and all states the name so far can be in are followed at once,
+	 * so a match takes at most |glob| steps per character of the name
+	 */
+	private static boolean matches(int[] program, CharSequence name, int n, int end) {
+		boolean[] states = new boolean[program.length + 1];
+		boolean[] next = new boolean[program.length + 1];
+		states[0] = true;
+		skipWildcards(program, states);
+
+		for (; n < end; n++) {
+			char c = name.charAt(n);
+			boolean any = false;
+			Arrays.fill(next, false);
+
+			for (int i = 0; i < program.length; i++) {
+				if (!states[i]) {
+					continue;
+				}
+
+				switch (program[i]) {
+				case ANY:
+					next[i + 1] |= c != '/';
+					break;
+				case STAR:
+					next[i] |= c != '/';
+					break;
+				case GLOBSTAR:
+					next[i] = true;
+					break;
+				case GLOBSTAR_SLASH:
+					// Any characters up to a slash
+					next[i] = true;
+					next[i + 1] |= c == '/';
+					break;
+				default:
+					next[i + 1] |= c == program[i];
+				}
+				any = true;
+			}
+			if (!any) {
+				return false;
+			}
+
+			boolean[] swap = states;
+			states = next;
+			next = swap;
+			skipWildcards(program, states);
+		}
+
+		return states[program.length];
+	}
+
+	/**
+	 * Adds the states after wildcards, which also match nothing
+	 */
+	private static void skipWildcards(int[] program, boolean[] states) {
+		for (int i = 0; i < program.length; i++) {
+			if (states[i] && program[i] <= STAR) {
+				states[i + 1] = true;
+			}
+		}
+	}
+}
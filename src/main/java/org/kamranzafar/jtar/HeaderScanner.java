@@ -0,0 +1,143 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Walks the headers of an archive with positional reads, jumping over the
+ * content of every entry. Pax headers are applied to the entries they
+ * belong to and each header is checked against its checksum.
+ */
+final class HeaderScanner {
+	private final FileChannel channel;
+	private final long length;
+	private final ByteBuffer block = ByteBuffer.allocate(TarConstants.HEADER_BLOCK);
+	private final TarHeaderView header = new TarHeaderView(block.array());
+	private final PaxHeaders globalPax = new PaxHeaders();
+	private final PaxHeaders localPax = new PaxHeaders();
+	private final PaxHeaders entryPax = new PaxHeaders();
+	private long position;
+	private long headerOffset;
+	private long dataOffset;
+	private long size;
+
+	HeaderScanner(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.length = channel.size();
+	}
+
+	/**
+	 * Moves to the next entry
+	 *
+	 * @return false at the end of the archive
+	 * @throws IOException
+	 *             if a header is corrupt or an entry exceeds the archive
+	 */
+	boolean next() throws IOException {
+		headerOffset = position;
+
+		while (position + TarConstants.HEADER_BLOCK <= length) {
+			readFully(channel, block, position);
+			header.wrap(block.array());
+
+			if (header.isZeroBlock()) {
+				return false;
+			}
+
+			if (!header.isCheckSumValid()) {
+				throw new IOException("Possible tar file corruption: header checksum mismatch at offset " + position);
+			}
+
+			size = header.getSize();
+			if (size < 0) {
+				throw new IOException("Possible tar file corruption: negative entry size[" + size + "] at offset "
+						+ position);
+			}
+			dataOffset = position + TarConstants.HEADER_BLOCK;
+			byte linkFlag = header.getLinkFlag();
+
+			if (linkFlag == TarHeader.LF_PAX_EXTENDED || linkFlag == TarHeader.LF_PAX_GLOBAL) {
+				// Only pax headers are read, they belong to the next entry
+				InputStream in = new TarFile.EntryInputStream(new TarFile.EntryChannel(channel, dataOffset, size));
+				(linkFlag == TarHeader.LF_PAX_GLOBAL ? globalPax : localPax).parse(in, size);
+				position = dataOffset + TarUtils.paddedSize(size);
+				continue;
+			}
+
+			entryPax.clear();
+			entryPax.putAll(globalPax);
+			entryPax.putAll(localPax);
+			localPax.clear();
+			if (!entryPax.isEmpty()) {
+				header.wrap(block.array(), 0, entryPax);
+				size = header.getSize();
+			}
+
+			if (dataOffset + size > length) {
+				throw new IOException("Possible tar file corruption: entry[" + header.getName() + "] of size["
+						+ size + "] exceeds the archive");
+			}
+
+			// Skip the content, it is never read while scanning
+			position = dataOffset + TarUtils.paddedSize(size);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * The header of the current entry, with its pax headers applied. Valid
+	 * until the next call of {@link #next()}.
+	 */
+	TarHeaderView getHeader() {
+		return header;
+	}
+
+	/**
+	 * Offset of the current entry's first header, which is a pax header if
+	 * it has one
+	 */
+	long getHeaderOffset() {
+		return headerOffset;
+	}
+
+	long getDataOffset() {
+		return dataOffset;
+	}
+
+	/**
+	 * Size of the current entry's content in the archive
+	 */
+	long getSize() {
+		return size;
+	}
+
+	static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining()) {
+			int res = channel.read(buffer, position + buffer.position());
+			if (res < 0) {
+				throw new EOFException("Unexpected end of archive at offset " + position);
+			}
+		}
+	}
+}
@@ -0,0 +1,628 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Decompresses a gzip stream in plain Java and reports where each deflate
+ * block starts, which <code>java.util.zip.Inflater</code> cannot do.</p>
+ *
+ * <p>A deflate stream can only be resumed at a block boundary: the decoder
+ * state there is just the bit position in the compressed data and the last
+ * 32 KiB of output. Before each block, the {@link Listener} is told the bit
+ * position and the amount of data decompressed so far, and may copy the
+ * window with {@link #copyWindow(byte[])}. This is the approach of zlib's
+ * zran example.</p>
+ *
+ * <p>Like <code>GZIPInputStream</code>, concatenated gzip members are read as
+ * one stream and the CRC and length of each member are checked.</p>
+ */
+class IndexingGzipInputStream extends InputStream {
+	static final int WINDOW_SIZE = 32 * 1024;
+
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+	private static final int FAST_BITS = 10;
+	private static final int MAX_BITS = 15;
+
+	private static final int STATE_HEADER = 0;
+	private static final int STATE_BLOCK = 1;
+	private static final int STATE_STORED = 2;
+	private static final int STATE_HUFFMAN = 3;
+	private static final int STATE_DONE = 4;
+
+	private static final int[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43,
+			51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+	private static final int[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4,
+			4, 4, 5, 5, 5, 5, 0 };
+	private static final int[] DISTANCE_BASE = { 1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257,
+			385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+	private static final int[] DISTANCE_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9,
+			9, 10, 10, 11, 11, 12, 12, 13, 13 };
+	private static final int[] CODE_LENGTH_ORDER = { 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1,
+			15 };
+
+	private static final Huffman FIXED_LITERALS;
+	private static final Huffman FIXED_DISTANCES;
+
+	static {
+		int[] lengths = new int[288];
+		Arrays.fill(lengths, 0, 144, 8);
+		Arrays.fill(lengths, 144, 256, 9);
+		Arrays.fill(lengths, 256, 280, 7);
+		Arrays.fill(lengths, 280, 288, 8);
+		FIXED_LITERALS = new Huffman(288);
+		FIXED_DISTANCES = new Huffman(30);
+		try {
+			FIXED_LITERALS.build(lengths, 0, 288);
+			Arrays.fill(lengths, 0, 30, 5);
+			FIXED_DISTANCES.build(lengths, 0, 30);
+		} catch (ZipException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	/**
+	 * Told about every deflate block before it is decoded
+	 */
+	interface Listener {
+		/**
+		 * @param bitOffset
+		 *            the position of the block in the compressed stream, in
+		 *            bits
+		 * @param outOffset
+		 *            the amount of data decompressed before the block
+		 * @param memberStart
+		 *            true for the first block of a gzip member, which does
+		 *            not depend on any earlier data
+		 */
+		void blockStart(long bitOffset, long outOffset, boolean memberStart) throws IOException;
+	}
+
+	private final InputStream in;
+	private final Listener listener;
+	private final byte[] inBuf = new byte[64 * 1024];
+	private int inPos;
+	private int inLen;
+	private long inBase;
+	private long bitBuf;
+	private int bitCount;
+
+	private final byte[] window = new byte[WINDOW_SIZE];
+	private int windowPos;
+	private long memberOut;
+	private long totalOut;
+	private final CRC32 crc = new CRC32();
+
+	private int state = STATE_HEADER;
+	private boolean firstMember = true;
+	private boolean firstBlock;
+	private boolean lastBlock;
+	private int storedRemaining;
+	private Huffman literals;
+	private Huffman distances;
+	private final Huffman dynamicLiterals = new Huffman(288);
+	private final Huffman dynamicDistances = new Huffman(30);
+	private final Huffman codeLengths = new Huffman(19);
+	private final int[] lengths = new int[288 + 32];
+	private int copyLength;
+	private int copyDistance;
+
+	IndexingGzipInputStream(InputStream in, Listener listener) {
+		this.in = in;
+		this.listener = listener;
+	}
+
+	/**
+	 * Copies the last 32 KiB of the current member's output, or less at the
+	 * start of a member, into <code>dest</code>
+	 *
+	 * @param dest
+	 *            at least {@link #WINDOW_SIZE} bytes
+	 * @return the number of bytes copied
+	 */
+	int copyWindow(byte[] dest) {
+		int length = (int) Math.min(memberOut, WINDOW_SIZE);
+		int start = (windowPos - length) & WINDOW_MASK;
+		int first = Math.min(length, WINDOW_SIZE - start);
+		System.arraycopy(window, start, dest, 0, first);
+		System.arraycopy(window, 0, dest, first, length - first);
+		return length;
+	}
+
+	/**
+	 * Returns the number of bytes decompressed so far
+	 *
+	 * @return
+	 */
+	long getOutOffset() {
+		return totalOut;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int n = 0;
+
+		while (n < len && state != STATE_DONE) {
+			switch (state) {
+			case STATE_HEADER:
+				if (!readMemberHeader()) {
+					state = STATE_DONE;
+				} else {
+					firstBlock = true;
+					state = STATE_BLOCK;
+				}
+				break;
+			case STATE_BLOCK:
+				if (lastBlock) {
+					readMemberTrailer();
+					state = STATE_HEADER;
+				} else {
+					listener.blockStart(bitOffset(), totalOut, firstBlock);
+					firstBlock = false;
+					readBlockHeader();
+				}
+				break;
+			case STATE_STORED:
+				n += produced(b, off + n, readStored(b, off + n, len - n));
+				break;
+			case STATE_HUFFMAN:
+				n += produced(b, off + n, inflate(b, off + n, len - n));
+				break;
+			}
+		}
+
+		return n == 0 && len > 0 ? -1 : n;
+	}
+
+	private int produced(byte[] b, int off, int count) {
+		crc.update(b, off, count);
+		memberOut += count;
+		totalOut += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private long bitOffset() {
+		return (inBase + inPos) * 8 - bitCount;
+	}
+
+	/**
+	 * Reads the next member's header
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean readMemberHeader() throws IOException {
+		alignToByte();
+		int id1 = alignedByte();
+		if (id1 == -1 && !firstMember) {
+			return false;
+		}
+
+		int id2 = alignedByte();
+		if (id1 != 0x1F || id2 != 0x8B) {
+			if (firstMember) {
+				throw new ZipException("Not in GZIP format");
+			}
+			// Trailing garbage is ignored, like GZIPInputStream does
+			return false;
+		}
+		if (requiredByte() != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+
+		int flags = requiredByte();
+		for (int i = 0; i < 6; i++) {
+			requiredByte();
+		}
+		if ((flags & 4) != 0) {
+			int extra = requiredByte() | requiredByte() << 8;
+			for (int i = 0; i < extra; i++) {
+				requiredByte();
+			}
+		}
+		if ((flags & 8) != 0) {
+			while (requiredByte() != 0) {
+			}
+		}
+		if ((flags & 16) != 0) {
+			while (requiredByte() != 0) {
+			}
+		}
+		if ((flags & 2) != 0) {
+			requiredByte();
+			requiredByte();
+		}
+
+		firstMember = false;
+		lastBlock = false;
+		memberOut = 0;
+		crc.reset();
+		return true;
+	}
+
+	private void readMemberTrailer() throws IOException {
+		alignToByte();
+		long expectedCrc = readIntLE();
+		long expectedSize = readIntLE();
+
+		if (expectedCrc != crc.getValue()) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+		if (expectedSize != (memberOut & 0xFFFFFFFFL)) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+	}
+
+	private long readIntLE() throws IOException {
+		return (requiredByte() | requiredByte() << 8 | requiredByte() << 16 | (long) requiredByte() << 24);
+	}
+
+	private void readBlockHeader() throws IOException {
+		lastBlock = bits(1) == 1;
+
+		switch (bits(2)) {
+		case 0:
+			alignToByte();
+			int length = requiredByte() | requiredByte() << 8;
+			int complement = requiredByte() | requiredByte() << 8;
+			if (length != (~complement & 0xFFFF)) {
+				throw new ZipException("Invalid stored block lengths");
+			}
+			storedRemaining = length;
+			state = STATE_STORED;
+			break;
+		case 1:
+			literals = FIXED_LITERALS;
+			distances = FIXED_DISTANCES;
+			state = STATE_HUFFMAN;
+			break;
+		case 2:
+			readDynamicTables();
+			literals = dynamicLiterals;
+			distances = dynamicDistances;
+			state = STATE_HUFFMAN;
+			break;
+		default:
+			throw new ZipException("Invalid block type");
+		}
+	}
+
+	private void readDynamicTables() throws IOException {
+		int literalCount = bits(5) + 257;
+		int distanceCount = bits(5) + 1;
+		int codeCount = bits(4) + 4;
+		if (literalCount > 286 || distanceCount > 30) {
+			throw new ZipException("Too many length or distance symbols");
+		}
+
+		Arrays.fill(lengths, 0, 19, 0);
+		for (int i = 0; i < codeCount; i++) {
+			lengths[CODE_LENGTH_ORDER[i]] = bits(3);
+		}
+		codeLengths.build(lengths, 0, 19);
+
+		int index = 0;
+		while (index < literalCount + distanceCount) {
+			int symbol = decode(codeLengths);
+			if (symbol < 16) {
+				lengths[index++] = symbol;
+				continue;
+			}
+
+			int length = 0;
+			int repeat;
+			if (symbol == 16) {
+				if (index == 0) {
+					throw new ZipException("Invalid bit length repeat");
+				}
+				length = lengths[index - 1];
+				repeat = 3 + bits(2);
+			} else if (symbol == 17) {
+				repeat = 3 + bits(3);
+			} else {
+				repeat = 11 + bits(7);
+			}
+			if (index + repeat > literalCount + distanceCount) {
+				throw new ZipException("Invalid bit length repeat");
+			}
+			while (repeat-- > 0) {
+				lengths[index++] = length;
+			}
+		}
+
+		if (lengths[256] == 0) {
+			throw new ZipException("Invalid code -- missing end-of-block");
+		}
+
+		dynamicLiterals.build(lengths, 0, literalCount);
+		dynamicDistances.build(lengths, literalCount, distanceCount);
+	}
+
+	private int readStored(byte[] b, int off, int len) throws IOException {
+		int n = Math.min(len, storedRemaining);
+
+		int i = 0;
+		// Whole bytes left in the bit buffer come first
+		while (i < n && bitCount > 0) {
+			b[off + i++] = (byte) bits(8);
+		}
+		while (i < n) {
+			if (inPos == inLen && !refill()) {
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			int count = Math.min(n - i, inLen - inPos);
+			System.arraycopy(inBuf, inPos, b, off + i, count);
+			inPos += count;
+			i += count;
+		}
+
+		for (i = 0; i < n; i++) {
+			window[windowPos] = b[off + i];
+			windowPos = (windowPos + 1) & WINDOW_MASK;
+		}
+
+		storedRemaining -= n;
+		if (storedRemaining == 0) {
+			state = STATE_BLOCK;
+		}
+		return n;
+	}
+
+	/**
+	 * Decodes literals and matches of a Huffman coded block until the output
+	 * is full or the block ends
+	 */
+	private int inflate(byte[] b, int off, int len) throws IOException {
+		int o = off;
+		int end = off + len;
+		byte[] window = this.window;
+		int windowPos = this.windowPos;
+
+		try {
+			while (o < end) {
+				if (copyLength > 0) {
+					int n = Math.min(copyLength, end - o);
+					int from = windowPos - copyDistance;
+					for (int i = 0; i < n; i++) {
+						byte value = window[(from + i) & WINDOW_MASK];
+						window[windowPos] = value;
+						windowPos = (windowPos + 1) & WINDOW_MASK;
+						b[o++] = value;
+					}
+					copyLength -= n;
+					continue;
+				}
+
+				int symbol = decode(literals);
+				if (symbol < 256) {
+					byte value = (byte) symbol;
+					window[windowPos] = value;
+					windowPos = (windowPos + 1) & WINDOW_MASK;
+					b[o++] = value;
+				} else if (symbol == 256) {
+					state = STATE_BLOCK;
+					break;
+				} else {
+					symbol -= 257;
+					if (symbol >= LENGTH_BASE.length) {
+						throw new ZipException("Invalid literal/length code");
+					}
+					copyLength = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+
+					symbol = decode(distances);
+					if (symbol >= DISTANCE_BASE.length) {
+						throw new ZipException("Invalid distance code");
+					}
+					copyDistance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+					if (copyDistance > memberOut + (o - off)) {
+						throw new ZipException("Invalid distance too far back");
+					}
+				}
+			}
+		} finally {
+			this.windowPos = windowPos;
+		}
+
+		return o - off;
+	}
+
+	private int decode(Huffman huffman) throws IOException {
+		if (bitCount < MAX_BITS) {
+			fill();
+		}
+
+		int entry = huffman.fast[(int) bitBuf & ((1 << FAST_BITS) - 1)];
+		int length = entry & 0xF;
+		if (entry != 0 && length <= bitCount) {
+			bitBuf >>>= length;
+			bitCount -= length;
+			return entry >>> 4;
+		}
+
+		// Codes longer than the fast table, bit by bit as puff.c does
+		int code = 0;
+		int first = 0;
+		int index = 0;
+		for (int len = 1; len <= MAX_BITS; len++) {
+			code |= bits(1);
+			int count = huffman.count[len];
+			if (code - count < first) {
+				return huffman.symbol[index + (code - first)];
+			}
+			index += count;
+			first += count;
+			first <<= 1;
+			code <<= 1;
+		}
+		throw new ZipException("Invalid Huffman code");
+	}
+
+	private int bits(int n) throws IOException {
+		if (n == 0) {
+			return 0;
+		}
+		while (bitCount < n) {
+			int b = nextByte();
+			if (b == -1) {
+				throw new EOFException("Unexpected end of ZLIB input stream");
+			}
+			bitBuf |= (long) b << bitCount;
+			bitCount += 8;
+		}
+
+		int value = (int) (bitBuf & ((1L << n) - 1));
+		bitBuf >>>= n;
+		bitCount -= n;
+		return value;
+	}
+
+	/**
+	 * Loads as many bytes into the bit buffer as fit, without failing at the
+	 * end of the input
+	 */
+	private void fill() throws IOException {
+		while (bitCount <= 56) {
+			if (inPos == inLen && !refill()) {
+				return;
+			}
+			bitBuf |= (long) (inBuf[inPos++] & 0xFF) << bitCount;
+			bitCount += 8;
+		}
+	}
+
+	private void alignToByte() {
+		int drop = bitCount & 7;
+		bitBuf >>>= drop;
+		bitCount -= drop;
+	}
+
+	/**
+	 * Reads a byte after {@link #alignToByte()}, or -1 at the end of the input
+	 */
+	private int alignedByte() throws IOException {
+		if (bitCount > 0) {
+			return bits(8);
+		}
+		return nextByte();
+	}
+
+	private int requiredByte() throws IOException {
+		int b = alignedByte();
+		if (b == -1) {
+			throw new EOFException("Unexpected end of GZIP input stream");
+		}
+		return b;
+	}
+
+	private int nextByte() throws IOException {
+		if (inPos == inLen && !refill()) {
+			return -1;
+		}
+		return inBuf[inPos++] & 0xFF;
+	}
+
+	private boolean refill() throws IOException {
+		inBase += inLen;
+		inPos = 0;
+		inLen = 0;
+
+		int res;
+		while ((res = in.read(inBuf)) == 0) {
+		}
+		if (res == -1) {
+			return false;
+		}
+		inLen = res;
+		return true;
+	}
+
+	/**
+	 * Canonical Huffman code with a lookup table for the short codes
+	 */
+	private static class Huffman {
+		final int[] count = new int[MAX_BITS + 1];
+		final int[] symbol;
+		final int[] fast = new int[1 << FAST_BITS];
+		private final int[] offsets = new int[MAX_BITS + 2];
+		private final int[] nextCode = new int[MAX_BITS + 2];
+
+		Huffman(int symbols) {
+			this.symbol = new int[symbols];
+		}
+
+		void build(int[] lengths, int off, int n) throws ZipException {
+			Arrays.fill(count, 0);
+			for (int i = 0; i < n; i++) {
+				count[lengths[off + i]]++;
+			}
+			count[0] = 0;
+
+			int left = 1;
+			for (int len = 1; len <= MAX_BITS; len++) {
+				left <<= 1;
+				left -= count[len];
+				if (left < 0) {
+					throw new ZipException("Over-subscribed Huffman code");
+				}
+			}
+
+			offsets[1] = 0;
+			for (int len = 1; len < MAX_BITS; len++) {
+				offsets[len + 1] = offsets[len] + count[len];
+			}
+			for (int i = 0; i < n; i++) {
+				if (lengths[off + i] != 0) {
+					symbol[offsets[lengths[off + i]]++] = i;
+				}
+			}
+
+			int code = 0;
+			for (int len = 1; len <= MAX_BITS; len++) {
+				code = (code + count[len - 1]) << 1;
+				nextCode[len] = code;
+			}
+
+			Arrays.fill(fast, 0);
+			for (int i = 0; i < n; i++) {
+				int len = lengths[off + i];
+				if (len == 0 || len > FAST_BITS) {
+					continue;
+				}
+
+				int reversed = Integer.reverse(nextCode[len]++) >>> (32 - len);
+				for (int j = reversed; j < fast.length; j += 1 << len) {
+					fast[j] = i << 4 | len;
+				}
+			}
+		}
+	}
+}
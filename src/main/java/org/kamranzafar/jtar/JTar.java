@@ -24,18 +24,205 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * <p>Convenience functions to unpack a tar.</p>
+ * <p>Convenience functions to pack and unpack a tar.</p>
  * 
  * <p>This is merely a wrapper around some of the low-level functionality of JTar.
  * If there is no method here that does what you want, use the low-level API as.</p>
  * 
- * <p><i>Currently, only unpacking complete archives is supported.</i></p>
+ * <p><i>Currently, only packing directory trees and unpacking complete archives, or the entries an
+ * {@link EntryFilter} selects, is supported.</i></p>
  */
 public class JTar {
 	private static int DEFAULT_BUFFER_SIZE = 4096;
+	private static int DEFAULT_PARALLELISM = 4;
+	private static int READ_AHEAD_PER_THREAD = 8;
+	private static int INFLATE_BUFFER_SIZE = 64 * 1024;
+	private static int READ_AHEAD_BUFFER_SIZE = 256 * 1024;
+	private static int READ_AHEAD_BUFFERS = 8;
+	private static int ASYNC_BYTES_IN_FLIGHT = 64 * 1024 * 1024;
+	private static int ASYNC_WRITES_IN_FLIGHT = 64;
+
+	private boolean sparseFiles;
+	private boolean hardLinks;
+	private boolean deduplicate;
+
+	public boolean isSparseFiles() {
+		return sparseFiles;
+	}
+
+	/**
+	 * Whether packing writes files with holes as sparse entries, see
+	 * {@link TarOutputStream#setSparseFiles(boolean)}. Unpacking always
+	 * recreates the holes of sparse entries.
+	 * 
+	 * @param sparseFiles
+	 */
+	public void setSparseFiles(boolean sparseFiles) {
+		this.sparseFiles = sparseFiles;
+	}
+
+	public boolean isHardLinks() {
+		return hardLinks;
+	}
+
+	/**
+	 * Whether packing stores files with several hard links once and the
+	 * other links as link entries, see
+	 * {@link TarOutputStream#setHardLinks(boolean)}. Unpacking always
+	 * creates link entries as hard links.
+	 * 
+	 * @param hardLinks
+	 */
+	public void setHardLinks(boolean hardLinks) {
+		this.hardLinks = hardLinks;
+	}
+
+	public boolean isDeduplicate() {
+		return deduplicate;
+	}
+
+	/**
+	 * Whether packing stores files with the same content once and the
+	 * others as link entries, see
+	 * {@link TarOutputStream#setDeduplicate(boolean)}.
+	 * 
+	 * @param deduplicate
+	 */
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	/**
+	 * Pack the directory into an uncompressed tar archive!
+	 * 
+	 * @param pathToSourceDir
+	 *            path to the directory to pack. Valid is whatever
+	 *            <code>new File()</code> accepts.
+	 * @param pathToTar
+	 *            path to the tar archive file to create.
+	 * @throws IOException
+	 * @see {@link #packTar(File, File, int)}
+	 */
+	public void packTar(String pathToSourceDir, String pathToTar)
+			throws IOException {
+		packTar(new File(pathToSourceDir), new File(pathToTar));
+	}
+
+	/**
+	 * Pack the directory into an uncompressed tar archive!
+	 * 
+	 * @param sourceDir
+	 *            the directory to pack.
+	 * @param tar
+	 *            the tar archive file to create.
+	 * @throws IOException
+	 * @see {@link #packTar(File, File, int)}
+	 */
+	public void packTar(File sourceDir, File tar) throws IOException {
+		packTar(sourceDir, tar, DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * Pack the directory into an uncompressed tar archive!
+	 * 
+	 * The entry names start with the name of the directory, like
+	 * <code>tar -cf tar -C parent dir</code> would create them. Files are
+	 * stat'ed and read by <code>parallelism</code> threads ahead of the
+	 * calling thread, which writes the archive, so reading many small files
+	 * overlaps with writing them.
+	 * 
+	 * @param sourceDir
+	 *            the directory to pack.
+	 * @param tar
+	 *            the tar archive file to create.
+	 * @param parallelism
+	 *            the number of threads reading files.
+	 * @throws IOException
+	 */
+	public void packTar(File sourceDir, File tar, int parallelism)
+			throws IOException {
+		packToStream(sourceDir, new TarOutputStream(tar), parallelism);
+	}
+
+	/**
+	 * Pack the directory into a gzip-compressed tar archive!
+	 * 
+	 * @param pathToSourceDir
+	 *            path to the directory to pack. Valid is whatever
+	 *            <code>new File()</code> accepts.
+	 * @param pathToTarGz
+	 *            path to the tar archive file to create.
+	 * @throws IOException
+	 * @see {@link #packTarGz(File, File, int)}
+	 */
+	public void packTarGz(String pathToSourceDir, String pathToTarGz)
+			throws IOException {
+		packTarGz(new File(pathToSourceDir), new File(pathToTarGz));
+	}
+
+	/**
+	 * Pack the directory into a gzip-compressed tar archive!
+	 * 
+	 * @param sourceDir
+	 *            the directory to pack.
+	 * @param tarGz
+	 *            the tar archive file to create.
+	 * @throws IOException
+	 * @see {@link #packTarGz(File, File, int)}
+	 */
+	public void packTarGz(File sourceDir, File tarGz) throws IOException {
+		packTarGz(sourceDir, tarGz, DEFAULT_PARALLELISM);
+	}
+
+	/**
+	 * Pack the directory into a gzip-compressed tar archive!
+	 * 
+	 * With a <code>parallelism</code> above 1, the archive is also compressed
+	 * on that many threads, see {@link ParallelGzipOutputStream}.
+	 * 
+	 * @param sourceDir
+	 *            the directory to pack.
+	 * @param tarGz
+	 *            the tar archive file to create.
+	 * @param parallelism
+	 *            the number of threads reading files and compressing.
+	 * @throws IOException
+	 * @see {@link #packTar(File, File, int)}
+	 */
+	public void packTarGz(File sourceDir, File tarGz, int parallelism)
+			throws IOException {
+		OutputStream gz;
+		if (parallelism > 1) {
+			gz = new ParallelGzipOutputStream(new FileOutputStream(tarGz),
+					parallelism);
+		} else {
+			gz = new BufferedOutputStream(new GZIPOutputStream(
+					new FileOutputStream(tarGz), DEFAULT_BUFFER_SIZE));
+		}
+		packToStream(sourceDir, new TarOutputStream(gz), parallelism);
+	}
+
+	private void packToStream(File sourceDir, TarOutputStream out,
+			int parallelism) throws IOException {
+		out.setSparseFiles(sparseFiles);
+		out.setHardLinks(hardLinks);
+		out.setDeduplicate(deduplicate);
+		try {
+			new DirectoryPacker(parallelism, parallelism
+					* READ_AHEAD_PER_THREAD).pack(sourceDir, out);
+		} finally {
+			out.close();
+		}
+	}
 
 	/**
 	 * Unpack the uncompressed tar archive into the target directory!
@@ -72,6 +259,172 @@ public class JTar {
 		unpackTarUsingFiles(tar, targetDir);
 	}
 
+	/**
+	 * Unpack the uncompressed tar archive into the target directory, writing
+	 * up to <code>parallelism</code> files at the same time!
+	 * 
+	 * The headers are read on the calling thread, which also creates the
+	 * directories, while the contents of the files are copied by a pool of
+	 * worker threads. This helps with archives of many small files, where the
+	 * time is spent creating files rather than copying data.
+	 * 
+	 * @param tar
+	 *            the archive file to unpack.
+	 * @param targetDir
+	 *            the directory into which to unpack the archive.
+	 * @param parallelism
+	 *            the number of worker threads, 1 unpacks on the calling
+	 *            thread.
+	 * @throws IOException
+	 */
+	public void unpackTar(File tar, File targetDir, int parallelism)
+			throws IOException {
+		unpackTar(tar, targetDir, parallelism, null);
+	}
+
+	/**
+	 * Unpack the uncompressed tar archive into the target directory in the
+	 * background, with up to 64 asynchronous writes of 64 MiB in total in
+	 * flight!
+	 * 
+	 * @param tar
+	 *            the archive file to unpack.
+	 * @param targetDir
+	 *            the directory into which to unpack the archive.
+	 * @return completes once all files are written and forced to the
+	 *         storage device
+	 * @see {@link #unpackTarAsync(File, File, int, int)}
+	 */
+	public Future<Void> unpackTarAsync(File tar, File targetDir) {
+		return unpackTarAsync(tar, targetDir, ASYNC_BYTES_IN_FLIGHT,
+				ASYNC_WRITES_IN_FLIGHT);
+	}
+
+	/**
+	 * Unpack the uncompressed tar archive into the target directory in the
+	 * background, writing many files at once with
+	 * {@link java.nio.channels.AsynchronousFileChannel}!
+	 * 
+	 * A background thread scans the headers, creates the directories, reads
+	 * the contents and issues the writes, while at most
+	 * <code>maxWritesInFlight</code> writes of at most
+	 * <code>maxBytesInFlight</code> bytes in total are in progress. Each file
+	 * is forced to the storage device before it is closed, and the
+	 * directories with the new names once all files and links are created.
+	 * The result is the same as that of {@link #unpackTar(File, File)}.
+	 * 
+	 * @param tar
+	 *            the archive file to unpack.
+	 * @param targetDir
+	 *            the directory into which to unpack the archive.
+	 * @param maxBytesInFlight
+	 *            the most bytes read from the archive but not yet written.
+	 * @param maxWritesInFlight
+	 *            the most writes in progress at the same time.
+	 * @return completes once all files are written and forced to the
+	 *         storage device, <code>get()</code> throws an
+	 *         {@link java.util.concurrent.ExecutionException} with the
+	 *         IOException if unpacking failed
+	 */
+	public Future<Void> unpackTarAsync(final File tar, final File targetDir,
+			final int maxBytesInFlight, final int maxWritesInFlight) {
+		ExecutorService executor = Executors
+				.newSingleThreadExecutor(new DaemonThreadFactory("unpack"));
+		try {
+			return executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					targetDir.mkdirs();
+					TarFile tarFile = new TarFile(tar);
+					try {
+						new TarFileExtractor(tarFile, targetDir).extractAllAsync(
+								maxBytesInFlight, maxWritesInFlight);
+					} finally {
+						tarFile.close();
+					}
+					return null;
+				}
+			});
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Unpack the entries of the uncompressed tar archive that the filter
+	 * accepts into the target directory!
+	 * 
+	 * @param tar
+	 *            the archive file to unpack.
+	 * @param targetDir
+	 *            the directory into which to unpack the archive.
+	 * @param filter
+	 *            the entries to unpack, e.g.
+	 *            <code>EntryFilter.glob("config/**")</code>
+	 * @throws IOException
+	 * @see {@link #unpackTar(File, File, int, EntryFilter)}
+	 */
+	public void unpackTar(File tar, File targetDir, EntryFilter filter)
+			throws IOException {
+		unpackTar(tar, targetDir, 1, filter);
+	}
+
+	/**
+	 * Unpack the entries of the uncompressed tar archive that the filter
+	 * accepts into the target directory, writing up to
+	 * <code>parallelism</code> files at the same time!
+	 * 
+	 * Only the headers of the other entries are read, their content is
+	 * skipped. With {@link EntryFilter#firstOccurrence(String...)}, the
+	 * archive is only read until an entry of each name was found.
+	 * 
+	 * @param tar
+	 *            the archive file to unpack.
+	 * @param targetDir
+	 *            the directory into which to unpack the archive.
+	 * @param parallelism
+	 *            the number of worker threads, 1 unpacks on the calling
+	 *            thread.
+	 * @param filter
+	 *            the entries to unpack, or null for all of them
+	 * @throws IOException
+	 */
+	public void unpackTar(File tar, File targetDir, int parallelism,
+			EntryFilter filter) throws IOException {
+		targetDir.mkdirs();
+		TarFile tarFile = new TarFile(tar, filter);
+		try {
+			new TarFileExtractor(tarFile, targetDir).extractAll(parallelism);
+		} finally {
+			tarFile.close();
+		}
+	}
+
+	/**
+	 * Unpack the uncompressed tar archive into the target directory, writing
+	 * up to <code>parallelism</code> files at the same time!
+	 * 
+	 * @param pathToTar
+	 *            path to the tar archive file. Valid is whatever
+	 *            <code>new File()</code> accepts.
+	 * @param pathToTargetDir
+	 *            path to the directory into which to unpack the archives
+	 *            contents to. Valid is whatever <code>new File()</code>
+	 *            accepts.
+	 * @param parallelism
+	 *            the number of worker threads, 1 unpacks on the calling
+	 *            thread.
+	 * @throws IllegalArgumentException
+	 *             if the archive file is not a readable file
+	 * @throws IOException
+	 * @see {@link #unpackTar(File, File, int)}
+	 */
+	public void unpackTar(String pathToTar, String pathToTargetDir,
+			int parallelism) throws IOException {
+		unpackTar(checkAndReturnArchiveFile(pathToTar), new File(
+				pathToTargetDir), parallelism);
+	}
+
 	/**
 	 * Unpack the uncompressed tar archive into the target directory!
 	 * 
@@ -87,9 +440,36 @@ public class JTar {
 	public void unpackTarFromStream(InputStream inputStream,
 			String pathToTargetDir) throws IOException {
 		unpackFromStream( //
-				new Buffering( //
-						new UseStream(inputStream)), //
-				new File(pathToTargetDir));
+				new UseStream(inputStream), //
+				new File(pathToTargetDir), null);
+	}
+
+	/**
+	 * Unpack the entries of the uncompressed tar archive that the filter
+	 * accepts into the target directory!
+	 * 
+	 * The content of the other entries is skipped with the stream's
+	 * <code>skip</code>, which seeks for a {@link java.io.FileInputStream}.
+	 * With {@link EntryFilter#firstOccurrence(String...)}, the stream is only
+	 * read until an entry of each name was found. As a stream cannot be read twice, hard links to entries the filter
+	 * rejects fail with an {@link IOException}; unpack a file to extract
+	 * their content under the link's name.
+	 * 
+	 * @param inputStream
+	 *            the archive to unpack.
+	 * @param pathToTargetDir
+	 *            path to the directory into which to unpack the archives
+	 *            contents to. Valid is whatever <code>new File()</code>
+	 *            accepts.
+	 * @param filter
+	 *            the entries to unpack
+	 * @throws IOException
+	 */
+	public void unpackTarFromStream(InputStream inputStream,
+			String pathToTargetDir, EntryFilter filter) throws IOException {
+		unpackFromStream( //
+				new UseStream(inputStream), //
+				new File(pathToTargetDir), filter);
 	}
 
 	/**
@@ -127,6 +507,98 @@ public class JTar {
 		unpackTarGzUsingFiles(tarGz, targetDir);
 	}
 
+	/**
+	 * Unpack the entries of the gzip-compressed tar archive that the filter
+	 * accepts into the target directory! The other entries still have to be
+	 * inflated, but are not written. A hard link to an entry the filter
+	 * rejects gets its target's content from a second pass over the archive.
+	 * 
+	 * @param tarGz
+	 *            the archive file to unpack.
+	 * @param targetDir
+	 *            the directory into which to unpack the archive.
+	 * @param filter
+	 *            the entries to unpack
+	 * @throws IOException
+	 */
+	public void unpackTarGz(File tarGz, File targetDir, EntryFilter filter)
+			throws IOException {
+		unpackFromStream( //
+				new GUnzipping(new FileInputStreamFromFile(tarGz) //
+				), targetDir, filter);
+	}
+
+	/**
+	 * Unpack the gzip-compressed tar archive into the target directory,
+	 * writing up to <code>parallelism</code> files at the same time!
+	 * 
+	 * With a <code>parallelism</code> above 1, the archive is unpacked in a
+	 * pipeline: one thread inflates the archive into a fixed ring of buffers,
+	 * the calling thread parses the tar and reads the small files, and a pool
+	 * of <code>parallelism</code> threads writes them to disk. Files larger
+	 * than 1 MiB are written by the calling thread.
+	 * 
+	 * If the archive consists of several gzip members, e.g. because it was
+	 * written by pigz or {@link SeekableTarGzOutputStream}, the members are
+	 * also inflated on <code>parallelism</code> threads, see
+	 * {@link ParallelGUnzipping}.
+	 * 
+	 * @param tarGz
+	 *            the archive file to unpack.
+	 * @param targetDir
+	 *            the directory into which to unpack the archive.
+	 * @param parallelism
+	 *            the number of writer threads, 1 unpacks on the calling
+	 *            thread.
+	 * @throws IOException
+	 */
+	public void unpackTarGz(File tarGz, File targetDir, int parallelism)
+			throws IOException {
+		if (parallelism <= 1) {
+			unpackTarGzUsingFiles(tarGz, targetDir);
+			return;
+		}
+
+		targetDir.mkdirs();
+		InputStream gz = ParallelGunzipInputStream.open(tarGz, parallelism);
+		if (gz == null) {
+			gz = new ReadAheadInputStream(new GZIPInputStream(
+					new FileInputStream(tarGz), INFLATE_BUFFER_SIZE),
+					READ_AHEAD_BUFFER_SIZE, READ_AHEAD_BUFFERS);
+		}
+		TarInputStream tis = new TarInputStream(gz);
+		try {
+			new TarStreamExtractor(targetDir).extractAll(tis, parallelism);
+		} finally {
+			tis.close();
+		}
+	}
+
+	/**
+	 * Unpack the gzip-compressed tar archive into the target directory,
+	 * writing up to <code>parallelism</code> files at the same time!
+	 * 
+	 * @param pathToTarGz
+	 *            path to the tar archive file. Valid is whatever
+	 *            <code>new File()</code> accepts.
+	 * @param pathToTargetDir
+	 *            path to the directory into which to unpack the archives
+	 *            contents to. Valid is whatever <code>new File()</code>
+	 *            accepts.
+	 * @param parallelism
+	 *            the number of writer threads, 1 unpacks on the calling
+	 *            thread.
+	 * @throws IllegalArgumentException
+	 *             if the archive file is not a readable file
+	 * @throws IOException
+	 * @see {@link #unpackTarGz(File, File, int)}
+	 */
+	public void unpackTarGz(String pathToTarGz, String pathToTargetDir,
+			int parallelism) throws IOException {
+		unpackTarGz(checkAndReturnArchiveFile(pathToTarGz), new File(
+				pathToTargetDir), parallelism);
+	}
+
 	/**
 	 * Unpack the gzip-compressed tar archive into the target directory!
 	 * 
@@ -143,26 +615,25 @@ public class JTar {
 	public void unpackTarGzFromStream(InputStream inputStream,
 			String pathToTargetDir) throws IOException {
 		unpackFromStream( //
-				new Buffering( //
-						new GUnzipping( //
-								new UseStream(inputStream))), //
-				new File(pathToTargetDir));
+				new GUnzipping( //
+						new UseStream(inputStream)), //
+				new File(pathToTargetDir), null);
 	}
 
+	/**
+	 * Archives on disk are not streamed: the content of each entry is
+	 * transferred directly from the archive file into the target file.
+	 */
 	private void unpackTarUsingFiles(File tar, File targetDir)
 			throws IOException {
-		unpackFromStream( //
-				new Buffering( //
-						new FileInputStreamFromFile(tar) //
-				), targetDir);
+		unpackTar(tar, targetDir, 1);
 	}
 
 	private void unpackTarGzUsingFiles(File tarGz, File targetDir)
 			throws IOException {
 		unpackFromStream( //
-				new Buffering( //
-						new GUnzipping(new FileInputStreamFromFile(tarGz) //
-						)), targetDir);
+				new GUnzipping(new FileInputStreamFromFile(tarGz) //
+				), targetDir, null);
 	}
 
 	private File checkAndReturnArchiveFile(String pathToTar) {
@@ -184,12 +655,29 @@ public class JTar {
 	}
 
 	private void unpackFromStream(IInputStreamFactory streamFactory,
-			File targetDir) throws IOException {
+			File targetDir, EntryFilter filter) throws IOException {
 		targetDir.mkdirs();
 		TarInputStream tis = null;
 		try {
 			tis = new TarInputStream(streamFactory.getStream());
-			extractAll(tis, targetDir);
+			TarStreamExtractor extractor = new TarStreamExtractor(targetDir);
+			if (filter == null) {
+				extractor.extractAll(tis);
+				return;
+			}
+
+			extractor.extractAll(tis, filter);
+			if (extractor.getPendingLinks().isEmpty()) {
+				return;
+			}
+			// The targets of these links were rejected: a file can be read again
+			if (streamFactory instanceof UseStream) {
+				throw new IOException("Cannot extract hard links to entries the filter rejected from a stream: "
+						+ extractor.getPendingLinks());
+			}
+			tis.close();
+			tis = new TarInputStream(streamFactory.getStream());
+			extractor.extractLinkTargets(tis);
 		} finally {
 			if (tis != null) {
 				tis.close();
@@ -227,6 +715,33 @@ public class JTar {
 		}
 	}
 
+	/**
+	 * Inflates a gzip file that consists of several members on a pool of
+	 * threads. The members are found with the file's {@link TarGzIndex}, if
+	 * there is one, or by scanning the file for gzip headers. Files with a
+	 * single member are read as {@link GUnzipping} would.
+	 */
+	public static class ParallelGUnzipping implements IInputStreamFactory {
+		File file;
+		int threads;
+
+		public ParallelGUnzipping(File file, int threads) {
+			this.file = file;
+			this.threads = threads;
+		}
+
+		@Override
+		public InputStream getStream() throws IOException {
+			InputStream in = ParallelGunzipInputStream.open(this.file,
+					this.threads);
+			if (in != null) {
+				return in;
+			}
+			return new GUnzipping(new FileInputStreamFromFile(this.file))
+					.getStream();
+		}
+	}
+
 	public static class Buffering implements IInputStreamFactory {
 		IInputStreamFactory factory;
 
@@ -253,37 +768,4 @@ public class JTar {
 		}
 	}
 
-	private void extractAll(TarInputStream tis, File destFolder)
-			throws IOException {
-		BufferedOutputStream dest = null;
-
-		TarEntry entry;
-		while ((entry = tis.getNextEntry()) != null) {
-			int count;
-			byte data[] = new byte[DEFAULT_BUFFER_SIZE];
-
-			if (entry.isDirectory()) {
-				new File(destFolder + "/" + entry.getName()).mkdirs();
-				continue;
-			} else {
-				int di = entry.getName().lastIndexOf('/');
-				if (di != -1) {
-					new File(destFolder + "/"
-							+ entry.getName().substring(0, di)).mkdirs();
-				}
-			}
-
-			FileOutputStream fos = new FileOutputStream(destFolder + "/"
-					+ entry.getName());
-			dest = new BufferedOutputStream(fos);
-
-			while ((count = tis.read(data)) != -1) {
-				dest.write(data, 0, count);
-			}
-
-			dest.flush();
-			dest.close();
-		}
-	}
-
 }
@@ -22,6 +22,7 @@ package org.kamranzafar.jtar;
  * 
  */
 public class Octal {
+    private static final byte[] DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7' };
 
     /**
      * Parse an octal string from a header buffer. This is used for the file
@@ -34,28 +35,30 @@ public class Octal {
      * @param length
      *            The number of header bytes to parse.
      * 
-     * @return The long value of the octal string.
+     * @return The long value of the octal string, or of the GNU base-256
+     *         number if the field starts with 0x80 or 0xFF.
      */
     public static long parseOctal(byte[] header, int offset, int length) {
-        long result = 0;
-        boolean stillPadding = true;
+        if (( header[offset] & 0x80 ) != 0) {
+            return parseBase256( header, offset, length );
+        }
 
+        int i = offset;
         int end = offset + length;
-        for (int i = offset; i < end; ++i) {
-            if (header[i] == 0)
-                break;
-
-            if (header[i] == (byte) ' ' || header[i] == '0') {
-                if (stillPadding)
-                    continue;
+        while (i < end && ( header[i] == (byte) ' ' || header[i] == '0' )) {
+            i++;
+        }
 
-                if (header[i] == (byte) ' ')
-                    break;
+        // A NUL, a space or any other byte that is no octal digit ends the
+        // number, subtracting '0' leaves bits above the lowest three for them
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = header[i] - '0';
+            if (( digit & ~7 ) != 0) {
+                break;
             }
 
-            stillPadding = false;
-
-            result = ( result << 3 ) + ( header[i] - '0' );
+            result = ( result << 3 ) | digit;
         }
 
         return result;
@@ -75,30 +78,30 @@ public class Octal {
      * @return The integer value of the octal bytes.
      */
     public static int getOctalBytes(long value, byte[] buf, int offset, int length) {
-        int idx = length - 1;
-
-        buf[offset + idx] = 0;
-        --idx;
-        buf[offset + idx] = (byte) ' ';
-        --idx;
-
-        if (value == 0) {
-            buf[offset + idx] = (byte) '0';
-            --idx;
-        } else {
-            for (long val = value; idx >= 0 && val > 0; --idx) {
-                buf[offset + idx] = (byte) ( (byte) '0' + (byte) ( val & 7 ) );
-                val = val >> 3;
-            }
-        }
-
-        for (; idx >= 0; --idx) {
-            buf[offset + idx] = (byte) ' ';
-        }
+        buf[offset + length - 1] = 0;
+        buf[offset + length - 2] = (byte) ' ';
+        putDigits( value, buf, offset, offset + length - 2 );
 
         return offset + length;
     }
 
+    /**
+     * Writes the value right-aligned into [offset, end) and pads the field
+     * with spaces on the left. Digits that do not fit are dropped.
+     */
+    private static void putDigits(long value, byte[] buf, int offset, int end) {
+        int idx = end - 1;
+        long val = value;
+        do {
+            buf[idx--] = DIGITS[(int) val & 7];
+            val >>>= 3;
+        } while (val != 0 && idx >= offset);
+
+        while (idx >= offset) {
+            buf[idx--] = (byte) ' ';
+        }
+    }
+
     /**
      * Parse the checksum octal integer from a header buffer.
      * 
@@ -132,10 +135,61 @@ public class Octal {
      * @return The long value of the octal bytes.
      */
     public static int getLongOctalBytes(long value, byte[] buf, int offset, int length) {
-        byte[] temp = new byte[length + 1];
-        getOctalBytes( value, temp, 0, length + 1 );
-        System.arraycopy( temp, 0, buf, offset, length );
+        buf[offset + length - 1] = (byte) ' ';
+        putDigits( value, buf, offset, offset + length - 1 );
+
+        return offset + length;
+    }
+
+    /**
+     * Parse a GNU base-256 number: a big-endian two's complement binary
+     * number, flagged by the high bit of the first byte.
+     * 
+     * @param header
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static long parseBase256(byte[] header, int offset, int length) {
+        long result = ( header[offset] & 0x40 ) != 0 ? -1L : 0L;
+        result = ( result << 7 ) | ( header[offset] & 0x7F );
+
+        for (int i = offset + 1; i < offset + length; i++) {
+            result = ( result << 8 ) | ( header[i] & 0xFF );
+        }
+
+        return result;
+    }
+
+    /**
+     * Write a GNU base-256 number, for values the octal field cannot hold.
+     * 
+     * @param value
+     * @param buf
+     * @param offset
+     * @param length
+     * @return The offset after the field.
+     */
+    public static int getBase256Bytes(long value, byte[] buf, int offset, int length) {
+        long val = value;
+        for (int i = offset + length - 1; i > offset; i--) {
+            buf[i] = (byte) val;
+            val >>= 8;
+        }
+        buf[offset] = (byte) ( value < 0 ? 0xFF : 0x80 );
+
         return offset + length;
     }
 
+    /**
+     * Checks if the value can be written with the given number of octal
+     * digits
+     * 
+     * @param value
+     * @param digits
+     * @return
+     */
+    public static boolean fitsOctal(long value, int digits) {
+        return value >= 0 && ( digits >= 21 || value >> ( 3 * digits ) == 0 );
+    }
 }
@@ -0,0 +1,656 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Reads a gzip file that consists of several members, e.g. written by
+ * pigz, bgzip or {@link BlockGzipOutputStream}, inflating the members on a
+ * thread pool. The data is returned in order, as
+ * <code>GZIPInputStream</code> would return it.</p>
+ *
+ * <p>The members are taken from a {@link TarGzIndex} if there is one.
+ * Otherwise the file is scanned for gzip headers, a buffer at a time as the
+ * decoders need more members. A header found that way may be a coincidence
+ * inside compressed data, so such candidates are inflated speculatively and
+ * only used if the member before them ends exactly where they start.</p>
+ *
+ * <p>Up to two members per thread are inflated ahead of the reader. Each
+ * keeps at most {@link #MAX_BUFFERED} bytes of output in memory; the rest of
+ * a larger member is inflated by the reading thread when it gets there.</p>
+ */
+class ParallelGunzipInputStream extends InputStream {
+	static final int MAX_BUFFERED = 16 * 1024 * 1024;
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int SCAN_BUFFER_SIZE = 1024 * 1024;
+	private static final int HEADER_SIZE = 10;
+	private static final int MAX_HEADER_FIELD = 64 * 1024;
+	// How far into the file a scan looks for the second member
+	private static final long SECOND_MEMBER_WINDOW = MAX_BUFFERED;
+
+	private final FileChannel channel;
+	private final MemberSource members;
+	private final boolean verifyBoundaries;
+	private final int maxPending;
+	private final int maxBuffered;
+	private final ExecutorService pool;
+	private final Deque<Future<MemberDecoder>> pending = new ArrayDeque<Future<MemberDecoder>>();
+	private final Deque<Member> pendingMembers = new ArrayDeque<Member>();
+	private boolean allSubmitted;
+	private long expectedHeader;
+	private MemberDecoder current;
+	private boolean eof;
+
+	/**
+	 * A member's location in the file
+	 */
+	static class Member {
+		/** Start of the gzip header, -1 if only known from an index */
+		final long headerOffset;
+		/** Start of the deflate data */
+		final long dataOffset;
+
+		Member(long headerOffset, long dataOffset) {
+			this.headerOffset = headerOffset;
+			this.dataOffset = dataOffset;
+		}
+	}
+
+	/**
+	 * The members of a file in file order
+	 */
+	interface MemberSource {
+		/**
+		 * @return the next member, or <code>null</code> after the last
+		 * @throws IOException
+		 */
+		Member next() throws IOException;
+	}
+
+	/**
+	 * Opens the file for parallel decompression, or returns
+	 * <code>null</code> if it has fewer than two members and would not
+	 * benefit.
+	 *
+	 * Without an index, the file has to start with a member and a second
+	 * one that inflates without error has to be found within
+	 * {@link #SECOND_MEMBER_WINDOW} bytes. Files written by a single
+	 * GZIPOutputStream fail this quickly and are left to GZIPInputStream.
+	 *
+	 * @param file
+	 * @param threads
+	 * @return
+	 * @throws IOException
+	 */
+	static ParallelGunzipInputStream open(File file, int threads) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			List<Member> indexed = null;
+
+			File indexFile = TarGzIndex.indexFileFor(file);
+			if (indexFile.isFile()) {
+				try {
+					TarGzIndex index = TarGzIndex.read(indexFile);
+					if (index.isValidFor(file)) {
+						indexed = fromIndex(index);
+					}
+				} catch (IOException e) {
+					// Not usable, scan instead
+				}
+			}
+
+			MemberSource members;
+			if (indexed != null) {
+				members = indexed.size() < 2 ? null : members(indexed, null);
+			} else {
+				members = scanToSecondMember(channel);
+			}
+
+			if (members == null) {
+				channel.close();
+				return null;
+			}
+			return new ParallelGunzipInputStream(channel, members, indexed == null, threads, MAX_BUFFERED);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param channel
+	 * @param members
+	 *            a {@link Scanner} or those of {@link #fromIndex(TarGzIndex)},
+	 *            the first starting at the beginning of the file
+	 * @param verifyBoundaries
+	 *            true if the members are only candidates found by a scan
+	 * @param threads
+	 * @param maxBuffered
+	 *            the amount of output to keep in memory per member
+	 */
+	ParallelGunzipInputStream(FileChannel channel, MemberSource members, boolean verifyBoundaries, int threads,
+			int maxBuffered) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+
+		this.channel = channel;
+		this.members = members;
+		this.verifyBoundaries = verifyBoundaries;
+		this.maxPending = threads * 2;
+		this.maxBuffered = maxBuffered;
+		this.pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("inflate"));
+	}
+
+	/**
+	 * Returns the members recorded in an index
+	 *
+	 * @param index
+	 * @return
+	 */
+	static List<Member> fromIndex(TarGzIndex index) {
+		List<Member> members = new ArrayList<Member>();
+		for (TarGzIndex.Checkpoint checkpoint : index.getCheckpoints()) {
+			if (checkpoint.isMemberStart()) {
+				members.add(new Member(-1, checkpoint.bitOffset >>> 3));
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * Returns the members of the list, then those of the source
+	 *
+	 * @param members
+	 * @param rest
+	 *            the members after the list, or <code>null</code>
+	 * @return
+	 */
+	static MemberSource members(final List<Member> members, final MemberSource rest) {
+		return new MemberSource() {
+			private int next;
+
+			@Override
+			public Member next() throws IOException {
+				if (next < members.size()) {
+					return members.get(next++);
+				}
+				return rest == null ? null : rest.next();
+			}
+		};
+	}
+
+	/**
+	 * Scans for the first member and a second one that inflates without
+	 * error, to its trailer or for {@link #MAX_BUFFERED} bytes
+	 *
+	 * @param channel
+	 * @return the candidates found so far followed by the rest of the scan,
+	 *         or <code>null</code> if there is no such second member
+	 * @throws IOException
+	 */
+	private static MemberSource scanToSecondMember(FileChannel channel) throws IOException {
+		Scanner scanner = new Scanner(channel);
+		List<Member> candidates = new ArrayList<Member>();
+
+		Member candidate = scanner.next(1);
+		if (candidate == null) {
+			return null;
+		}
+		candidates.add(candidate);
+
+		while ((candidate = scanner.next(SECOND_MEMBER_WINDOW)) != null) {
+			// The others are kept, the boundary checks discard them
+			candidates.add(candidate);
+			if (new MemberDecoder(channel, candidate.dataOffset).verify(MAX_BUFFERED)) {
+				return members(candidates, scanner);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Finds all candidates at once, see {@link Scanner}
+	 *
+	 * @param channel
+	 * @return the candidates in file order
+	 * @throws IOException
+	 */
+	static List<Member> scan(FileChannel channel) throws IOException {
+		List<Member> members = new ArrayList<Member>();
+		Scanner scanner = new Scanner(channel);
+		Member member;
+		while ((member = scanner.next()) != null) {
+			members.add(member);
+		}
+		return members;
+	}
+
+	/**
+	 * Finds everything that looks like a gzip member header, reading the
+	 * file a buffer at a time as more members are asked for. The check is
+	 * no stricter than GZIPInputStream's, so no real member is missed.
+	 */
+	static class Scanner implements MemberSource {
+		private final FileChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		private final Deque<Member> found = new ArrayDeque<Member>();
+		private final long size;
+		private long position;
+
+		Scanner(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+		}
+
+		@Override
+		public Member next() throws IOException {
+			return next(Long.MAX_VALUE);
+		}
+
+		/**
+		 * Returns the next candidate if it starts before the limit, without
+		 * reading further than the buffer the limit falls into
+		 *
+		 * @param limit
+		 *            an offset in the file
+		 * @return
+		 * @throws IOException
+		 */
+		Member next(long limit) throws IOException {
+			while (found.isEmpty() && position < Math.min(size, limit)) {
+				scanBuffer();
+			}
+
+			Member member = found.peekFirst();
+			return member != null && member.headerOffset < limit ? found.removeFirst() : null;
+		}
+
+		private void scanBuffer() throws IOException {
+			byte[] bytes = buffer.array();
+			buffer.clear();
+			int n = readFully(channel, buffer, position);
+			if (n < 4) {
+				position = size;
+				return;
+			}
+
+			// The last 3 bytes are looked at again with the next buffer
+			int limit = position + n >= size ? n : n - 3;
+			for (int i = 0; i < limit && i + 3 < n; i++) {
+				if (bytes[i] == 0x1F && bytes[i + 1] == (byte) 0x8B && bytes[i + 2] == Deflater.DEFLATED) {
+					long dataOffset = parseHeader(channel, position + i);
+					if (dataOffset != -1) {
+						found.addLast(new Member(position + i, dataOffset));
+					}
+				}
+			}
+			position += limit;
+		}
+	}
+
+	/**
+	 * Returns the start of the deflate data, or -1 if there is no valid
+	 * header at the offset
+	 */
+	private static long parseHeader(FileChannel channel, long offset) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		if (readFully(channel, header, offset) < HEADER_SIZE) {
+			return -1;
+		}
+
+		int flags = header.get(3) & 0xFF;
+
+		long position = offset + HEADER_SIZE;
+		if ((flags & 4) != 0) {
+			ByteBuffer length = ByteBuffer.allocate(2);
+			if (readFully(channel, length, position) < 2) {
+				return -1;
+			}
+			position += 2 + ((length.get(0) & 0xFF) | (length.get(1) & 0xFF) << 8);
+		}
+		if ((flags & 8) != 0) {
+			position = skipString(channel, position);
+		}
+		if ((flags & 16) != 0 && position != -1) {
+			position = skipString(channel, position);
+		}
+		if ((flags & 2) != 0 && position != -1) {
+			position += 2;
+		}
+
+		return position != -1 && position < channel.size() ? position : -1;
+	}
+
+	private static long skipString(FileChannel channel, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(1024);
+		long end = position + MAX_HEADER_FIELD;
+
+		while (position < end) {
+			buffer.clear();
+			int n = readFully(channel, buffer, position);
+			if (n <= 0) {
+				return -1;
+			}
+			for (int i = 0; i < n; i++) {
+				if (buffer.get(i) == 0) {
+					return position + i + 1;
+				}
+			}
+			position += n;
+		}
+		return -1;
+	}
+
+	private static int readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int total = 0;
+		while (buffer.hasRemaining()) {
+			int res = channel.read(buffer, position + total);
+			if (res < 0) {
+				break;
+			}
+			total += res;
+		}
+		return total;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+
+		while (!eof) {
+			if (current == null) {
+				current = takeNext();
+				if (current == null) {
+					eof = true;
+					break;
+				}
+			}
+
+			int n = current.read(b, off, len);
+			if (n > 0) {
+				return n;
+			}
+
+			expectedHeader = current.end;
+			current = null;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the decoder of the member that follows the current one, or
+	 * <code>null</code> after the last member
+	 */
+	private MemberDecoder takeNext() throws IOException {
+		while (true) {
+			submitAhead();
+			if (pending.isEmpty()) {
+				return null;
+			}
+
+			Future<MemberDecoder> future = pending.removeFirst();
+			Member member = pendingMembers.removeFirst();
+
+			if (verifyBoundaries) {
+				if (member.headerOffset < expectedHeader) {
+					// A header-like pattern inside the previous member. Not
+					// interrupted, that would close the shared channel.
+					future.cancel(false);
+					continue;
+				}
+				if (member.headerOffset > expectedHeader) {
+					// Whatever follows the last member is ignored, like
+					// GZIPInputStream does
+					return null;
+				}
+			}
+
+			return get(future);
+		}
+	}
+
+	private void submitAhead() throws IOException {
+		while (pending.size() < maxPending && !allSubmitted) {
+			final Member member = members.next();
+			if (member == null) {
+				allSubmitted = true;
+				break;
+			}
+
+			pending.addLast(pool.submit(new Callable<MemberDecoder>() {
+				@Override
+				public MemberDecoder call() throws IOException {
+					MemberDecoder decoder = new MemberDecoder(channel, member.dataOffset);
+					decoder.inflateAhead(maxBuffered);
+					return decoder;
+				}
+			}));
+			pendingMembers.addLast(member);
+		}
+	}
+
+	private static MemberDecoder get(Future<MemberDecoder> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while inflating");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		eof = true;
+		pool.shutdownNow();
+		if (current != null) {
+			current.end();
+		}
+		channel.close();
+	}
+
+	/**
+	 * Inflates one member, first into memory on a worker thread, then for
+	 * the rest of a large member directly into the reader's buffer
+	 */
+	private static class MemberDecoder {
+		private final FileChannel channel;
+		private final long dataOffset;
+		private final CRC32 crc = new CRC32();
+		private final List<byte[]> chunks = new ArrayList<byte[]>();
+		private final List<Integer> lengths = new ArrayList<Integer>();
+		private Inflater inflater = new Inflater(true);
+		private ByteBuffer input = ByteBuffer.allocate(CHUNK_SIZE);
+		private long inputPosition;
+		private long totalOut;
+		private int chunk;
+		private int chunkPosition;
+		long end = -1;
+
+		MemberDecoder(FileChannel channel, long dataOffset) {
+			this.channel = channel;
+			this.dataOffset = dataOffset;
+			this.inputPosition = dataOffset;
+		}
+
+		/**
+		 * Inflates the member without keeping the output
+		 *
+		 * @param max
+		 * @return true if it ends with a valid trailer or inflates to
+		 *         <code>max</code> bytes without error
+		 */
+		boolean verify(long max) {
+			byte[] data = new byte[CHUNK_SIZE];
+			try {
+				while (inflater != null && totalOut < max) {
+					inflate(data, 0, data.length);
+				}
+				return true;
+			} catch (IOException e) {
+				return false;
+			} finally {
+				end();
+			}
+		}
+
+		void inflateAhead(int max) throws IOException {
+			long buffered = 0;
+			byte[] data = new byte[CHUNK_SIZE];
+			int length = 0;
+			while (inflater != null && buffered < max) {
+				int n = inflate(data, length, data.length - length);
+				length += n;
+				buffered += n;
+
+				if (length == data.length) {
+					chunks.add(data);
+					lengths.add(length);
+					data = new byte[CHUNK_SIZE];
+					length = 0;
+				}
+			}
+			if (length > 0) {
+				chunks.add(data);
+				lengths.add(length);
+			}
+		}
+
+		/**
+		 * @return the number of bytes read, 0 at the end of the member
+		 */
+		int read(byte[] b, int off, int len) throws IOException {
+			while (chunk < chunks.size()) {
+				int available = lengths.get(chunk) - chunkPosition;
+				if (available == 0) {
+					chunks.set(chunk, null);
+					chunk++;
+					chunkPosition = 0;
+					continue;
+				}
+
+				int n = Math.min(len, available);
+				System.arraycopy(chunks.get(chunk), chunkPosition, b, off, n);
+				chunkPosition += n;
+				return n;
+			}
+
+			while (inflater != null) {
+				int n = inflate(b, off, len);
+				if (n > 0) {
+					return n;
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Inflates some data, verifying the trailer when the member ends
+		 */
+		private int inflate(byte[] b, int off, int len) throws IOException {
+			try {
+				int n = inflater.inflate(b, off, len);
+				if (n > 0) {
+					crc.update(b, off, n);
+					totalOut += n;
+					return n;
+				}
+
+				if (inflater.finished()) {
+					readTrailer();
+				} else if (inflater.needsDictionary()) {
+					throw new ZipException("Unexpected preset dictionary");
+				} else if (inflater.needsInput()) {
+					input.clear();
+					int res = channel.read(input, inputPosition);
+					if (res <= 0) {
+						throw new EOFException("Unexpected end of ZLIB input stream");
+					}
+					inputPosition += res;
+					inflater.setInput(input.array(), 0, res);
+				}
+				return 0;
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			}
+		}
+
+		private void readTrailer() throws IOException {
+			long trailerOffset = dataOffset + inflater.getBytesRead();
+			end();
+
+			ByteBuffer trailer = ByteBuffer.allocate(8);
+			if (readFully(channel, trailer, trailerOffset) < 8) {
+				throw new EOFException("Unexpected end of GZIP input stream");
+			}
+
+			long expectedCrc = (trailer.get(0) & 0xFFL) | (trailer.get(1) & 0xFFL) << 8
+					| (trailer.get(2) & 0xFFL) << 16 | (trailer.get(3) & 0xFFL) << 24;
+			long expectedSize = (trailer.get(4) & 0xFFL) | (trailer.get(5) & 0xFFL) << 8
+					| (trailer.get(6) & 0xFFL) << 16 | (trailer.get(7) & 0xFFL) << 24;
+			if (expectedCrc != crc.getValue() || expectedSize != (totalOut & 0xFFFFFFFFL)) {
+				throw new ZipException("Corrupt GZIP trailer");
+			}
+
+			end = trailerOffset + 8;
+		}
+
+		void end() {
+			if (inflater != null) {
+				inflater.end();
+				inflater = null;
+				input = null;
+			}
+		}
+	}
+}
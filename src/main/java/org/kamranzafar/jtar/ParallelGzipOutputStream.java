@@ -0,0 +1,374 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Writes a gzip stream, compressing on several threads like pigz does.</p>
+ *
+ * <p>The data is cut into fixed size blocks which are deflated independently
+ * on a thread pool. Each block is primed with the last 32 KiB of the block
+ * before it as the preset dictionary, so matches across block boundaries are
+ * still found and the ratio stays close to a single threaded deflate. Every
+ * block but the last ends with a sync flush, which byte-aligns it, so the
+ * compressed blocks can simply be concatenated. The checksums of the blocks
+ * are combined into the CRC32 of the whole stream.</p>
+ *
+ * <p>The result is a single standard gzip member that
+ * <code>GZIPInputStream</code> and gunzip read as usual. At most two blocks
+ * per thread are in flight, so memory use is bounded regardless of the
+ * amount of data.</p>
+ *
+ * <p>{@link #flush()} only writes blocks that are complete; the data of a
+ * partial block is compressed when the block fills up or the stream is
+ * closed.</p>
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+	public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+	private static final int GZIP_MAGIC = 0x8b1f;
+	private static final int CRC32_POLYNOMIAL = 0xedb88320;
+
+	private final OutputStream out;
+	private final int level;
+	private final int blockSize;
+	private final int maxPending;
+	private final ExecutorService pool;
+	private final Deque<Future<Block>> pending = new ArrayDeque<Future<Block>>();
+	private final Deque<byte[]> freeBuffers = new ArrayDeque<byte[]>();
+	private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+
+	private byte[] current;
+	private int currentLength;
+	private byte[] dictionary;
+	private long crc;
+	private long totalIn;
+	private boolean closed;
+
+	public ParallelGzipOutputStream(OutputStream out) throws IOException {
+		this(out, Runtime.getRuntime().availableProcessors());
+	}
+
+	public ParallelGzipOutputStream(OutputStream out, int threads) throws IOException {
+		this(out, threads, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param out
+	 *            the stream to write the compressed data to
+	 * @param threads
+	 *            the number of compressing threads
+	 * @param blockSize
+	 *            the amount of uncompressed data per block, at least 32 KiB
+	 * @param level
+	 *            the deflate compression level
+	 * @throws IOException
+	 */
+	public ParallelGzipOutputStream(OutputStream out, int threads, int blockSize, int level) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + threads);
+		}
+		if (blockSize < DICTIONARY_SIZE) {
+			throw new IllegalArgumentException("Block size must be at least " + DICTIONARY_SIZE + ": " + blockSize);
+		}
+
+		this.out = out;
+		this.level = level;
+		this.blockSize = blockSize;
+		this.maxPending = threads * 2;
+		this.pool = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("deflate"));
+		this.current = new byte[blockSize];
+
+		writeHeader();
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+
+		while (len > 0) {
+			int n = Math.min(len, blockSize - currentLength);
+			System.arraycopy(b, off, current, currentLength, n);
+			currentLength += n;
+			off += n;
+			len -= n;
+
+			if (currentLength == blockSize) {
+				submit(false);
+			}
+		}
+	}
+
+	/**
+	 * Writes the blocks that are already compressed and flushes the
+	 * underlying stream
+	 */
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+
+		while (!pending.isEmpty() && pending.peekFirst().isDone()) {
+			writeBlock(pending.removeFirst());
+		}
+		out.flush();
+	}
+
+	/**
+	 * Compresses the remaining data, writes the gzip trailer and closes the
+	 * underlying stream
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+
+		try {
+			submit(true);
+			while (!pending.isEmpty()) {
+				writeBlock(pending.removeFirst());
+			}
+			writeTrailer();
+		} finally {
+			closed = true;
+			pool.shutdownNow();
+			Deflater deflater;
+			while ((deflater = deflaters.poll()) != null) {
+				deflater.end();
+			}
+			out.close();
+		}
+	}
+
+	private void ensureOpen() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	/**
+	 * Hands the current block to the pool and starts a new one
+	 */
+	private void submit(boolean last) throws IOException {
+		final byte[] data = current;
+		final int length = currentLength;
+		final byte[] dict = dictionary;
+		final boolean finish = last;
+
+		// The next block is primed with the tail of this one
+		if (!last) {
+			dictionary = new byte[DICTIONARY_SIZE];
+			System.arraycopy(data, length - DICTIONARY_SIZE, dictionary, 0, DICTIONARY_SIZE);
+		}
+
+		pending.addLast(pool.submit(new Callable<Block>() {
+			@Override
+			public Block call() {
+				return compress(data, length, dict, finish);
+			}
+		}));
+
+		while (pending.size() > maxPending) {
+			writeBlock(pending.removeFirst());
+		}
+
+		current = freeBuffers.isEmpty() ? new byte[blockSize] : freeBuffers.removeFirst();
+		currentLength = 0;
+	}
+
+	private Block compress(byte[] data, int length, byte[] dict, boolean last) {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			deflater = new Deflater(level, true);
+		}
+
+		try {
+			if (dict != null) {
+				deflater.setDictionary(dict);
+			}
+			deflater.setInput(data, 0, length);
+
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+			byte[] buffer = new byte[16 * 1024];
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					int n = deflater.deflate(buffer);
+					compressed.write(buffer, 0, n);
+				}
+			} else {
+				int n;
+				do {
+					n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					compressed.write(buffer, 0, n);
+				} while (n == buffer.length);
+			}
+
+			CRC32 checksum = new CRC32();
+			checksum.update(data, 0, length);
+
+			return new Block(data, length, compressed.toByteArray(), checksum.getValue());
+		} finally {
+			deflater.reset();
+			deflaters.offer(deflater);
+		}
+	}
+
+	private void writeBlock(Future<Block> future) throws IOException {
+		Block block;
+		try {
+			block = future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while compressing");
+		} catch (ExecutionException e) {
+			throw new IOException("Compression failed", e.getCause());
+		}
+
+		out.write(block.compressed);
+		crc = combineCrc32(crc, block.crc, block.length);
+		totalIn += block.length;
+
+		if (block.data.length == blockSize) {
+			freeBuffers.addLast(block.data);
+		}
+	}
+
+	private void writeHeader() throws IOException {
+		out.write(new byte[] { (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 });
+	}
+
+	private void writeTrailer() throws IOException {
+		byte[] trailer = new byte[8];
+		writeInt(trailer, 0, crc);
+		writeInt(trailer, 4, totalIn);
+		out.write(trailer);
+	}
+
+	private static void writeInt(byte[] buf, int offset, long value) {
+		buf[offset] = (byte) value;
+		buf[offset + 1] = (byte) (value >> 8);
+		buf[offset + 2] = (byte) (value >> 16);
+		buf[offset + 3] = (byte) (value >> 24);
+	}
+
+	/**
+	 * Returns the CRC32 of the concatenation of two pieces of data, given the
+	 * CRC32 of each piece and the length of the second. This is the
+	 * crc32_combine algorithm of zlib, which applies the effect of
+	 * <code>length2</code> zero bytes to <code>crc1</code> using a square
+	 * and multiply over the GF(2) matrix of the CRC register.
+	 *
+	 * @param crc1
+	 * @param crc2
+	 * @param length2
+	 * @return
+	 */
+	static long combineCrc32(long crc1, long crc2, long length2) {
+		if (length2 <= 0) {
+			return crc1;
+		}
+
+		long[] even = new long[32];
+		long[] odd = new long[32];
+
+		// The operator for one zero bit
+		odd[0] = CRC32_POLYNOMIAL & 0xFFFFFFFFL;
+		long row = 1;
+		for (int n = 1; n < 32; n++) {
+			odd[n] = row;
+			row <<= 1;
+		}
+
+		// Two and four zero bits
+		gf2MatrixSquare(even, odd);
+		gf2MatrixSquare(odd, even);
+
+		// Apply length2 zero bytes, starting with one zero byte
+		do {
+			gf2MatrixSquare(even, odd);
+			if ((length2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(even, crc1);
+			}
+			length2 >>>= 1;
+
+			if (length2 == 0) {
+				break;
+			}
+
+			gf2MatrixSquare(odd, even);
+			if ((length2 & 1) != 0) {
+				crc1 = gf2MatrixTimes(odd, crc1);
+			}
+			length2 >>>= 1;
+		} while (length2 != 0);
+
+		return (crc1 ^ crc2) & 0xFFFFFFFFL;
+	}
+
+	private static long gf2MatrixTimes(long[] matrix, long vector) {
+		long sum = 0;
+		for (int i = 0; vector != 0; i++, vector >>>= 1) {
+			if ((vector & 1) != 0) {
+				sum ^= matrix[i];
+			}
+		}
+		return sum;
+	}
+
+	private static void gf2MatrixSquare(long[] square, long[] matrix) {
+		for (int n = 0; n < 32; n++) {
+			square[n] = gf2MatrixTimes(matrix, matrix[n]);
+		}
+	}
+
+	/**
+	 * A compressed block and the data it was compressed from
+	 */
+	private static class Block {
+		final byte[] data;
+		final int length;
+		final byte[] compressed;
+		final long crc;
+
+		Block(byte[] data, int length, byte[] compressed, long crc) {
+			this.data = data;
+			this.length = length;
+			this.compressed = compressed;
+			this.crc = crc;
+		}
+	}
+}
@@ -0,0 +1,519 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>The values of POSIX pax extended headers that override fields of the
+ * ustar header: <code>path</code>, <code>linkpath</code>, <code>size</code>,
+ * <code>mtime</code>, <code>uid</code>, <code>gid</code>, <code>uname</code>
+ * and <code>gname</code>, and the GNU keywords of sparse files in the 1.0
+ * format. Other keywords are skipped.</p>
+ *
+ * <p>A pax header is a series of <code>"%d %s=%s\n"</code> records, where the
+ * number is the length of the whole record. Records are parsed one at a time
+ * from the stream, so the values of keywords that are skipped, e.g. large
+ * extended attributes, are never held in memory.</p>
+ */
+final class PaxHeaders {
+	/**
+	 * Largest value of the 12-byte octal size and mtime fields, 8 GiB - 1
+	 */
+	static final long MAX_OCTAL_LONG = 077777777777L;
+
+	/**
+	 * Largest value of the 8-byte octal id fields as they are written
+	 */
+	static final long MAX_OCTAL_ID = 0777777L;
+
+	/**
+	 * Limit for the values that are kept
+	 */
+	private static final int MAX_VALUE_LENGTH = 1024 * 1024;
+
+	private static final int NANOS_PER_SECOND = 1000000000;
+
+	// Keywords, for the ones removed by a record with an empty value
+	private static final int PATH = 1;
+	private static final int LINKPATH = 1 << 1;
+	private static final int UNAME = 1 << 2;
+	private static final int GNAME = 1 << 3;
+	private static final int SIZE = 1 << 4;
+	private static final int UID = 1 << 5;
+	private static final int GID = 1 << 6;
+	private static final int MTIME = 1 << 7;
+	private static final int SPARSE_NAME = 1 << 8;
+	private static final int SPARSE_REALSIZE = 1 << 9;
+	private static final int SPARSE_MAJOR = 1 << 10;
+	private static final int SPARSE_MINOR = 1 << 11;
+
+	String path;
+	String linkPath;
+	String userName;
+	String groupName;
+	long size = -1;
+	long userId = -1;
+	long groupId = -1;
+	boolean hasModTime;
+	long modTime;
+	int modTimeNanos;
+	String sparseName;
+	long sparseRealSize = -1;
+	int sparseMajor = -1;
+	int sparseMinor = -1;
+	// The keywords these headers remove from the global ones
+	private int removed;
+
+	boolean isEmpty() {
+		return path == null && linkPath == null && userName == null && groupName == null && size < 0
+				&& userId < 0 && groupId < 0 && !hasModTime && sparseName == null && sparseRealSize < 0
+				&& sparseMajor < 0 && sparseMinor < 0;
+	}
+
+	void clear() {
+		path = null;
+		linkPath = null;
+		userName = null;
+		groupName = null;
+		size = -1;
+		userId = -1;
+		groupId = -1;
+		hasModTime = false;
+		modTime = 0;
+		modTimeNanos = 0;
+		sparseName = null;
+		sparseRealSize = -1;
+		sparseMajor = -1;
+		sparseMinor = -1;
+		removed = 0;
+	}
+
+	/**
+	 * Checks for a sparse file in the GNU 1.0 format, the only one that is
+	 * supported: the map of its data is stored in front of the data
+	 */
+	boolean isSparse() {
+		return sparseMajor == 1 && sparseMinor == 0 && sparseRealSize >= 0;
+	}
+
+	/**
+	 * Takes over the values the other headers have, and drops the ones they
+	 * remove
+	 */
+	void putAll(PaxHeaders other) {
+		unset(other.removed);
+		if (other.path != null) {
+			path = other.path;
+		}
+		if (other.linkPath != null) {
+			linkPath = other.linkPath;
+		}
+		if (other.userName != null) {
+			userName = other.userName;
+		}
+		if (other.groupName != null) {
+			groupName = other.groupName;
+		}
+		if (other.size >= 0) {
+			size = other.size;
+		}
+		if (other.userId >= 0) {
+			userId = other.userId;
+		}
+		if (other.groupId >= 0) {
+			groupId = other.groupId;
+		}
+		if (other.hasModTime) {
+			hasModTime = true;
+			modTime = other.modTime;
+			modTimeNanos = other.modTimeNanos;
+		}
+		if (other.sparseName != null) {
+			sparseName = other.sparseName;
+		}
+		if (other.sparseRealSize >= 0) {
+			sparseRealSize = other.sparseRealSize;
+		}
+		if (other.sparseMajor >= 0) {
+			sparseMajor = other.sparseMajor;
+		}
+		if (other.sparseMinor >= 0) {
+			sparseMinor = other.sparseMinor;
+		}
+	}
+
+	/**
+	 * Overrides the fields of a parsed ustar header
+	 */
+	void applyTo(TarHeader header) {
+		if (path != null) {
+			header.name = TarName.of(path);
+			header.namePrefix = TarName.EMPTY;
+		}
+		if (linkPath != null) {
+			header.linkName = TarName.of(linkPath);
+		}
+		if (userName != null) {
+			header.userName = TarName.of(userName).intern();
+		}
+		if (groupName != null) {
+			header.groupName = TarName.of(groupName).intern();
+		}
+		if (size >= 0) {
+			header.size = size;
+		}
+		if (userId >= 0) {
+			header.userId = (int) userId;
+		}
+		if (groupId >= 0) {
+			header.groupId = (int) groupId;
+		}
+		if (hasModTime) {
+			header.modTime = modTime;
+			header.modTimeNanos = modTimeNanos;
+		}
+		if (isSparse()) {
+			if (sparseName != null) {
+				header.name = TarName.of(sparseName);
+				header.namePrefix = TarName.EMPTY;
+			}
+			header.realSize = sparseRealSize;
+		}
+	}
+
+	/**
+	 * Parses the records of a pax header
+	 *
+	 * @param in
+	 *            positioned at the start of the header's content
+	 * @param length
+	 *            the size of the content
+	 * @throws IOException
+	 *             if a record is malformed
+	 */
+	void parse(InputStream in, long length) throws IOException {
+		ByteArrayOutputStream key = new ByteArrayOutputStream(32);
+		long left = length;
+
+		while (left > 0) {
+			int c = read(in);
+			if (c == 0) {
+				// NUL padding after the last record
+				return;
+			}
+
+			long recordLength = 0;
+			int consumed = 0;
+			for (; c != ' '; c = read(in)) {
+				if (c < '0' || c > '9' || consumed > 18) {
+					throw new IOException("Malformed pax header record length");
+				}
+				recordLength = recordLength * 10 + c - '0';
+				consumed++;
+			}
+			consumed++;
+
+			key.reset();
+			for (c = read(in); c != '='; c = read(in)) {
+				if (c == '\n' || ++consumed >= recordLength) {
+					throw new IOException("Malformed pax header record");
+				}
+				key.write(c);
+			}
+			consumed++;
+
+			long valueLength = recordLength - consumed - 1;
+			if (valueLength < 0 || recordLength > left) {
+				throw new IOException("Malformed pax header record of length " + recordLength);
+			}
+
+			String name = key.toString("UTF-8");
+			if (isKnown(name) && valueLength <= MAX_VALUE_LENGTH) {
+				byte[] value = new byte[(int) valueLength];
+				readFully(in, value);
+				set(name, new String(value, StandardCharsets.UTF_8));
+			} else {
+				skipFully(in, valueLength);
+			}
+
+			if (read(in) != '\n') {
+				throw new IOException("Malformed pax header record: " + name);
+			}
+			left -= recordLength;
+		}
+	}
+
+	/**
+	 * Returns the pax records the header needs because the ustar fields
+	 * cannot hold its values, or <code>null</code> if it needs none
+	 */
+	static byte[] forHeader(TarHeader header) {
+		StringBuilder records = new StringBuilder();
+
+		if (header.realSize >= 0) {
+			// The header itself is written under another name, see
+			// TarOutputStream, so readers without sparse support do not
+			// extract the stored data as the file
+			addRecord(records, "GNU.sparse.major", "1");
+			addRecord(records, "GNU.sparse.minor", "0");
+			addRecord(records, "GNU.sparse.name", TarName.join(header.namePrefix, header.name).toString());
+			addRecord(records, "GNU.sparse.realsize", Long.toString(header.realSize));
+		} else if (header.name.byteLength() > TarHeader.NAMELEN
+				|| header.namePrefix.byteLength() > TarHeader.USTAR_FILENAME_PREFIX) {
+			addRecord(records, "path", TarName.join(header.namePrefix, header.name).toString());
+		}
+		if (header.linkName.byteLength() > TarHeader.NAMELEN) {
+			addRecord(records, "linkpath", header.linkName.toString());
+		}
+		if (header.size > MAX_OCTAL_LONG) {
+			addRecord(records, "size", Long.toString(header.size));
+		}
+		if (header.modTimeNanos != 0 || header.modTime < 0 || header.modTime > MAX_OCTAL_LONG) {
+			addRecord(records, "mtime", formatTime(header.modTime, header.modTimeNanos));
+		}
+		if (header.userId < 0 || header.userId > MAX_OCTAL_ID) {
+			addRecord(records, "uid", Long.toString(header.userId & 0xFFFFFFFFL));
+		}
+		if (header.groupId < 0 || header.groupId > MAX_OCTAL_ID) {
+			addRecord(records, "gid", Long.toString(header.groupId & 0xFFFFFFFFL));
+		}
+		if (header.userName.byteLength() > TarHeader.USTAR_USER_NAMELEN) {
+			addRecord(records, "uname", header.userName.toString());
+		}
+		if (header.groupName.byteLength() > TarHeader.USTAR_GROUP_NAMELEN) {
+			addRecord(records, "gname", header.groupName.toString());
+		}
+
+		return records.length() == 0 ? null : records.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Appends <code>"%d %s=%s\n"</code>, where the length counts its own
+	 * digits
+	 */
+	private static void addRecord(StringBuilder records, String key, String value) {
+		int length = key.length() + value.getBytes(StandardCharsets.UTF_8).length + 3;
+		int digits = Integer.toString(length).length();
+		if (Integer.toString(length + digits).length() > digits) {
+			digits++;
+		}
+
+		records.append(length + digits).append(' ').append(key).append('=').append(value).append('\n');
+	}
+
+	private static boolean isKnown(String key) {
+		return "path".equals(key) || "linkpath".equals(key) || "size".equals(key) || "mtime".equals(key)
+				|| "uid".equals(key) || "gid".equals(key) || "uname".equals(key) || "gname".equals(key)
+				|| key.startsWith("GNU.sparse.");
+	}
+
+	private void set(String key, String value) throws IOException {
+		int keyword = keyword(key);
+		if (value.isEmpty()) {
+			// Removes the value, including a global one for the next entry
+			unset(keyword);
+			removed |= keyword;
+			return;
+		}
+		removed &= ~keyword;
+
+		try {
+			if ("path".equals(key)) {
+				path = value;
+			} else if ("linkpath".equals(key)) {
+				linkPath = value;
+			} else if ("uname".equals(key)) {
+				userName = value;
+			} else if ("gname".equals(key)) {
+				groupName = value;
+			} else if ("size".equals(key)) {
+				size = parseNonNegative(value);
+			} else if ("uid".equals(key)) {
+				userId = parseNonNegative(value);
+			} else if ("gid".equals(key)) {
+				groupId = parseNonNegative(value);
+			} else if ("mtime".equals(key)) {
+				parseTime(value);
+			} else if ("GNU.sparse.name".equals(key)) {
+				sparseName = value;
+			} else if ("GNU.sparse.realsize".equals(key)) {
+				sparseRealSize = parseNonNegative(value);
+			} else if ("GNU.sparse.major".equals(key)) {
+				sparseMajor = (int) parseNonNegative(value);
+			} else if ("GNU.sparse.minor".equals(key)) {
+				sparseMinor = (int) parseNonNegative(value);
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Malformed pax header value " + key + "=" + value);
+		}
+	}
+
+	private static int keyword(String key) {
+		switch (key) {
+		case "path":
+			return PATH;
+		case "linkpath":
+			return LINKPATH;
+		case "uname":
+			return UNAME;
+		case "gname":
+			return GNAME;
+		case "size":
+			return SIZE;
+		case "uid":
+			return UID;
+		case "gid":
+			return GID;
+		case "mtime":
+			return MTIME;
+		case "GNU.sparse.name":
+			return SPARSE_NAME;
+		case "GNU.sparse.realsize":
+			return SPARSE_REALSIZE;
+		case "GNU.sparse.major":
+			return SPARSE_MAJOR;
+		case "GNU.sparse.minor":
+			return SPARSE_MINOR;
+		default:
+			return 0;
+		}
+	}
+
+	private void unset(int keywords) {
+		if ((keywords & PATH) != 0) {
+			path = null;
+		}
+		if ((keywords & LINKPATH) != 0) {
+			linkPath = null;
+		}
+		if ((keywords & UNAME) != 0) {
+			userName = null;
+		}
+		if ((keywords & GNAME) != 0) {
+			groupName = null;
+		}
+		if ((keywords & SIZE) != 0) {
+			size = -1;
+		}
+		if ((keywords & UID) != 0) {
+			userId = -1;
+		}
+		if ((keywords & GID) != 0) {
+			groupId = -1;
+		}
+		if ((keywords & MTIME) != 0) {
+			hasModTime = false;
+			modTime = 0;
+			modTimeNanos = 0;
+		}
+		if ((keywords & SPARSE_NAME) != 0) {
+			sparseName = null;
+		}
+		if ((keywords & SPARSE_REALSIZE) != 0) {
+			sparseRealSize = -1;
+		}
+		if ((keywords & SPARSE_MAJOR) != 0) {
+			sparseMajor = -1;
+		}
+		if ((keywords & SPARSE_MINOR) != 0) {
+			sparseMinor = -1;
+		}
+	}
+
+	private static long parseNonNegative(String value) {
+		long result = Long.parseLong(value);
+		if (result < 0) {
+			throw new NumberFormatException(value);
+		}
+		return result;
+	}
+
+	/**
+	 * Seconds since the epoch with an optional decimal fraction
+	 */
+	private void parseTime(String value) {
+		int dot = value.indexOf('.');
+		String seconds = dot < 0 ? value : value.substring(0, dot);
+		long nanos = 0;
+
+		if (dot >= 0) {
+			String fraction = value.substring(dot + 1);
+			for (int i = 0; i < 9; i++) {
+				char c = i < fraction.length() ? fraction.charAt(i) : '0';
+				if (c < '0' || c > '9') {
+					throw new NumberFormatException(value);
+				}
+				nanos = nanos * 10 + c - '0';
+			}
+		}
+
+		modTime = Long.parseLong(seconds.equals("-") ? "-0" : seconds);
+		if (value.startsWith("-") && nanos > 0) {
+			modTime--;
+			nanos = NANOS_PER_SECOND - nanos;
+		}
+		modTimeNanos = (int) nanos;
+		hasModTime = true;
+	}
+
+	private static String formatTime(long seconds, int nanos) {
+		if (nanos == 0) {
+			return Long.toString(seconds);
+		}
+
+		String fraction = Integer.toString(NANOS_PER_SECOND + nanos).substring(1);
+		int end = fraction.length();
+		while (fraction.charAt(end - 1) == '0') {
+			end--;
+		}
+		return seconds + "." + fraction.substring(0, end);
+	}
+
+	private static int read(InputStream in) throws IOException {
+		int c = in.read();
+		if (c < 0) {
+			throw new EOFException("Unexpected end of pax header");
+		}
+		return c;
+	}
+
+	private static void readFully(InputStream in, byte[] b) throws IOException {
+		int n = 0;
+		while (n < b.length) {
+			int res = in.read(b, n, b.length - n);
+			if (res < 0) {
+				throw new EOFException("Unexpected end of pax header");
+			}
+			n += res;
+		}
+	}
+
+	private static void skipFully(InputStream in, long n) throws IOException {
+		while (n > 0) {
+			long res = in.skip(n);
+			if (res <= 0) {
+				read(in);
+				res = 1;
+			}
+			n -= res;
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads the wrapped stream on a background thread, e.g. to inflate a gzip
+ * stream while the tar is parsed on the calling thread.
+ *
+ * The data is passed through a fixed ring of buffers: the background thread
+ * fills free buffers and queues them, the reader drains them and hands them
+ * back. Memory use is therefore fixed, and the background thread waits when
+ * the reader falls behind.
+ */
+class ReadAheadInputStream extends InputStream {
+	private final InputStream in;
+	private final BlockingQueue<Chunk> filled;
+	private final BlockingQueue<Chunk> free;
+	private final Thread thread;
+
+	private Chunk current;
+	private int position;
+	private boolean eof;
+
+	/**
+	 * @param in
+	 *            the stream to read ahead
+	 * @param bufferSize
+	 *            the size of each buffer
+	 * @param buffers
+	 *            the number of buffers in the ring, at least 2
+	 */
+	ReadAheadInputStream(InputStream in, int bufferSize, int buffers) {
+		int count = Math.max(2, buffers);
+		this.in = in;
+		this.filled = new ArrayBlockingQueue<Chunk>(count + 1);
+		this.free = new ArrayBlockingQueue<Chunk>(count);
+
+		for (int i = 0; i < count; i++) {
+			free.offer(new Chunk(new byte[bufferSize]));
+		}
+
+		this.thread = new DaemonThreadFactory("read-ahead").newThread(new Runnable() {
+			@Override
+			public void run() {
+				fill();
+			}
+		});
+		this.thread.start();
+	}
+
+	/**
+	 * Runs on the background thread
+	 */
+	private void fill() {
+		try {
+			while (true) {
+				Chunk chunk = free.take();
+				chunk.length = 0;
+
+				int res = 0;
+				while (chunk.length < chunk.data.length
+						&& (res = in.read(chunk.data, chunk.length, chunk.data.length - chunk.length)) != -1) {
+					chunk.length += res;
+				}
+
+				if (chunk.length > 0) {
+					filled.put(chunk);
+				}
+				if (res == -1) {
+					filled.put(Chunk.EOF);
+					return;
+				}
+			}
+		} catch (InterruptedException e) {
+			// closed by the reader
+		} catch (IOException e) {
+			filled.offer(new Chunk(e));
+		} catch (RuntimeException e) {
+			filled.offer(new Chunk(new IOException(e)));
+		}
+	}
+
+	/**
+	 * Makes sure there is something to read in the current chunk
+	 *
+	 * @return false at the end of the stream
+	 */
+	private boolean next() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (current != null && position < current.length) {
+			return true;
+		}
+		if (current != null) {
+			free.offer(current);
+			current = null;
+		}
+
+		Chunk chunk;
+		try {
+			chunk = filled.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading ahead");
+		}
+
+		if (chunk.error != null) {
+			eof = true;
+			throw chunk.error;
+		}
+		if (chunk == Chunk.EOF) {
+			eof = true;
+			return false;
+		}
+
+		current = chunk;
+		position = 0;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!next()) {
+			return -1;
+		}
+		return current.data[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!next()) {
+			return -1;
+		}
+
+		int n = Math.min(len, current.length - position);
+		System.arraycopy(current.data, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && next()) {
+			int s = (int) Math.min(n - skipped, current.length - position);
+			position += s;
+			skipped += s;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return current == null ? 0 : current.length - position;
+	}
+
+	/**
+	 * Stops the background thread and closes the wrapped stream
+	 */
+	@Override
+	public void close() throws IOException {
+		eof = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static class Chunk {
+		static final Chunk EOF = new Chunk(new byte[0]);
+
+		final byte[] data;
+		final IOException error;
+		int length;
+
+		Chunk(byte[] data) {
+			this.data = data;
+			this.error = null;
+		}
+
+		Chunk(IOException error) {
+			this.data = null;
+			this.error = error;
+		}
+	}
+}
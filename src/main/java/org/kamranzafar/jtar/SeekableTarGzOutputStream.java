@@ -0,0 +1,103 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * <p>Writes a tar.gz archive that {@link TarGzFile} can read entries from
+ * without inflating anything but the entry's own block.</p>
+ *
+ * <p>The archive is compressed with {@link BlockGzipOutputStream}. A new
+ * gzip member is started before an entry that would not fit into the current
+ * one, so entries smaller than the block size never span two members; larger
+ * entries are split every block size. When the stream is closed, the
+ * {@link TarGzIndex} with the start of every member and every entry is
+ * written next to the archive, where {@link TarGzFile#open(File)} finds
+ * it.</p>
+ *
+ * <p>The archive itself is an ordinary multi-member gzip file, which gunzip
+ * and {@link JTar#unpackTarGz(File, File)} read as usual.</p>
+ */
+public class SeekableTarGzOutputStream extends TarOutputStream {
+	private final BlockGzipOutputStream gz;
+	private final File archiveFile;
+	private final File indexFile;
+	private final List<TarIndexEntry> entries = new ArrayList<TarIndexEntry>();
+
+	public SeekableTarGzOutputStream(File archiveFile) throws FileNotFoundException {
+		this(archiveFile, BlockGzipOutputStream.DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * @param archiveFile
+	 *            the archive to create, the index is written to
+	 *            {@link TarGzIndex#indexFileFor(File)}
+	 * @param blockSize
+	 *            the maximum amount of uncompressed data per gzip member
+	 * @param level
+	 *            the deflate compression level
+	 * @throws FileNotFoundException
+	 */
+	public SeekableTarGzOutputStream(File archiveFile, int blockSize, int level) throws FileNotFoundException {
+		this(archiveFile, new BlockGzipOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile)),
+				blockSize, level));
+	}
+
+	private SeekableTarGzOutputStream(File archiveFile, BlockGzipOutputStream gz) {
+		super(gz);
+		this.gz = gz;
+		this.archiveFile = archiveFile;
+		this.indexFile = TarGzIndex.indexFileFor(archiveFile);
+	}
+
+	/**
+	 * Starts a new gzip member first if the entry does not fit into the
+	 * current one
+	 */
+	@Override
+	public void putNextEntry(TarEntry entry) throws IOException {
+		closeCurrentEntry();
+
+		long size = TarConstants.HEADER_BLOCK + (entry.isDirectory() ? 0 : TarUtils.paddedSize(entry.getSize()));
+		if (gz.getBlockLength() > 0 && gz.getBlockLength() + size > gz.getBlockSize()) {
+			gz.endBlock();
+		}
+
+		long headerOffset = gz.getPosition();
+		super.putNextEntry(entry);
+		entries.add(new TarIndexEntry(entry.getName(), headerOffset, gz.getPosition(), entry.getSize(),
+				entry.getHeader().linkFlag));
+	}
+
+	/**
+	 * Finishes the archive and writes its index
+	 */
+	@Override
+	public void close() throws IOException {
+		super.close();
+
+		new TarGzIndex(entries, gz.getCheckpoints(), archiveFile.length(), archiveFile.lastModified())
+				.write(indexFile);
+	}
+}
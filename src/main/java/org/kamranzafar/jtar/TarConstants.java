@@ -25,4 +25,9 @@ public class TarConstants {
     public static final int EOF_BLOCK = 1024;
     public static final int DATA_BLOCK = 512;
     public static final int HEADER_BLOCK = 512;
+
+    /**
+     * Blocks per record, 20 x 512 = 10 KiB records
+     */
+    public static final int DEFAULT_BLOCKING_FACTOR = 20;
 }
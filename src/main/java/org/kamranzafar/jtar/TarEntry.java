@@ -28,6 +28,11 @@ public class TarEntry {
 	protected File file;
 	protected TarHeader header;
 
+	// getName() for the name and prefix it was built from
+	private TarName cachedName;
+	private TarName cachedPrefix;
+	private String fullName;
+
 	private TarEntry() {
 		this.file = null;
 		header = new TarHeader();
@@ -59,11 +64,11 @@ public class TarEntry {
 	}
 
 	public boolean equals(TarEntry it) {
-		return header.name.toString().equals(it.header.name.toString());
+		return header.name.equals(it.header.name);
 	}
 
 	public boolean isDescendent(TarEntry desc) {
-		return desc.header.name.toString().startsWith(header.name.toString());
+		return desc.header.name.startsWith(header.name);
 	}
 
 	public TarHeader getHeader() {
@@ -71,16 +76,20 @@ public class TarEntry {
 	}
 
 	public String getName() {
-		String name = header.name.toString();
-		if (header.namePrefix != null && !header.namePrefix.toString().equals("")) {
-			name = header.namePrefix.toString() + "/" + name;
+		TarName name = header.name;
+		TarName prefix = header.namePrefix;
+
+		if (fullName == null || name != cachedName || prefix != cachedPrefix) {
+			fullName = prefix == null ? name.toString() : TarName.join(prefix, name).toString();
+			cachedName = name;
+			cachedPrefix = prefix;
 		}
 
-		return name;
+		return fullName;
 	}
 
 	public void setName(String name) {
-		header.name = new StringBuffer(name);
+		header.name = TarName.of(name);
 	}
 
 	public int getUserId() {
@@ -104,7 +113,7 @@ public class TarEntry {
 	}
 
 	public void setUserName(String userName) {
-		header.userName = new StringBuffer(userName);
+		header.userName = TarName.of(userName).intern();
 	}
 
 	public String getGroupName() {
@@ -112,7 +121,7 @@ public class TarEntry {
 	}
 
 	public void setGroupName(String groupName) {
-		header.groupName = new StringBuffer(groupName);
+		header.groupName = TarName.of(groupName).intern();
 	}
 
 	public void setIds(int userId, int groupId) {
@@ -122,14 +131,43 @@ public class TarEntry {
 
 	public void setModTime(long time) {
 		header.modTime = time / 1000;
+		header.modTimeNanos = 0;
 	}
 
 	public void setModTime(Date time) {
-		header.modTime = time.getTime() / 1000;
+		setModTime(time.getTime());
+	}
+
+	/**
+	 * Sets the modification time with sub-second precision, which is written
+	 * to a pax header
+	 * 
+	 * @param seconds
+	 *            since the epoch
+	 * @param nanos
+	 *            0 to 999999999
+	 */
+	public void setModTime(long seconds, int nanos) {
+		if (nanos < 0 || nanos > 999999999) {
+			throw new IllegalArgumentException("Nanoseconds out of range: " + nanos);
+		}
+
+		header.modTime = seconds;
+		header.modTimeNanos = nanos;
 	}
 
 	public Date getModTime() {
-		return new Date(header.modTime * 1000);
+		return new Date(header.modTime * 1000 + header.modTimeNanos / 1000000);
+	}
+
+	/**
+	 * Returns the part of the modification time below the second, which is
+	 * only known for entries with a pax header
+	 * 
+	 * @return
+	 */
+	public int getModTimeNanos() {
+		return header.modTimeNanos;
 	}
 
 	public File getFile() {
@@ -144,6 +182,46 @@ public class TarEntry {
 		header.size = size;
 	}
 
+	/**
+	 * Checks if the entry is a hard link to an earlier entry, see
+	 * {@link #getLinkName()}
+	 * 
+	 * @return
+	 */
+	public boolean isHardLink() {
+		return header.linkFlag == TarHeader.LF_LINK;
+	}
+
+	/**
+	 * Returns the name of the entry a link points to
+	 * 
+	 * @return
+	 */
+	public String getLinkName() {
+		return header.linkName.toString();
+	}
+
+	/**
+	 * Checks if the entry is a sparse file. Its size is then the size of the
+	 * data stored in the archive, reading it from a {@link TarInputStream}
+	 * returns {@link #getRealSize()} bytes, with zeros for the holes.
+	 * 
+	 * @return
+	 */
+	public boolean isSparse() {
+		return header.realSize >= 0;
+	}
+
+	/**
+	 * Returns the size of the file the entry was created from, which is only
+	 * different from {@link #getSize()} for sparse files
+	 * 
+	 * @return
+	 */
+	public long getRealSize() {
+		return header.realSize >= 0 ? header.realSize : header.size;
+	}
+
 	/**
 	 * Checks if the org.kamrazafar.jtar entry is a directory
 	 * 
@@ -157,7 +235,7 @@ public class TarEntry {
 			if (header.linkFlag == TarHeader.LF_DIR)
 				return true;
 
-			if (header.name.toString().endsWith("/"))
+			if (header.name.endsWith('/'))
 				return true;
 		}
 
@@ -180,6 +258,10 @@ public class TarEntry {
 	 * @return
 	 */
 	public long computeCheckSum(byte[] buf) {
+		if (buf.length == TarConstants.HEADER_BLOCK) {
+			return TarUtils.checkSum(buf, 0);
+		}
+
 		long sum = 0;
 
 		for (int i = 0; i < buf.length; ++i) {
@@ -190,7 +272,10 @@ public class TarEntry {
 	}
 
 	/**
-	 * Writes the header to the byte buffer
+	 * Writes the header to the byte buffer. Ids, sizes and times too large
+	 * for their octal fields are written as GNU base-256 numbers; names too
+	 * long for their fields are cut off, {@link TarOutputStream} writes a pax
+	 * header with the full values before such a header.
 	 * 
 	 * @param outbuf
 	 */
@@ -199,13 +284,10 @@ public class TarEntry {
 
 		offset = TarHeader.getNameBytes(header.name, outbuf, offset, TarHeader.NAMELEN);
 		offset = Octal.getOctalBytes(header.mode, outbuf, offset, TarHeader.MODELEN);
-		offset = Octal.getOctalBytes(header.userId, outbuf, offset, TarHeader.UIDLEN);
-		offset = Octal.getOctalBytes(header.groupId, outbuf, offset, TarHeader.GIDLEN);
-
-		long size = header.size;
-
-		offset = Octal.getLongOctalBytes(size, outbuf, offset, TarHeader.SIZELEN);
-		offset = Octal.getLongOctalBytes(header.modTime, outbuf, offset, TarHeader.MODTIMELEN);
+		offset = getIdBytes(header.userId, outbuf, offset, TarHeader.UIDLEN);
+		offset = getIdBytes(header.groupId, outbuf, offset, TarHeader.GIDLEN);
+		offset = getLongBytes(header.size, outbuf, offset, TarHeader.SIZELEN);
+		offset = getLongBytes(header.modTime, outbuf, offset, TarHeader.MODTIMELEN);
 
 		int csOffset = offset;
 		for (int c = 0; c < TarHeader.CHKSUMLEN; ++c)
@@ -229,6 +311,24 @@ public class TarEntry {
 		Octal.getCheckSumOctalBytes(checkSum, outbuf, csOffset, TarHeader.CHKSUMLEN);
 	}
 
+	static int getIdBytes(int id, byte[] buf, int offset, int length) {
+		// Octal.getOctalBytes leaves room for a space and a NUL
+		if (Octal.fitsOctal(id, length - 2)) {
+			return Octal.getOctalBytes(id, buf, offset, length);
+		}
+
+		return Octal.getBase256Bytes(id, buf, offset, length);
+	}
+
+	static int getLongBytes(long value, byte[] buf, int offset, int length) {
+		// Octal.getLongOctalBytes leaves room for a space
+		if (Octal.fitsOctal(value, length - 1)) {
+			return Octal.getLongOctalBytes(value, buf, offset, length);
+		}
+
+		return Octal.getBase256Bytes(value, buf, offset, length);
+	}
+
 	/**
 	 * Parses the tar header to the byte buffer
 	 * 
@@ -238,7 +338,7 @@ public class TarEntry {
 	public void parseTarHeader(byte[] bh) {
 		int offset = 0;
 
-		header.name = TarHeader.parseName(bh, offset, TarHeader.NAMELEN);
+		header.name = TarName.parse(bh, offset, TarHeader.NAMELEN);
 		offset += TarHeader.NAMELEN;
 
 		header.mode = (int) Octal.parseOctal(bh, offset, TarHeader.MODELEN);
@@ -261,16 +361,16 @@ public class TarEntry {
 
 		header.linkFlag = bh[offset++];
 
-		header.linkName = TarHeader.parseName(bh, offset, TarHeader.NAMELEN);
+		header.linkName = TarName.parse(bh, offset, TarHeader.NAMELEN);
 		offset += TarHeader.NAMELEN;
 
-		header.magic = TarHeader.parseName(bh, offset, TarHeader.USTAR_MAGICLEN);
+		header.magic = TarName.parse(bh, offset, TarHeader.USTAR_MAGICLEN).intern();
 		offset += TarHeader.USTAR_MAGICLEN;
 
-		header.userName = TarHeader.parseName(bh, offset, TarHeader.USTAR_USER_NAMELEN);
+		header.userName = TarName.parse(bh, offset, TarHeader.USTAR_USER_NAMELEN).intern();
 		offset += TarHeader.USTAR_USER_NAMELEN;
 
-		header.groupName = TarHeader.parseName(bh, offset, TarHeader.USTAR_GROUP_NAMELEN);
+		header.groupName = TarName.parse(bh, offset, TarHeader.USTAR_GROUP_NAMELEN).intern();
 		offset += TarHeader.USTAR_GROUP_NAMELEN;
 
 		header.devMajor = (int) Octal.parseOctal(bh, offset, TarHeader.USTAR_DEVLEN);
@@ -279,6 +379,6 @@ public class TarEntry {
 		header.devMinor = (int) Octal.parseOctal(bh, offset, TarHeader.USTAR_DEVLEN);
 		offset += TarHeader.USTAR_DEVLEN;
 
-		header.namePrefix = TarHeader.parseName(bh, offset, TarHeader.USTAR_FILENAME_PREFIX);
+		header.namePrefix = TarName.parse(bh, offset, TarHeader.USTAR_FILENAME_PREFIX);
 	}
 }
\ No newline at end of file
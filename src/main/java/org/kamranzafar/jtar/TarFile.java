@@ -0,0 +1,477 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Random access to the entries of an uncompressed tar archive, similar to
+ * <code>java.util.zip.ZipFile</code>.</p>
+ *
+ * <p>When opened, only the headers are read: the scan jumps from one header to
+ * the next without touching the entry contents. The resulting catalog maps
+ * each entry name to its location in the archive. Contents are then read
+ * with positional reads, so any number of entries can be read concurrently
+ * and in any order.</p>
+ *
+ * <p>If the archive contains an entry name more than once, the last one
+ * wins for lookups by name, as it would when extracting. All of them are
+ * returned by {@link #getEntries()}.</p>
+ */
+public class TarFile implements Closeable {
+	private final File file;
+	private final FileChannel channel;
+	private final List<TarIndexEntry> entries;
+	private final Map<String, TarIndexEntry> catalog;
+	// Entries the filter rejected that accepted hard links refer to
+	private final Map<TarIndexEntry, TarIndexEntry> filteredLinkTargets = new HashMap<TarIndexEntry, TarIndexEntry>();
+
+	/**
+	 * Opens the archive and scans its headers.
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public TarFile(File file) throws IOException {
+		this(file, (EntryFilter) null);
+	}
+
+	/**
+	 * Opens the archive with only the entries the filter accepts. The
+	 * headers are scanned as usual, so the last of several entries with the
+	 * same name still wins, until the filter is complete, see
+	 * {@link EntryFilter#firstOccurrence(String...)}. Hard links whose
+	 * target the filter rejected are extracted with the content of the
+	 * target.
+	 *
+	 * @param file
+	 * @param filter
+	 *            the entries to keep, or null for all of them
+	 * @throws IOException
+	 */
+	public TarFile(File file, EntryFilter filter) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.entries = new ArrayList<TarIndexEntry>();
+		this.catalog = new HashMap<String, TarIndexEntry>();
+
+		try {
+			scan(filter);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public TarFile(String name) throws IOException {
+		this(new File(name));
+	}
+
+	/**
+	 * Opens the archive using a previously built index instead of scanning
+	 * the headers.
+	 *
+	 * @param file
+	 * @param index
+	 * @throws IOException
+	 *             if the index does not belong to the archive in its current
+	 *             state
+	 */
+	public TarFile(File file, TarIndex index) throws IOException {
+		if (!index.isValidFor(file)) {
+			throw new IOException("Tar index is out of date for " + file.getAbsolutePath());
+		}
+
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.entries = new ArrayList<TarIndexEntry>(index.getEntries().size());
+		this.catalog = new HashMap<String, TarIndexEntry>();
+
+		for (TarIndexEntry entry : index.getEntries()) {
+			add(entry);
+		}
+	}
+
+	/**
+	 * Opens the archive using its sidecar index (see
+	 * {@link TarIndex#indexFileFor(File)}) if there is an up-to-date one.
+	 * Otherwise the headers are scanned and the index is written for the next
+	 * time. Failing to write the index is not an error, the archive is still
+	 * opened.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static TarFile open(File file) throws IOException {
+		File indexFile = TarIndex.indexFileFor(file);
+
+		if (indexFile.isFile()) {
+			try {
+				TarIndex index = TarIndex.read(indexFile);
+				if (index.isValidFor(file)) {
+					return new TarFile(file, index);
+				}
+			} catch (IOException e) {
+				// Unreadable index, rebuild it below
+			}
+		}
+
+		TarFile tarFile = new TarFile(file);
+		try {
+			tarFile.getIndex().write(indexFile);
+		} catch (IOException e) {
+			indexFile.delete();
+		}
+
+		return tarFile;
+	}
+
+	private void scan(EntryFilter filter) throws IOException {
+		// Accepted hard links to entries the filter rejected, by target name
+		Map<String, List<TarIndexEntry>> unresolved = new HashMap<String, List<TarIndexEntry>>();
+		long lastLink = 0;
+		if (filter != null) {
+			filter = filter.start();
+		}
+
+		HeaderScanner scanner = new HeaderScanner(channel);
+		while ((filter == null || !filter.isComplete()) && scanner.next()) {
+			TarHeaderView header = scanner.getHeader();
+			if (filter != null && !filter.accept(header)) {
+				continue;
+			}
+
+			TarIndexEntry entry = new TarIndexEntry(header.getName(), scanner.getHeaderOffset(),
+					scanner.getDataOffset(), scanner.getSize(), header.getLinkFlag());
+			if (filter != null && entry.isHardLink() && !catalog.containsKey(header.getLinkName())) {
+				List<TarIndexEntry> links = unresolved.get(header.getLinkName());
+				if (links == null) {
+					links = new ArrayList<TarIndexEntry>(1);
+					unresolved.put(header.getLinkName(), links);
+				}
+				links.add(entry);
+				lastLink = entry.getHeaderOffset();
+			}
+			add(entry);
+		}
+
+		if (!unresolved.isEmpty()) {
+			findFilteredLinkTargets(unresolved, lastLink);
+		}
+	}
+
+	/**
+	 * Scans the headers again for the rejected entries the links refer to,
+	 * the last entry of the name before each link, up to the last link
+	 */
+	private void findFilteredLinkTargets(Map<String, List<TarIndexEntry>> unresolved, long lastLink)
+			throws IOException {
+		HeaderScanner scanner = new HeaderScanner(channel);
+		while (scanner.next() && scanner.getHeaderOffset() < lastLink) {
+			TarHeaderView header = scanner.getHeader();
+			if (header.isDirectory() || header.getLinkFlag() == TarHeader.LF_LINK) {
+				continue;
+			}
+
+			List<TarIndexEntry> links = unresolved.get(header.getName());
+			if (links == null) {
+				continue;
+			}
+
+			TarIndexEntry target = new TarIndexEntry(header.getName(), scanner.getHeaderOffset(),
+					scanner.getDataOffset(), scanner.getSize(), header.getLinkFlag());
+			for (TarIndexEntry link : links) {
+				if (link.getHeaderOffset() > target.getHeaderOffset()) {
+					filteredLinkTargets.put(link, target);
+				}
+			}
+		}
+	}
+
+	private void add(TarIndexEntry entry) {
+		entries.add(entry);
+		catalog.put(entry.getName(), entry);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		HeaderScanner.readFully(channel, buffer, position);
+	}
+
+	/**
+	 * Returns the catalog as an index stamped with the archive's current
+	 * length and modification time
+	 *
+	 * @return
+	 */
+	public TarIndex getIndex() {
+		return new TarIndex(new ArrayList<TarIndexEntry>(entries), file.length(), file.lastModified());
+	}
+
+	/**
+	 * Returns the archive file
+	 *
+	 * @return
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns all entries in archive order
+	 *
+	 * @return
+	 */
+	public List<TarIndexEntry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Returns the entry with the given name, or <code>null</code> if there
+	 * is no such entry
+	 *
+	 * @param name
+	 * @return
+	 */
+	public TarIndexEntry getEntry(String name) {
+		return catalog.get(name);
+	}
+
+	/**
+	 * Returns the entry a hard link entry refers to if the filter rejected
+	 * it, so that the link is extracted with its content, otherwise null
+	 */
+	TarIndexEntry getFilteredLinkTarget(TarIndexEntry link) {
+		return filteredLinkTargets.get(link);
+	}
+
+	/**
+	 * Returns the number of entries in the archive
+	 *
+	 * @return
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Reads and parses the complete header of the given entry, e.g. to get at
+	 * the modification time or the owner, including the pax header before it.
+	 * Global pax headers elsewhere in the archive are not applied.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public TarEntry getTarEntry(TarIndexEntry entry) throws IOException {
+		long headerOffset = entry.getHeaderOffset();
+		if (headerOffset == entry.getDataOffset() - TarConstants.HEADER_BLOCK) {
+			ByteBuffer block = ByteBuffer.allocate(TarConstants.HEADER_BLOCK);
+			readFully(block, headerOffset);
+			return new TarEntry(block.array());
+		}
+
+		TarEntry tarEntry = openEntry(entry).getNextEntry();
+		if (tarEntry == null) {
+			throw new EOFException("Unexpected end of archive at offset " + headerOffset);
+		}
+
+		return tarEntry;
+	}
+
+	/**
+	 * Returns a stream of the entry's content. Sparse files read with zeros
+	 * for their holes, like from a {@link TarInputStream}.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream getInputStream(TarIndexEntry entry) throws IOException {
+		if (entry.getHeaderOffset() < entry.getDataOffset() - TarConstants.HEADER_BLOCK) {
+			// Only entries with pax headers can be sparse
+			TarInputStream tis = openEntry(entry);
+			TarHeaderView header = tis.getNextHeader();
+			if (header != null && header.isSparse()) {
+				return tis;
+			}
+		}
+
+		return new EntryInputStream(new EntryChannel(channel, entry.getDataOffset(), entry.getSize()));
+	}
+
+	/**
+	 * Returns a stream of the entry's headers and content, which have yet to
+	 * be read with {@link TarInputStream#getNextHeader()}
+	 */
+	TarInputStream openEntry(TarIndexEntry entry) {
+		long headerOffset = entry.getHeaderOffset();
+		long length = entry.getDataOffset() + entry.getSize() - headerOffset;
+		return new TarInputStream(new EntryInputStream(new EntryChannel(channel, headerOffset, length)), 1);
+	}
+
+	/**
+	 * Returns a channel of the entry's content as it is stored, which for
+	 * sparse files is a map of their data followed by the data. It does not
+	 * modify the position of the archive's own channel, so any number of them
+	 * can be used at the same time.
+	 *
+	 * @param entry
+	 * @return
+	 */
+	public ReadableByteChannel getChannel(TarIndexEntry entry) {
+		return new EntryChannel(channel, entry.getDataOffset(), entry.getSize());
+	}
+
+	/**
+	 * Returns the channel of the underlying archive, for callers that want to
+	 * use {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+	 * or similar on an entry's content. It must not be closed.
+	 *
+	 * @return
+	 */
+	public FileChannel getArchiveChannel() {
+		return channel;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	/**
+	 * Reads a range of the archive with positional reads
+	 */
+	static class EntryChannel implements ReadableByteChannel {
+		private final FileChannel channel;
+		private final long end;
+		private long position;
+		private boolean open = true;
+
+		EntryChannel(FileChannel channel, long offset, long size) {
+			this.channel = channel;
+			this.position = offset;
+			this.end = offset + size;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) throws IOException {
+			if (!open) {
+				throw new ClosedChannelException();
+			}
+
+			long left = end - position;
+			if (left <= 0) {
+				return -1;
+			}
+
+			int res;
+			if (dst.remaining() > left) {
+				int limit = dst.limit();
+				dst.limit(dst.position() + (int) left);
+				try {
+					res = channel.read(dst, position);
+				} finally {
+					dst.limit(limit);
+				}
+			} else {
+				res = channel.read(dst, position);
+			}
+
+			if (res < 0) {
+				throw new EOFException("Unexpected end of archive at offset " + position);
+			}
+
+			position += res;
+			return res;
+		}
+
+		long skip(long n) {
+			long skipped = Math.max(0, Math.min(n, end - position));
+			position += skipped;
+			return skipped;
+		}
+
+		long remaining() {
+			return end - position;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+
+	/**
+	 * Stream view of an {@link EntryChannel}, skipping is free
+	 */
+	static class EntryInputStream extends InputStream {
+		private final EntryChannel channel;
+
+		EntryInputStream(EntryChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int res = read(b, 0, 1);
+			return res == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			return channel.read(ByteBuffer.wrap(b, off, len));
+		}
+
+		@Override
+		public long skip(long n) {
+			return channel.skip(n);
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(Integer.MAX_VALUE, channel.remaining());
+		}
+
+		@Override
+		public void close() {
+			channel.close();
+		}
+	}
+}
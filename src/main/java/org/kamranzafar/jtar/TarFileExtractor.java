@@ -0,0 +1,281 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Extracts the entries of a {@link TarFile}. Entry contents are transferred
+ * from absolute positions of the archive, so they can be written by several
+ * threads at once.
+ */
+class TarFileExtractor {
+	private final TarFile tarFile;
+	private final File destFolder;
+	private final Set<File> createdDirs = new HashSet<File>();
+
+	TarFileExtractor(TarFile tarFile, File destFolder) {
+		this.tarFile = tarFile;
+		this.destFolder = destFolder;
+	}
+
+	/**
+	 * Extracts all entries on the calling thread
+	 *
+	 * @throws IOException
+	 */
+	void extractAll() throws IOException {
+		List<TarIndexEntry> links = new ArrayList<TarIndexEntry>();
+		for (TarIndexEntry entry : tarFile.getEntries()) {
+			File target = prepare(entry);
+			if (target != null && entry.isHardLink()) {
+				links.add(entry);
+			} else if (target != null) {
+				copy(entry, target);
+			}
+		}
+
+		createLinks(links);
+	}
+
+	/**
+	 * Extracts all entries with the given number of worker threads. The
+	 * calling thread walks the catalog, creates the directories and hands
+	 * the file entries to the workers.
+	 *
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	void extractAll(int parallelism) throws IOException {
+		if (parallelism <= 1) {
+			extractAll();
+			return;
+		}
+
+		List<TarIndexEntry> links = new ArrayList<TarIndexEntry>();
+		BoundedExecutor executor = new BoundedExecutor(parallelism, parallelism * 4);
+		try {
+			for (final TarIndexEntry entry : tarFile.getEntries()) {
+				final File target = prepare(entry);
+				if (target != null && entry.isHardLink()) {
+					links.add(entry);
+				} else if (target != null) {
+					executor.submit(new BoundedExecutor.IOTask() {
+						@Override
+						public void run() throws IOException {
+							copy(entry, target);
+						}
+					});
+				}
+			}
+
+			executor.await();
+		} finally {
+			executor.close();
+		}
+
+		createLinks(links);
+	}
+
+	/**
+	 * Extracts all entries with asynchronous writes, see
+	 * {@link AsyncFileWriter}. The calling thread walks the catalog, creates
+	 * the directories, reads the contents and issues the writes, at most
+	 * <code>maxWrites</code> and <code>maxBytes</code> at a time. Returns
+	 * once every file is written and forced to the storage device, and then
+	 * the directories, which hold the names of the new files and links.
+	 *
+	 * Sparse files are written and forced on the calling thread, as holes
+	 * cannot be left with positional writes alone.
+	 *
+	 * @param maxBytes
+	 * @param maxWrites
+	 * @throws IOException
+	 */
+	void extractAllAsync(int maxBytes, int maxWrites) throws IOException {
+		List<TarIndexEntry> links = new ArrayList<TarIndexEntry>();
+		AsyncFileWriter writer = new AsyncFileWriter(maxBytes, maxWrites);
+		try {
+			for (TarIndexEntry entry : tarFile.getEntries()) {
+				File target = prepare(entry);
+				if (target != null && entry.isHardLink()) {
+					links.add(entry);
+				} else if (target != null && copySparse(entry, target)) {
+					force(target);
+				} else if (target != null) {
+					writer.write(tarFile.getArchiveChannel(), entry.getDataOffset(), entry.getSize(), target);
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			writer.abort();
+			throw e;
+		}
+
+		writer.await();
+		for (File copy : createLinks(links)) {
+			force(copy);
+		}
+		forceDirectories();
+	}
+
+	/**
+	 * Creates the hard links once all files are written. Only the last entry
+	 * of a name is extracted, so no file replaces a link afterwards.
+	 *
+	 * A link whose target the filter rejected gets the target's content
+	 * instead, and further links to the same target are linked to it.
+	 *
+	 * @return the files written for such links
+	 */
+	private Collection<File> createLinks(List<TarIndexEntry> links) throws IOException {
+		Map<TarIndexEntry, File> copies = new HashMap<TarIndexEntry, File>();
+
+		for (TarIndexEntry entry : links) {
+			File link = new File(destFolder, entry.getName());
+			TarIndexEntry filtered = tarFile.getFilteredLinkTarget(entry);
+
+			if (filtered == null) {
+				String linkName = tarFile.getTarEntry(entry).getLinkName();
+				TarStreamExtractor.createLink(link, TarStreamExtractor.linkTarget(destFolder, linkName));
+			} else if (copies.containsKey(filtered)) {
+				TarStreamExtractor.createLink(link, copies.get(filtered));
+			} else {
+				copy(filtered, link);
+				copies.put(filtered, link);
+			}
+		}
+		return copies.values();
+	}
+
+	/**
+	 * Forces the directories that were created, their parents up to the
+	 * destination folder and the destination folder itself. Directories are
+	 * forced on a best effort basis, as not every platform can open them.
+	 */
+	private void forceDirectories() {
+		Set<File> dirs = new HashSet<File>();
+		dirs.add(destFolder);
+		for (File dir : createdDirs) {
+			while (dir != null && dirs.add(dir) && !dir.equals(destFolder)) {
+				dir = dir.getParentFile();
+			}
+		}
+
+		for (File dir : dirs) {
+			try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+				channel.force(true);
+			} catch (IOException e) {
+				// E.g. on Windows, where directories cannot be opened
+			}
+		}
+	}
+
+	private static void force(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Creates the directories needed for the entry. Returns the file to
+	 * write the content to, or <code>null</code> if there is nothing to write.
+	 *
+	 * Only the last of several entries with the same name is written, so the
+	 * result does not depend on the order in which workers finish.
+	 */
+	private File prepare(TarIndexEntry entry) {
+		File target = new File(destFolder, entry.getName());
+
+		if (entry.isDirectory()) {
+			mkdirs(target);
+			return null;
+		}
+
+		if (tarFile.getEntry(entry.getName()) != entry) {
+			return null;
+		}
+
+		mkdirs(target.getParentFile());
+		return target;
+	}
+
+	private void mkdirs(File dir) {
+		if (dir != null && createdDirs.add(dir)) {
+			dir.mkdirs();
+		}
+	}
+
+	/**
+	 * Moves the entry's content from the archive's channel straight into the
+	 * target file's channel. The bytes never enter the Java heap, and the
+	 * kernel can use sendfile or copy_file_range for the copy.
+	 */
+	private void copy(TarIndexEntry entry, File target) throws IOException {
+		if (copySparse(entry, target)) {
+			return;
+		}
+
+		FileChannel in = tarFile.getArchiveChannel();
+
+		TarStreamExtractor.deleteExisting(target);
+		try (FileOutputStream fos = new FileOutputStream(target)) {
+			FileChannel out = fos.getChannel();
+			long position = entry.getDataOffset();
+			long end = position + entry.getSize();
+
+			while (position < end) {
+				long res = in.transferTo(position, end - position, out);
+				if (res <= 0) {
+					throw new IOException("Possible tar file corruption");
+				}
+				position += res;
+			}
+		}
+	}
+
+	/**
+	 * Extracts the entry if it is a sparse file
+	 *
+	 * @return whether it was one
+	 */
+	private boolean copySparse(TarIndexEntry entry, File target) throws IOException {
+		if (entry.getHeaderOffset() == entry.getDataOffset() - TarConstants.HEADER_BLOCK) {
+			// Only entries with pax headers can be sparse
+			return false;
+		}
+
+		try (TarInputStream tis = tarFile.openEntry(entry)) {
+			TarHeaderView header = tis.getNextHeader();
+			if (header != null && header.isSparse()) {
+				TarStreamExtractor.copySparse(tis, target, new byte[TarStreamExtractor.BUFFER_SIZE]);
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,429 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * <p>Random access to the entries of a gzip-compressed tar archive.</p>
+ *
+ * <p>A plain gzip stream can only be read from the start. With a
+ * {@link TarGzIndex}, reading an entry starts at the last checkpoint before
+ * it instead, so at most about one span of data is inflated in vain, however
+ * large the archive is.</p>
+ *
+ * <p>Entries are read with positional reads and each stream has its own
+ * <code>Inflater</code>, so several entries can be read at the same time.</p>
+ */
+public class TarGzFile implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final FileChannel channel;
+	private final TarGzIndex index;
+	private final Map<String, TarIndexEntry> catalog = new HashMap<String, TarIndexEntry>();
+
+	/**
+	 * Opens the archive and builds its index with one pass over the archive
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public TarGzFile(File file) throws IOException {
+		this(file, TarGzIndex.build(file));
+	}
+
+	/**
+	 * Opens the archive using a previously built index
+	 *
+	 * @param file
+	 * @param index
+	 * @throws IOException
+	 *             if the index does not belong to the archive in its current
+	 *             state
+	 */
+	public TarGzFile(File file, TarGzIndex index) throws IOException {
+		if (!index.isValidFor(file)) {
+			throw new IOException("Tar index is out of date for " + file.getAbsolutePath());
+		}
+
+		this.file = file;
+		this.index = index;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		for (TarIndexEntry entry : index.getEntries()) {
+			catalog.put(entry.getName(), entry);
+		}
+	}
+
+	/**
+	 * Opens the archive using its sidecar index (see
+	 * {@link TarGzIndex#indexFileFor(File)}) if there is an up-to-date one.
+	 * Otherwise the index is built and written for the next time. Failing to
+	 * write the index is not an error, the archive is still opened.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static TarGzFile open(File file) throws IOException {
+		File indexFile = TarGzIndex.indexFileFor(file);
+
+		if (indexFile.isFile()) {
+			try {
+				TarGzIndex index = TarGzIndex.read(indexFile);
+				if (index.isValidFor(file)) {
+					return new TarGzFile(file, index);
+				}
+			} catch (IOException e) {
+				// Unreadable index, rebuild it below
+			}
+		}
+
+		TarGzIndex index = TarGzIndex.build(file);
+		try {
+			index.write(indexFile);
+		} catch (IOException e) {
+			indexFile.delete();
+		}
+
+		return new TarGzFile(file, index);
+	}
+
+	public TarGzIndex getIndex() {
+		return index;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns all entries in archive order
+	 *
+	 * @return
+	 */
+	public List<TarIndexEntry> getEntries() {
+		return index.getEntries();
+	}
+
+	/**
+	 * Returns the entry with the given name, or <code>null</code> if there
+	 * is no such entry
+	 *
+	 * @param name
+	 * @return
+	 */
+	public TarIndexEntry getEntry(String name) {
+		return catalog.get(name);
+	}
+
+	/**
+	 * Returns the number of entries in the archive
+	 *
+	 * @return
+	 */
+	public int size() {
+		return index.getEntries().size();
+	}
+
+	/**
+	 * Reads and parses the complete header of the given entry
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public TarEntry getTarEntry(TarIndexEntry entry) throws IOException {
+		long headerOffset = entry.getHeaderOffset();
+		try (TarInputStream in = new TarInputStream(openRange(headerOffset, entry.getDataOffset() - headerOffset), 1)) {
+			TarEntry tarEntry = in.getNextEntry();
+			if (tarEntry == null) {
+				throw new EOFException("Unexpected end of archive");
+			}
+			return tarEntry;
+		}
+	}
+
+	/**
+	 * Returns a stream of the entry's content. Inflating starts at the
+	 * nearest checkpoint before the entry.
+	 *
+	 * @param entry
+	 * @return
+	 * @throws IOException
+	 */
+	public InputStream getInputStream(TarIndexEntry entry) throws IOException {
+		return openRange(entry.getDataOffset(), entry.getSize());
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private InputStream openRange(long offset, long size) throws IOException {
+		List<TarGzIndex.Checkpoint> checkpoints = index.getCheckpoints();
+		int i = find(checkpoints, offset);
+		if (i < 0) {
+			throw new IOException("No checkpoint before offset " + offset);
+		}
+
+		ResumedInflaterStream in = new ResumedInflaterStream(channel, checkpoints, i);
+		try {
+			long skip = offset - checkpoints.get(i).outOffset;
+			while (skip > 0) {
+				long res = in.skip(skip);
+				if (res <= 0) {
+					throw new EOFException("Unexpected end of archive");
+				}
+				skip -= res;
+			}
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+
+		return new EntryInputStream(in, size);
+	}
+
+	/**
+	 * Returns the last checkpoint at or before the given uncompressed offset
+	 */
+	private static int find(List<TarGzIndex.Checkpoint> checkpoints, long offset) {
+		int low = 0;
+		int high = checkpoints.size() - 1;
+		int found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (checkpoints.get(mid).outOffset <= offset) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Limits the inflated stream to the content of one entry
+	 */
+	private static class EntryInputStream extends InputStream {
+		private final InputStream in;
+		private long remaining;
+
+		EntryInputStream(InputStream in, long size) {
+			this.in = in;
+			this.remaining = size;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (remaining == 0) {
+				return -1;
+			}
+
+			int res = in.read(b, off, (int) Math.min(len, remaining));
+			if (res == -1) {
+				throw new EOFException("Unexpected end of archive");
+			}
+			remaining -= res;
+			return res;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long res = in.skip(Math.min(n, remaining));
+			remaining -= res;
+			return res;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+
+	/**
+	 * Inflates the archive from a checkpoint on. A checkpoint inside a
+	 * member may start in the middle of a byte; java.util.zip has no
+	 * inflatePrime, so the input is then shifted by that many bits on the way
+	 * into the <code>Inflater</code>. The end of each member is found from
+	 * the next member checkpoint.
+	 */
+	static class ResumedInflaterStream extends InputStream {
+		private final FileChannel channel;
+		private final List<TarGzIndex.Checkpoint> checkpoints;
+		private final Inflater inflater = new Inflater(true);
+		private final ByteBuffer raw = ByteBuffer.allocate(BUFFER_SIZE);
+		private final byte[] input = new byte[BUFFER_SIZE];
+		private int member;
+		private long position;
+		private int shift;
+		private int carry = -1;
+		private boolean eof;
+
+		ResumedInflaterStream(FileChannel channel, List<TarGzIndex.Checkpoint> checkpoints, int start) {
+			this.channel = channel;
+			this.checkpoints = checkpoints;
+
+			TarGzIndex.Checkpoint checkpoint = checkpoints.get(start);
+			this.member = start;
+			while (member > 0 && !checkpoints.get(member).isMemberStart()) {
+				member--;
+			}
+			this.position = checkpoint.bitOffset >>> 3;
+			this.shift = (int) (checkpoint.bitOffset & 7);
+
+			if (checkpoint.window != null) {
+				inflater.setDictionary(checkpoint.window);
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+
+			try {
+				while (!eof) {
+					int n = inflater.inflate(b, off, len);
+					if (n > 0) {
+						return n;
+					}
+
+					if (inflater.finished()) {
+						nextMember();
+					} else if (inflater.needsDictionary()) {
+						throw new ZipException("Unexpected preset dictionary");
+					} else if (inflater.needsInput()) {
+						fill();
+					}
+				}
+				return -1;
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			byte[] buffer = new byte[(int) Math.min(n, BUFFER_SIZE)];
+			long skipped = 0;
+			while (skipped < n) {
+				int res = read(buffer, 0, (int) Math.min(n - skipped, buffer.length));
+				if (res == -1) {
+					break;
+				}
+				skipped += res;
+			}
+			return skipped;
+		}
+
+		@Override
+		public void close() {
+			inflater.end();
+		}
+
+		/**
+		 * Continues with the deflate data of the next gzip member
+		 */
+		private void nextMember() {
+			do {
+				member++;
+			} while (member < checkpoints.size() && !checkpoints.get(member).isMemberStart());
+
+			if (member == checkpoints.size()) {
+				eof = true;
+				return;
+			}
+
+			inflater.reset();
+			position = checkpoints.get(member).bitOffset >>> 3;
+			shift = 0;
+			carry = -1;
+		}
+
+		private void fill() throws IOException {
+			raw.clear();
+			int n = channel.read(raw, position);
+			if (n <= 0) {
+				if (carry == -1) {
+					throw new EOFException("Unexpected end of ZLIB input stream");
+				}
+				// The last bits of the archive
+				input[0] = (byte) (carry >>> shift);
+				carry = -1;
+				inflater.setInput(input, 0, 1);
+				return;
+			}
+			position += n;
+
+			byte[] bytes = raw.array();
+			if (shift == 0) {
+				inflater.setInput(bytes, 0, n);
+				return;
+			}
+
+			int i = 0;
+			int o = 0;
+			if (carry == -1) {
+				carry = bytes[i++] & 0xFF;
+			}
+			for (; i < n; i++) {
+				int next = bytes[i] & 0xFF;
+				input[o++] = (byte) (carry >>> shift | next << (8 - shift));
+				carry = next;
+			}
+
+			if (o == 0) {
+				fill();
+				return;
+			}
+			inflater.setInput(input, 0, o);
+		}
+	}
+}
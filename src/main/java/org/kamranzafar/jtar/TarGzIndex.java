@@ -0,0 +1,354 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <p>Persistent catalog of a gzip-compressed tar archive, usually stored next
+ * to it as <code>archive.tar.gz.idx</code>. It allows {@link TarGzFile} to
+ * read an entry without inflating the archive from the start.</p>
+ *
+ * <p>Besides the entries, with offsets into the <i>uncompressed</i> tar, the
+ * index holds checkpoints: positions in the compressed data at which
+ * inflating can be resumed. A checkpoint is recorded at the start of every
+ * gzip member and, within a member, at the first deflate block boundary after
+ * every <code>span</code> bytes of output. Resuming within a member needs the
+ * 32 KiB of output before the checkpoint, so that window is stored with it.
+ * The span trades index size against the amount of data inflated and thrown
+ * away per read.</p>
+ *
+ * Format
+ *
+ * <pre>
+ * Size     Field
+ * 8        Magic "JTGZIDX1"
+ * 8        Archive length in bytes
+ * 8        Archive modification time in milliseconds
+ * 4        Number of checkpoints
+ *          Checkpoints, each:
+ * var        Compressed position in bits, relative to the previous checkpoint
+ * var        Uncompressed position, relative to the previous checkpoint
+ * var        Window length, 0 at the start of a member
+ * var        Length of the deflated window, followed by the deflated window
+ * 4        Number of entries
+ *          Entries, as in {@link TarIndex}
+ * </pre>
+ */
+public class TarGzIndex {
+	public static final int DEFAULT_SPAN = 1024 * 1024;
+
+	private static final long MAGIC = 0x4A54475A49445831L; // "JTGZIDX1"
+	// Two offsets and the window length of a byte or more
+	private static final int MIN_CHECKPOINT_LENGTH = 3;
+
+	private final List<TarIndexEntry> entries;
+	private final List<Checkpoint> checkpoints;
+	private final long archiveLength;
+	private final long archiveModified;
+
+	TarGzIndex(List<TarIndexEntry> entries, List<Checkpoint> checkpoints, long archiveLength, long archiveModified) {
+		this.entries = entries;
+		this.checkpoints = checkpoints;
+		this.archiveLength = archiveLength;
+		this.archiveModified = archiveModified;
+	}
+
+	/**
+	 * Returns the entries in archive order. Their offsets are positions in
+	 * the uncompressed tar.
+	 *
+	 * @return
+	 */
+	public List<TarIndexEntry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * Returns the number of places at which inflating can be resumed
+	 *
+	 * @return
+	 */
+	public int getCheckpointCount() {
+		return checkpoints.size();
+	}
+
+	public long getArchiveLength() {
+		return archiveLength;
+	}
+
+	public long getArchiveModified() {
+		return archiveModified;
+	}
+
+	List<Checkpoint> getCheckpoints() {
+		return checkpoints;
+	}
+
+	/**
+	 * Checks if the index was built for the archive in its current state
+	 *
+	 * @param archive
+	 * @return
+	 */
+	public boolean isValidFor(File archive) {
+		return archive.length() == archiveLength && archive.lastModified() == archiveModified;
+	}
+
+	/**
+	 * The default location of the index of the given archive
+	 *
+	 * @param archive
+	 * @return
+	 */
+	public static File indexFileFor(File archive) {
+		return TarIndex.indexFileFor(archive);
+	}
+
+	/**
+	 * Builds the index with the default span
+	 *
+	 * @param archive
+	 * @return
+	 * @throws IOException
+	 * @see #build(File, int)
+	 */
+	public static TarGzIndex build(File archive) throws IOException {
+		return build(archive, DEFAULT_SPAN);
+	}
+
+	/**
+	 * Builds the index in one pass over the archive. The tar is read with
+	 * {@link TarInputStream}, whose offsets give the location of each entry.
+	 *
+	 * @param archive
+	 * @param span
+	 *            the amount of uncompressed data between checkpoints
+	 * @return
+	 * @throws IOException
+	 */
+	public static TarGzIndex build(File archive, final int span) throws IOException {
+		final List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		final byte[] window = new byte[IndexingGzipInputStream.WINDOW_SIZE];
+		final IndexingGzipInputStream[] gz = new IndexingGzipInputStream[1];
+
+		gz[0] = new IndexingGzipInputStream(new FileInputStream(archive), new IndexingGzipInputStream.Listener() {
+			private long last;
+
+			@Override
+			public void blockStart(long bitOffset, long outOffset, boolean memberStart) {
+				if (memberStart) {
+					checkpoints.add(new Checkpoint(bitOffset, outOffset, null));
+					last = outOffset;
+				} else if (outOffset - last >= span) {
+					int length = gz[0].copyWindow(window);
+					checkpoints.add(new Checkpoint(bitOffset, outOffset, Arrays.copyOf(window, length)));
+					last = outOffset;
+				}
+			}
+		});
+
+		List<TarIndexEntry> entries = new ArrayList<TarIndexEntry>();
+		long length = archive.length();
+		long modified = archive.lastModified();
+
+		try (TarInputStream tis = new TarInputStream(gz[0])) {
+			TarHeaderView header;
+			while ((header = tis.getNextHeader()) != null) {
+				entries.add(new TarIndexEntry(header.getName(), tis.getCurrentHeaderOffset(),
+						tis.getCurrentOffset(), header.getSize(), header.getLinkFlag()));
+			}
+		}
+
+		return new TarGzIndex(entries, checkpoints, length, modified);
+	}
+
+	/**
+	 * Reads an index file
+	 *
+	 * @param indexFile
+	 * @return
+	 * @throws IOException
+	 *             if the file is not an index or is truncated
+	 */
+	public static TarGzIndex read(File indexFile) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readLong() != MAGIC) {
+				throw new IOException("Not a tar.gz index: " + indexFile.getAbsolutePath());
+			}
+
+			long archiveLength = in.readLong();
+			long archiveModified = in.readLong();
+
+			long indexLength = indexFile.length();
+			int count = TarIndex.readCount(in, indexLength / MIN_CHECKPOINT_LENGTH);
+			List<Checkpoint> checkpoints = new ArrayList<Checkpoint>(count);
+			long bitOffset = 0;
+			long outOffset = 0;
+			for (int i = 0; i < count; i++) {
+				bitOffset += TarIndex.readVarLong(in);
+				outOffset += TarIndex.readVarLong(in);
+				checkpoints.add(new Checkpoint(bitOffset, outOffset, readWindow(in, indexLength)));
+			}
+
+			count = TarIndex.readCount(in, indexLength / TarIndex.MIN_ENTRY_LENGTH);
+			List<TarIndexEntry> entries = new ArrayList<TarIndexEntry>(count);
+			long position = 0;
+			for (int i = 0; i < count; i++) {
+				TarIndexEntry entry = TarIndex.readEntry(in, position);
+				entries.add(entry);
+				position = entry.getEndOffset();
+			}
+
+			return new TarGzIndex(entries, checkpoints, archiveLength, archiveModified);
+		}
+	}
+
+	/**
+	 * Writes the index to the given file
+	 *
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public void write(File indexFile) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+			out.writeLong(MAGIC);
+			out.writeLong(archiveLength);
+			out.writeLong(archiveModified);
+
+			out.writeInt(checkpoints.size());
+			long bitOffset = 0;
+			long outOffset = 0;
+			for (Checkpoint checkpoint : checkpoints) {
+				TarIndex.writeVarLong(out, checkpoint.bitOffset - bitOffset);
+				TarIndex.writeVarLong(out, checkpoint.outOffset - outOffset);
+				writeWindow(out, checkpoint.window);
+				bitOffset = checkpoint.bitOffset;
+				outOffset = checkpoint.outOffset;
+			}
+
+			out.writeInt(entries.size());
+			long position = 0;
+			for (TarIndexEntry entry : entries) {
+				TarIndex.writeEntry(out, entry, position);
+				position = entry.getEndOffset();
+			}
+		}
+	}
+
+	private static void writeWindow(DataOutputStream out, byte[] window) throws IOException {
+		if (window == null) {
+			TarIndex.writeVarLong(out, 0);
+			return;
+		}
+
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			deflater.setInput(window);
+			deflater.finish();
+			byte[] compressed = new byte[window.length + window.length / 1000 + 64];
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == compressed.length) {
+					compressed = Arrays.copyOf(compressed, compressed.length * 2);
+				}
+				length += deflater.deflate(compressed, length, compressed.length - length);
+			}
+
+			TarIndex.writeVarLong(out, window.length);
+			TarIndex.writeVarLong(out, length);
+			out.write(compressed, 0, length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static byte[] readWindow(DataInputStream in, long indexLength) throws IOException {
+		long windowLength = TarIndex.readVarLong(in);
+		if (windowLength == 0) {
+			return null;
+		}
+		long compressedLength = TarIndex.readVarLong(in);
+		if (windowLength > IndexingGzipInputStream.WINDOW_SIZE || compressedLength > indexLength) {
+			throw new IOException("Malformed window in index");
+		}
+		int length = (int) windowLength;
+
+		byte[] compressed = new byte[(int) compressedLength];
+		in.readFully(compressed);
+
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			byte[] window = new byte[length];
+			int n = 0;
+			while (n < length) {
+				int res = inflater.inflate(window, n, length - n);
+				if (res == 0 && (inflater.finished() || inflater.needsInput())) {
+					throw new IOException("Malformed window in index");
+				}
+				n += res;
+			}
+			return window;
+		} catch (DataFormatException e) {
+			throw new IOException("Malformed window in index", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * A position at which inflating can be resumed
+	 */
+	static class Checkpoint {
+		final long bitOffset;
+		final long outOffset;
+		final byte[] window;
+
+		/**
+		 * @param bitOffset
+		 *            the position of a deflate block in the archive, in bits
+		 * @param outOffset
+		 *            the position in the uncompressed data
+		 * @param window
+		 *            the output before the block, <code>null</code> at the
+		 *            start of a gzip member
+		 */
+		Checkpoint(long bitOffset, long outOffset, byte[] window) {
+			this.bitOffset = bitOffset;
+			this.outOffset = outOffset;
+			this.window = window;
+		}
+
+		boolean isMemberStart() {
+			return window == null;
+		}
+	}
+}
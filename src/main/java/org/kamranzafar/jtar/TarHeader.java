@@ -49,6 +49,8 @@ import java.io.File;
  * '5'          Directory
  * '6'          FIFO
  * '7'          Contigous
+ * 'x'          POSIX pax extended header for the next entry
+ * 'g'          POSIX pax global extended header
  * </pre>
  * 
  * 
@@ -92,6 +94,8 @@ public class TarHeader {
 	public static final byte LF_DIR = (byte) '5';
 	public static final byte LF_FIFO = (byte) '6';
 	public static final byte LF_CONTIG = (byte) '7';
+	public static final byte LF_PAX_EXTENDED = (byte) 'x';
+	public static final byte LF_PAX_GLOBAL = (byte) 'g';
 
 	/*
 	 * Ustar header
@@ -105,39 +109,48 @@ public class TarHeader {
 	public static final int USTAR_DEVLEN = 8;
 	public static final int USTAR_FILENAME_PREFIX = 155;
 
+	private static final TarName USTAR_MAGIC_NAME = TarName.of(USTAR_MAGIC).intern();
+	private static final TarName USER_NAME = userName();
+
 	// Header values
-	public StringBuffer name;
+	public TarName name;
 	public int mode;
 	public int userId;
 	public int groupId;
 	public long size;
 	public long modTime;
+	public int modTimeNanos; // below the second, from or for a pax header
 	public int checkSum;
 	public byte linkFlag;
-	public StringBuffer linkName;
-	public StringBuffer magic; // ustar indicator and version
-	public StringBuffer userName;
-	public StringBuffer groupName;
+	public TarName linkName;
+	public TarName magic; // ustar indicator and version
+	public TarName userName;
+	public TarName groupName;
 	public int devMajor;
 	public int devMinor;
-	public StringBuffer namePrefix;
+	public TarName namePrefix;
+	public long realSize = -1; // of a sparse file, whose holes are not stored
 
 	public TarHeader() {
-		this.magic = new StringBuffer(TarHeader.USTAR_MAGIC);
+		this.magic = USTAR_MAGIC_NAME;
+
+		this.name = TarName.EMPTY;
+		this.linkName = TarName.EMPTY;
 
-		this.name = new StringBuffer();
-		this.linkName = new StringBuffer();
+		this.userId = 0;
+		this.groupId = 0;
+		this.userName = USER_NAME;
+		this.groupName = TarName.EMPTY;
+		this.namePrefix = TarName.EMPTY;
+	}
 
+	private static TarName userName() {
 		String user = System.getProperty("user.name", "");
 
 		if (user.length() > 31)
 			user = user.substring(0, 31);
 
-		this.userId = 0;
-		this.groupId = 0;
-		this.userName = new StringBuffer(user);
-		this.groupName = new StringBuffer("");
-		this.namePrefix = new StringBuffer();
+		return TarName.of(user).intern();
 	}
 
 	/**
@@ -151,7 +164,10 @@ public class TarHeader {
 	 * @param length
 	 *            The number of header bytes to parse.
 	 * @return The header's entry name.
+	 * @deprecated Names are kept as {@link TarName}s, use
+	 *             {@link TarName#parse(byte[], int, int)}
 	 */
+	@Deprecated
 	public static StringBuffer parseName(byte[] header, int offset, int length) {
 		StringBuffer result = new StringBuffer(length);
 
@@ -176,7 +192,10 @@ public class TarHeader {
 	 * @param length
 	 *            The number of header bytes to parse.
 	 * @return The number of bytes in a header's entry name.
+	 * @deprecated Names are kept as {@link TarName}s, use
+	 *             {@link #getNameBytes(TarName, byte[], int, int)}
 	 */
+	@Deprecated
 	public static int getNameBytes(StringBuffer name, byte[] buf, int offset, int length) {
 		int i;
 
@@ -191,6 +210,22 @@ public class TarHeader {
 		return offset + length;
 	}
 
+	/**
+	 * Writes a name into a header field as UTF-8, padded with NULs.
+	 * 
+	 * @param name
+	 * @param buf
+	 *            The header buffer to write to.
+	 * @param offset
+	 *            The offset of the field.
+	 * @param length
+	 *            The size of the field.
+	 * @return The offset after the field.
+	 */
+	public static int getNameBytes(TarName name, byte[] buf, int offset, int length) {
+		return name.writeTo(buf, offset, length);
+	}
+
 	/**
 	 * Creates a new header for a file/directory entry.
 	 * 
@@ -211,21 +246,12 @@ public class TarHeader {
 		name = TarUtils.trim(name.replace(File.separatorChar, '/'), '/');
 
 		TarHeader header = new TarHeader();
-		header.linkName = new StringBuffer("");
-
-		if (name.length() > 100) {
-			header.namePrefix = new StringBuffer(name.substring(0, name.lastIndexOf('/')));
-			header.name = new StringBuffer(name.substring(name.lastIndexOf('/') + 1));
-		} else {
-			header.name = new StringBuffer(name);
-		}
+		header.linkName = TarName.EMPTY;
 
 		if (dir) {
 			header.mode = 040755;
 			header.linkFlag = TarHeader.LF_DIR;
-			if (header.name.charAt(header.name.length() - 1) != '/') {
-				header.name.append("/");
-			}
+			name += "/";
 			header.size = 0;
 		} else {
 			header.mode = 0100644;
@@ -233,6 +259,21 @@ public class TarHeader {
 			header.size = size;
 		}
 
+		// Names that cannot be split into a ustar prefix and name are kept
+		// whole, TarOutputStream writes them to a pax header
+		header.name = TarName.of(name);
+		if (header.name.byteLength() > NAMELEN) {
+			int slash = name.lastIndexOf('/', name.length() - 2);
+			if (slash > 0) {
+				TarName prefix = TarName.of(name.substring(0, slash));
+				TarName fileName = TarName.of(name.substring(slash + 1));
+				if (prefix.byteLength() <= USTAR_FILENAME_PREFIX && fileName.byteLength() <= NAMELEN) {
+					header.namePrefix = prefix;
+					header.name = fileName;
+				}
+			}
+		}
+
 		header.modTime = modTime;
 		header.checkSum = 0;
 		header.devMajor = 0;
@@ -0,0 +1,228 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>Encodes headers into 512-byte blocks like
+ * {@link TarEntry#writeEntryHeader(byte[])}, byte for byte, but without
+ * encoding every field of every header.</p>
+ *
+ * <p>The encoder keeps the last header it encoded as a template block,
+ * together with the sum of its bytes. Only the fields that differ from the
+ * previous header are encoded again, and the checksum is updated by the
+ * bytes of those fields. In a typical archive the magic, mode, owner and
+ * device fields are the same for every entry and only the name, size and
+ * modification time change. The block is then copied to its destination
+ * in one go.</p>
+ *
+ * <p>An encoder is not thread-safe, {@link TarOutputStream} uses one per
+ * stream.</p>
+ */
+public final class TarHeaderEncoder {
+	private static final int NAME = 0;
+	private static final int MODE = NAME + TarHeader.NAMELEN;
+	private static final int UID = MODE + TarHeader.MODELEN;
+	private static final int GID = UID + TarHeader.UIDLEN;
+	private static final int SIZE = GID + TarHeader.GIDLEN;
+	private static final int MODTIME = SIZE + TarHeader.SIZELEN;
+	private static final int CHKSUM = MODTIME + TarHeader.MODTIMELEN;
+	private static final int LINKFLAG = CHKSUM + TarHeader.CHKSUMLEN;
+	private static final int LINKNAME = LINKFLAG + 1;
+	private static final int MAGIC = LINKNAME + TarHeader.NAMELEN;
+	private static final int USERNAME = MAGIC + TarHeader.USTAR_MAGICLEN;
+	private static final int GROUPNAME = USERNAME + TarHeader.USTAR_USER_NAMELEN;
+	private static final int DEVMAJOR = GROUPNAME + TarHeader.USTAR_GROUP_NAMELEN;
+	private static final int DEVMINOR = DEVMAJOR + TarHeader.USTAR_DEVLEN;
+	private static final int PREFIX = DEVMINOR + TarHeader.USTAR_DEVLEN;
+
+	private final byte[] template = new byte[TarConstants.HEADER_BLOCK];
+	private final byte[] checkSumField = new byte[TarHeader.CHKSUMLEN];
+	private long sum;
+
+	// The values in the template
+	private TarName name = TarName.EMPTY;
+	private TarName linkName = TarName.EMPTY;
+	private TarName magic = TarName.EMPTY;
+	private TarName userName = TarName.EMPTY;
+	private TarName groupName = TarName.EMPTY;
+	private TarName namePrefix = TarName.EMPTY;
+	private int mode;
+	private int userId;
+	private int groupId;
+	private long size;
+	private long modTime;
+	private int devMajor;
+	private int devMinor;
+
+	public TarHeaderEncoder() {
+		Octal.getOctalBytes(0, template, MODE, TarHeader.MODELEN);
+		TarEntry.getIdBytes(0, template, UID, TarHeader.UIDLEN);
+		TarEntry.getIdBytes(0, template, GID, TarHeader.GIDLEN);
+		TarEntry.getLongBytes(0, template, SIZE, TarHeader.SIZELEN);
+		TarEntry.getLongBytes(0, template, MODTIME, TarHeader.MODTIMELEN);
+		Arrays.fill(template, CHKSUM, CHKSUM + TarHeader.CHKSUMLEN, (byte) ' ');
+		Octal.getOctalBytes(0, template, DEVMAJOR, TarHeader.USTAR_DEVLEN);
+		Octal.getOctalBytes(0, template, DEVMINOR, TarHeader.USTAR_DEVLEN);
+		sum = TarUtils.checkSum(template, 0);
+	}
+
+	/**
+	 * Encodes the header into the 512 bytes of the buffer at the offset
+	 *
+	 * @param header
+	 * @param buf
+	 * @param offset
+	 * @return the offset after the header
+	 */
+	public int encode(TarHeader header, byte[] buf, int offset) {
+		if (buf.length - offset < TarConstants.HEADER_BLOCK) {
+			throw new BufferOverflowException();
+		}
+
+		update(header);
+		System.arraycopy(template, 0, buf, offset, TarConstants.HEADER_BLOCK);
+		Octal.getCheckSumOctalBytes(sum, buf, offset + CHKSUM, TarHeader.CHKSUMLEN);
+
+		return offset + TarConstants.HEADER_BLOCK;
+	}
+
+	/**
+	 * Encodes the header at the buffer's position and moves the position
+	 * past it
+	 *
+	 * @param header
+	 * @param buffer
+	 */
+	public void encode(TarHeader header, ByteBuffer buffer) {
+		if (buffer.remaining() < TarConstants.HEADER_BLOCK) {
+			throw new BufferOverflowException();
+		}
+
+		int position = buffer.position();
+		if (buffer.hasArray()) {
+			encode(header, buffer.array(), buffer.arrayOffset() + position);
+			buffer.position(position + TarConstants.HEADER_BLOCK);
+		} else {
+			update(header);
+			buffer.put(template);
+			Octal.getCheckSumOctalBytes(sum, checkSumField, 0, TarHeader.CHKSUMLEN);
+			for (int i = 0; i < TarHeader.CHKSUMLEN; i++) {
+				buffer.put(position + CHKSUM + i, checkSumField[i]);
+			}
+		}
+	}
+
+	/**
+	 * Brings the template up to the header, field by field
+	 */
+	private void update(TarHeader header) {
+		name = name(name, header.name, NAME, TarHeader.NAMELEN);
+
+		if (header.mode != mode) {
+			sum -= fieldSum(MODE, TarHeader.MODELEN);
+			Octal.getOctalBytes(header.mode, template, MODE, TarHeader.MODELEN);
+			sum += fieldSum(MODE, TarHeader.MODELEN);
+			mode = header.mode;
+		}
+
+		if (header.userId != userId) {
+			sum -= fieldSum(UID, TarHeader.UIDLEN);
+			TarEntry.getIdBytes(header.userId, template, UID, TarHeader.UIDLEN);
+			sum += fieldSum(UID, TarHeader.UIDLEN);
+			userId = header.userId;
+		}
+
+		if (header.groupId != groupId) {
+			sum -= fieldSum(GID, TarHeader.GIDLEN);
+			TarEntry.getIdBytes(header.groupId, template, GID, TarHeader.GIDLEN);
+			sum += fieldSum(GID, TarHeader.GIDLEN);
+			groupId = header.groupId;
+		}
+
+		if (header.size != size) {
+			sum -= fieldSum(SIZE, TarHeader.SIZELEN);
+			TarEntry.getLongBytes(header.size, template, SIZE, TarHeader.SIZELEN);
+			sum += fieldSum(SIZE, TarHeader.SIZELEN);
+			size = header.size;
+		}
+
+		if (header.modTime != modTime) {
+			sum -= fieldSum(MODTIME, TarHeader.MODTIMELEN);
+			TarEntry.getLongBytes(header.modTime, template, MODTIME, TarHeader.MODTIMELEN);
+			sum += fieldSum(MODTIME, TarHeader.MODTIMELEN);
+			modTime = header.modTime;
+		}
+
+		if (header.linkFlag != template[LINKFLAG]) {
+			sum += (header.linkFlag & 0xFF) - (template[LINKFLAG] & 0xFF);
+			template[LINKFLAG] = header.linkFlag;
+		}
+
+		linkName = name(linkName, header.linkName, LINKNAME, TarHeader.NAMELEN);
+		magic = name(magic, header.magic, MAGIC, TarHeader.USTAR_MAGICLEN);
+		userName = name(userName, header.userName, USERNAME, TarHeader.USTAR_USER_NAMELEN);
+		groupName = name(groupName, header.groupName, GROUPNAME, TarHeader.USTAR_GROUP_NAMELEN);
+
+		if (header.devMajor != devMajor) {
+			sum -= fieldSum(DEVMAJOR, TarHeader.USTAR_DEVLEN);
+			Octal.getOctalBytes(header.devMajor, template, DEVMAJOR, TarHeader.USTAR_DEVLEN);
+			sum += fieldSum(DEVMAJOR, TarHeader.USTAR_DEVLEN);
+			devMajor = header.devMajor;
+		}
+
+		if (header.devMinor != devMinor) {
+			sum -= fieldSum(DEVMINOR, TarHeader.USTAR_DEVLEN);
+			Octal.getOctalBytes(header.devMinor, template, DEVMINOR, TarHeader.USTAR_DEVLEN);
+			sum += fieldSum(DEVMINOR, TarHeader.USTAR_DEVLEN);
+			devMinor = header.devMinor;
+		}
+
+		namePrefix = name(namePrefix, header.namePrefix, PREFIX, TarHeader.USTAR_FILENAME_PREFIX);
+	}
+
+	/**
+	 * Writes a name field unless it holds the name already. Only the bytes
+	 * up to the end of the longer name can change, the rest are NULs.
+	 */
+	private TarName name(TarName current, TarName value, int offset, int length) {
+		if (value == null) {
+			value = TarName.EMPTY;
+		}
+		if (value == current || value.equals(current)) {
+			return current;
+		}
+
+		int changed = Math.min(length, Math.max(current.byteLength(), value.byteLength()));
+		sum -= fieldSum(offset, changed);
+		value.writeTo(template, offset, length);
+		sum += fieldSum(offset, changed);
+
+		return value;
+	}
+
+	private long fieldSum(int offset, int length) {
+		long fieldSum = 0;
+		for (int i = offset, end = offset + length; i < end; i++) {
+			fieldSum += template[i] & 0xFF;
+		}
+
+		return fieldSum;
+	}
+}
@@ -0,0 +1,535 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>A read-only view of a raw 512-byte header block that decodes fields only
+ * when they are asked for.</p>
+ *
+ * <p>Unlike {@link TarEntry}, which parses every field into a
+ * {@link TarHeader}, the view copies nothing and allocates nothing: the size,
+ * type and numeric fields are decoded straight from the block and names can
+ * be compared with {@link #nameEquals(CharSequence)} and
+ * {@link #nameStartsWith(CharSequence)} without creating Strings. One view can
+ * be wrapped around block after block, which is what
+ * {@link TarInputStream#getNextHeader()} does.</p>
+ *
+ * <p>The view reads the block it wraps, so it is only valid until the block
+ * is overwritten. Use {@link #toTarEntry()} to keep an entry.</p>
+ *
+ * <p>Views returned by {@link TarInputStream#getNextHeader()} also carry the
+ * values of the pax headers before the block, which take precedence over the
+ * fields of the block.</p>
+ */
+public class TarHeaderView {
+	private static final int NAME = 0;
+	private static final int MODE = NAME + TarHeader.NAMELEN;
+	private static final int UID = MODE + TarHeader.MODELEN;
+	private static final int GID = UID + TarHeader.UIDLEN;
+	private static final int SIZE = GID + TarHeader.GIDLEN;
+	private static final int MODTIME = SIZE + TarHeader.SIZELEN;
+	private static final int CHKSUM = MODTIME + TarHeader.MODTIMELEN;
+	private static final int LINKFLAG = CHKSUM + TarHeader.CHKSUMLEN;
+	private static final int LINKNAME = LINKFLAG + 1;
+	private static final int MAGIC = LINKNAME + TarHeader.NAMELEN;
+	private static final int USERNAME = MAGIC + TarHeader.USTAR_MAGICLEN;
+	private static final int GROUPNAME = USERNAME + TarHeader.USTAR_USER_NAMELEN;
+	private static final int DEVMAJOR = GROUPNAME + TarHeader.USTAR_GROUP_NAMELEN;
+	private static final int DEVMINOR = DEVMAJOR + TarHeader.USTAR_DEVLEN;
+	private static final int PREFIX = DEVMINOR + TarHeader.USTAR_DEVLEN;
+
+	private static final int NO_MATCH = 0;
+	private static final int MATCH = 1;
+	private static final int UNDECIDED = 2;
+
+	private byte[] buf;
+	private int base;
+	private byte[] copy;
+	private PaxHeaders pax;
+	private NameChars nameChars;
+
+	public TarHeaderView() {
+	}
+
+	public TarHeaderView(byte[] block) {
+		wrap(block);
+	}
+
+	/**
+	 * Views the header block at the start of the given array
+	 *
+	 * @param block
+	 * @return this view
+	 */
+	public TarHeaderView wrap(byte[] block) {
+		return wrap(block, 0);
+	}
+
+	/**
+	 * Views the header block starting at <code>offset</code> in the given
+	 * array, e.g. one block of a larger record
+	 *
+	 * @param buf
+	 * @param offset
+	 * @return this view
+	 */
+	public TarHeaderView wrap(byte[] buf, int offset) {
+		return wrap(buf, offset, null);
+	}
+
+	/**
+	 * Views a header block with the values of the pax headers that precede it
+	 */
+	TarHeaderView wrap(byte[] buf, int offset, PaxHeaders pax) {
+		if (offset < 0 || buf.length - offset < TarConstants.HEADER_BLOCK) {
+			throw new IndexOutOfBoundsException("No header block at offset " + offset + " of " + buf.length
+					+ " bytes");
+		}
+
+		this.buf = buf;
+		this.base = offset;
+		this.pax = pax;
+		return this;
+	}
+
+	PaxHeaders getPax() {
+		return pax;
+	}
+
+	/**
+	 * Views the header block starting at the buffer's position. Blocks of
+	 * direct buffers are copied into an array owned by the view, which is
+	 * allocated once and reused.
+	 *
+	 * @param buffer
+	 * @return this view
+	 */
+	public TarHeaderView wrap(ByteBuffer buffer) {
+		if (buffer.remaining() < TarConstants.HEADER_BLOCK) {
+			throw new IndexOutOfBoundsException("Less than a header block remaining: " + buffer.remaining());
+		}
+
+		if (buffer.hasArray()) {
+			return wrap(buffer.array(), buffer.arrayOffset() + buffer.position());
+		}
+
+		if (copy == null) {
+			copy = new byte[TarConstants.HEADER_BLOCK];
+		}
+		buffer.duplicate().get(copy);
+		return wrap(copy, 0);
+	}
+
+	/**
+	 * Checks if the block consists of zeros only, which marks the end of an
+	 * archive
+	 *
+	 * @return
+	 */
+	public boolean isZeroBlock() {
+		for (int i = base, end = base + TarConstants.HEADER_BLOCK; i < end; i++) {
+			if (buf[i] != 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the entry name including the ustar prefix. Creates a String,
+	 * use {@link #nameEquals(CharSequence)} to compare names.
+	 *
+	 * @return
+	 */
+	public String getName() {
+		String paxName = paxName();
+		if (paxName != null) {
+			return paxName;
+		}
+
+		int prefixLength = fieldLength(PREFIX, TarHeader.USTAR_FILENAME_PREFIX);
+		int nameLength = fieldLength(NAME, TarHeader.NAMELEN);
+
+		if (!TarName.isAscii(buf, base + PREFIX, prefixLength) || !TarName.isAscii(buf, base + NAME, nameLength)) {
+			return TarName.join(TarName.parse(buf, base + PREFIX, prefixLength),
+					TarName.parse(buf, base + NAME, nameLength)).toString();
+		}
+
+		StringBuilder name = new StringBuilder(prefixLength + 1 + nameLength);
+		if (prefixLength > 0) {
+			appendAscii(name, PREFIX, prefixLength).append('/');
+		}
+
+		return appendAscii(name, NAME, nameLength).toString();
+	}
+
+	/**
+	 * Returns the entry name including the ustar prefix as characters. ASCII
+	 * names are read from the block as they are asked for, other names are
+	 * decoded into a String. Only valid until the view is wrapped around
+	 * another block.
+	 */
+	CharSequence getNameChars() {
+		String paxName = paxName();
+		if (paxName != null) {
+			return paxName;
+		}
+
+		int prefixLength = fieldLength(PREFIX, TarHeader.USTAR_FILENAME_PREFIX);
+		int nameLength = fieldLength(NAME, TarHeader.NAMELEN);
+		if (!TarName.isAscii(buf, base + PREFIX, prefixLength) || !TarName.isAscii(buf, base + NAME, nameLength)) {
+			return getName();
+		}
+
+		if (nameChars == null) {
+			nameChars = new NameChars();
+		}
+		nameChars.prefixLength = prefixLength;
+		nameChars.nameStart = prefixLength > 0 ? prefixLength + 1 : 0;
+		nameChars.length = nameChars.nameStart + nameLength;
+		return nameChars;
+	}
+
+	/**
+	 * Compares the entry name including the ustar prefix with the given one
+	 *
+	 * @param name
+	 * @return
+	 */
+	public boolean nameEquals(CharSequence name) {
+		String paxName = paxName();
+		if (paxName != null) {
+			return paxName.contentEquals(name);
+		}
+
+		int match = regionMatches(name, true);
+		return match == UNDECIDED ? getName().contentEquals(name) : match == MATCH;
+	}
+
+	/**
+	 * Checks if the entry name including the ustar prefix starts with the
+	 * given one, e.g. to find the entries of a directory
+	 *
+	 * @param prefix
+	 * @return
+	 */
+	public boolean nameStartsWith(CharSequence prefix) {
+		String paxName = paxName();
+		if (paxName != null) {
+			return paxName.startsWith(prefix.toString());
+		}
+
+		int match = regionMatches(prefix, false);
+		return match == UNDECIDED ? getName().startsWith(prefix.toString()) : match == MATCH;
+	}
+
+	public int getMode() {
+		return (int) Octal.parseOctal(buf, base + MODE, TarHeader.MODELEN);
+	}
+
+	public int getUserId() {
+		if (pax != null && pax.userId >= 0) {
+			return (int) pax.userId;
+		}
+
+		return (int) Octal.parseOctal(buf, base + UID, TarHeader.UIDLEN);
+	}
+
+	public int getGroupId() {
+		if (pax != null && pax.groupId >= 0) {
+			return (int) pax.groupId;
+		}
+
+		return (int) Octal.parseOctal(buf, base + GID, TarHeader.GIDLEN);
+	}
+
+	public long getSize() {
+		if (pax != null && pax.size >= 0) {
+			return pax.size;
+		}
+
+		return Octal.parseOctal(buf, base + SIZE, TarHeader.SIZELEN);
+	}
+
+	/**
+	 * Same as {@link TarEntry#isSparse()}
+	 *
+	 * @return
+	 */
+	public boolean isSparse() {
+		return pax != null && pax.isSparse();
+	}
+
+	/**
+	 * Same as {@link TarEntry#getRealSize()}
+	 *
+	 * @return
+	 */
+	public long getRealSize() {
+		return isSparse() ? pax.sparseRealSize : getSize();
+	}
+
+	/**
+	 * Returns the modification time in seconds since the epoch, as stored
+	 *
+	 * @return
+	 */
+	public long getModTime() {
+		if (pax != null && pax.hasModTime) {
+			return pax.modTime;
+		}
+
+		return Octal.parseOctal(buf, base + MODTIME, TarHeader.MODTIMELEN);
+	}
+
+	/**
+	 * Returns the part of the modification time below the second, which only
+	 * a pax header can hold
+	 *
+	 * @return
+	 */
+	public int getModTimeNanos() {
+		return pax != null && pax.hasModTime ? pax.modTimeNanos : 0;
+	}
+
+	public int getCheckSum() {
+		return (int) Octal.parseOctal(buf, base + CHKSUM, TarHeader.CHKSUMLEN);
+	}
+
+	/**
+	 * Checks the header against its checksum, the sum of its bytes with
+	 * spaces in the checksum field. Sums of signed bytes, which some old
+	 * writers used, are accepted as well.
+	 *
+	 * @return
+	 */
+	public boolean isCheckSumValid() {
+		long stored = getCheckSum();
+		long sum = TarUtils.checkSum(buf, base) + TarHeader.CHKSUMLEN * ' ';
+		for (int i = base + CHKSUM, end = i + TarHeader.CHKSUMLEN; i < end; i++) {
+			sum -= buf[i] & 0xFF;
+		}
+
+		if (sum == stored) {
+			return true;
+		}
+
+		for (int i = base, end = base + TarConstants.HEADER_BLOCK; i < end; i++) {
+			if (buf[i] < 0 && (i < base + CHKSUM || i >= base + LINKFLAG)) {
+				sum -= 256;
+			}
+		}
+
+		return sum == stored;
+	}
+
+	public byte getLinkFlag() {
+		return buf[base + LINKFLAG];
+	}
+
+	public String getLinkName() {
+		if (pax != null && pax.linkPath != null) {
+			return pax.linkPath;
+		}
+
+		return field(LINKNAME, TarHeader.NAMELEN);
+	}
+
+	public String getMagic() {
+		return field(MAGIC, TarHeader.USTAR_MAGICLEN);
+	}
+
+	public String getUserName() {
+		if (pax != null && pax.userName != null) {
+			return pax.userName;
+		}
+
+		return field(USERNAME, TarHeader.USTAR_USER_NAMELEN);
+	}
+
+	public String getGroupName() {
+		if (pax != null && pax.groupName != null) {
+			return pax.groupName;
+		}
+
+		return field(GROUPNAME, TarHeader.USTAR_GROUP_NAMELEN);
+	}
+
+	public int getDevMajor() {
+		return (int) Octal.parseOctal(buf, base + DEVMAJOR, TarHeader.USTAR_DEVLEN);
+	}
+
+	public int getDevMinor() {
+		return (int) Octal.parseOctal(buf, base + DEVMINOR, TarHeader.USTAR_DEVLEN);
+	}
+
+	/**
+	 * Same as {@link TarEntry#isDirectory()} for an entry read from an
+	 * archive
+	 *
+	 * @return
+	 */
+	public boolean isDirectory() {
+		if (getLinkFlag() == TarHeader.LF_DIR) {
+			return true;
+		}
+
+		String paxName = paxName();
+		if (paxName != null) {
+			return paxName.endsWith("/");
+		}
+
+		int nameLength = fieldLength(NAME, TarHeader.NAMELEN);
+		return nameLength > 0 && buf[base + NAME + nameLength - 1] == '/';
+	}
+
+	/**
+	 * Parses the whole header into a new entry, which stays valid after the
+	 * block is reused
+	 *
+	 * @return
+	 */
+	public TarEntry toTarEntry() {
+		TarEntry entry;
+		if (base == 0 && buf.length == TarConstants.HEADER_BLOCK) {
+			entry = new TarEntry(buf);
+		} else {
+			entry = new TarEntry(Arrays.copyOfRange(buf, base, base + TarConstants.HEADER_BLOCK));
+		}
+
+		if (pax != null) {
+			pax.applyTo(entry.getHeader());
+		}
+
+		return entry;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+
+	/**
+	 * Compares the full name with the given one, or with the start of it,
+	 * character by character while both are ASCII. Anything else is left to
+	 * a comparison of the decoded name.
+	 */
+	private int regionMatches(CharSequence s, boolean whole) {
+		int prefixLength = fieldLength(PREFIX, TarHeader.USTAR_FILENAME_PREFIX);
+		int nameStart = prefixLength > 0 ? prefixLength + 1 : 0;
+		int length = nameStart + fieldLength(NAME, TarHeader.NAMELEN);
+		int n = s.length();
+
+		// A name never has more characters than UTF-8 bytes
+		if (n > length) {
+			return NO_MATCH;
+		}
+
+		for (int i = 0; i < n; i++) {
+			byte b;
+			if (i < prefixLength) {
+				b = buf[base + PREFIX + i];
+			} else if (i < nameStart) {
+				b = '/';
+			} else {
+				b = buf[base + NAME + i - nameStart];
+			}
+
+			char c = s.charAt(i);
+			if (b < 0 || c >= 0x80) {
+				return UNDECIDED;
+			}
+			if (c != b) {
+				return NO_MATCH;
+			}
+		}
+
+		return n == length || !whole ? MATCH : NO_MATCH;
+	}
+
+	/**
+	 * The characters of an ASCII name in the block, with the slash between
+	 * the prefix and the name
+	 */
+	private final class NameChars implements CharSequence {
+		int prefixLength;
+		int nameStart;
+		int length;
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < prefixLength) {
+				return (char) buf[base + PREFIX + index];
+			}
+			if (index < nameStart) {
+				return '/';
+			}
+			return (char) buf[base + NAME + index - nameStart];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder(length).append(this).toString();
+		}
+	}
+
+	/**
+	 * Returns the name from the pax headers, if they have one
+	 */
+	private String paxName() {
+		if (pax == null) {
+			return null;
+		}
+
+		return pax.isSparse() && pax.sparseName != null ? pax.sparseName : pax.path;
+	}
+
+	private int fieldLength(int offset, int length) {
+		int start = base + offset;
+		int i = 0;
+		while (i < length && buf[start + i] != 0) {
+			i++;
+		}
+
+		return i;
+	}
+
+	private StringBuilder appendAscii(StringBuilder s, int offset, int length) {
+		for (int i = base + offset, end = i + length; i < end; i++) {
+			s.append((char) buf[i]);
+		}
+
+		return s;
+	}
+
+	private String field(int offset, int length) {
+		return TarName.decode(buf, base + offset, fieldLength(offset, length));
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>Persistent catalog of an uncompressed tar archive, usually stored next to
+ * it as <code>archive.tar.idx</code>.</p>
+ *
+ * <p>Loading the index replaces the header scan of {@link TarFile}, which
+ * needs one read per entry, with a single sequential read of a small file.
+ * The index records the length and modification time of the archive it was
+ * built for, so a stale index is detected without reading the archive.</p>
+ *
+ * <p>The index is written either by {@link TarOutputStream} while creating an
+ * archive (see {@link TarOutputStream#setIndexFile(File)}) or afterwards with
+ * {@link #build(File)}.</p>
+ *
+ * Format
+ *
+ * <pre>
+ * Size     Field
+ * 8        Magic "JTARIDX1"
+ * 8        Archive length in bytes
+ * 8        Archive modification time in milliseconds
+ * 4        Number of entries
+ *          Entries, each:
+ * 2+n        Name, modified UTF-8 as written by DataOutput.writeUTF
+ * 1          Link indicator (file type)
+ * var        Gap between the previous entry's end and this header
+ * var        Header length (512 unless there are extended headers)
+ * var        Content size
+ * </pre>
+ *
+ * Variable length numbers use 7 bits per byte, least significant group first.
+ */
+public class TarIndex {
+	public static final String SUFFIX = ".idx";
+
+	private static final long MAGIC = 0x4A54415249445831L; // "JTARIDX1"
+	// Name length, link flag and three numbers of a byte or more
+	static final int MIN_ENTRY_LENGTH = 6;
+
+	private final List<TarIndexEntry> entries;
+	private final long archiveLength;
+	private final long archiveModified;
+
+	public TarIndex(List<TarIndexEntry> entries, long archiveLength, long archiveModified) {
+		this.entries = entries;
+		this.archiveLength = archiveLength;
+		this.archiveModified = archiveModified;
+	}
+
+	/**
+	 * Returns the entries in archive order
+	 *
+	 * @return
+	 */
+	public List<TarIndexEntry> getEntries() {
+		return Collections.unmodifiableList(entries);
+	}
+
+	public long getArchiveLength() {
+		return archiveLength;
+	}
+
+	public long getArchiveModified() {
+		return archiveModified;
+	}
+
+	/**
+	 * Checks if the index was built for the archive in its current state,
+	 * which only requires a stat of the archive file
+	 *
+	 * @param archive
+	 * @return
+	 */
+	public boolean isValidFor(File archive) {
+		return archive.length() == archiveLength && archive.lastModified() == archiveModified;
+	}
+
+	/**
+	 * The default location of the index of the given archive
+	 *
+	 * @param archive
+	 * @return
+	 */
+	public static File indexFileFor(File archive) {
+		return new File(archive.getPath() + SUFFIX);
+	}
+
+	/**
+	 * Builds the index by scanning the headers of an existing archive
+	 *
+	 * @param archive
+	 * @return
+	 * @throws IOException
+	 */
+	public static TarIndex build(File archive) throws IOException {
+		try (TarFile tarFile = new TarFile(archive)) {
+			return tarFile.getIndex();
+		}
+	}
+
+	/**
+	 * Reads an index file
+	 *
+	 * @param indexFile
+	 * @return
+	 * @throws IOException
+	 *             if the file is not an index or is truncated
+	 */
+	public static TarIndex read(File indexFile) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+			if (in.readLong() != MAGIC) {
+				throw new IOException("Not a tar index: " + indexFile.getAbsolutePath());
+			}
+
+			long archiveLength = in.readLong();
+			long archiveModified = in.readLong();
+			int count = readCount(in, indexFile.length() / MIN_ENTRY_LENGTH);
+
+			List<TarIndexEntry> entries = new ArrayList<TarIndexEntry>(count);
+			long position = 0;
+			for (int i = 0; i < count; i++) {
+				TarIndexEntry entry = readEntry(in, position);
+				entries.add(entry);
+				position = entry.getEndOffset();
+			}
+
+			return new TarIndex(entries, archiveLength, archiveModified);
+		}
+	}
+
+	/**
+	 * Writes the index to the given file
+	 *
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public void write(File indexFile) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+			out.writeLong(MAGIC);
+			out.writeLong(archiveLength);
+			out.writeLong(archiveModified);
+			out.writeInt(entries.size());
+
+			long position = 0;
+			for (TarIndexEntry entry : entries) {
+				writeEntry(out, entry, position);
+				position = entry.getEndOffset();
+			}
+		}
+	}
+
+	/**
+	 * Writes one entry relative to the end of the previous one
+	 */
+	static void writeEntry(DataOutput out, TarIndexEntry entry, long position) throws IOException {
+		out.writeUTF(entry.getName());
+		out.writeByte(entry.getLinkFlag());
+		writeVarLong(out, entry.getHeaderOffset() - position);
+		writeVarLong(out, entry.getDataOffset() - entry.getHeaderOffset());
+		writeVarLong(out, entry.getSize());
+	}
+
+	static TarIndexEntry readEntry(DataInput in, long position) throws IOException {
+		String name = in.readUTF();
+		byte linkFlag = in.readByte();
+		long headerOffset = position + readVarLong(in);
+		long dataOffset = headerOffset + readVarLong(in);
+		long size = readVarLong(in);
+		if (headerOffset < position || dataOffset < headerOffset || dataOffset + TarUtils.paddedSize(size) < dataOffset) {
+			throw new IOException("Malformed entry in index: " + name);
+		}
+		return new TarIndexEntry(name, headerOffset, dataOffset, size, linkFlag);
+	}
+
+	/**
+	 * Reads the number of the items that follow, which a damaged index could
+	 * make negative or huge
+	 *
+	 * @param limit
+	 *            the most items the rest of the index can hold
+	 */
+	static int readCount(DataInput in, long limit) throws IOException {
+		int count = in.readInt();
+		if (count < 0 || count > limit) {
+			throw new IOException("Malformed count in index: " + count);
+		}
+		return count;
+	}
+
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		if (value < 0) {
+			throw new IOException("Negative value in index: " + value);
+		}
+
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarLong(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				if (value < 0) {
+					break;
+				}
+				return value;
+			}
+		}
+		throw new IOException("Malformed number in index");
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+/**
+ * Location of a single entry within an uncompressed tar archive.
+ *
+ * The header offset points at the first header block that belongs to the
+ * entry, the data offset at the first byte of its content. Both are absolute
+ * byte positions in the archive.
+ */
+public class TarIndexEntry {
+	private final String name;
+	private final long headerOffset;
+	private final long dataOffset;
+	private final long size;
+	private final byte linkFlag;
+
+	public TarIndexEntry(String name, long headerOffset, long dataOffset, long size, byte linkFlag) {
+		this.name = name;
+		this.headerOffset = headerOffset;
+		this.dataOffset = dataOffset;
+		this.size = size;
+		this.linkFlag = linkFlag;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getHeaderOffset() {
+		return headerOffset;
+	}
+
+	public long getDataOffset() {
+		return dataOffset;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public byte getLinkFlag() {
+		return linkFlag;
+	}
+
+	/**
+	 * Checks if the entry is a directory, using the same rules as
+	 * {@link TarEntry#isDirectory()}
+	 *
+	 * @return
+	 */
+	public boolean isDirectory() {
+		return linkFlag == TarHeader.LF_DIR || name.endsWith("/");
+	}
+
+	/**
+	 * Checks if the entry is a hard link, which has no content of its own
+	 *
+	 * @return
+	 */
+	public boolean isHardLink() {
+		return linkFlag == TarHeader.LF_LINK;
+	}
+
+	/**
+	 * Offset of the first byte after the entry's padded content, which is
+	 * where the next header starts.
+	 *
+	 * @return
+	 */
+	public long getEndOffset() {
+		return dataOffset + TarUtils.paddedSize(size);
+	}
+
+	@Override
+	public String toString() {
+		return name + "[header=" + headerOffset + ", data=" + dataOffset + ", size=" + size + "]";
+	}
+}
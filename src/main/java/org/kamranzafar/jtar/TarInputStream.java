@@ -20,21 +20,73 @@ package org.kamranzafar.jtar;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 /**
+ * Reads a tar archive entry by entry. The archive is read a record of
+ * <code>blockingFactor</code> blocks at a time into a buffer of the stream's
+ * own, which headers are parsed from in place and small reads and skips are
+ * served from, so the underlying stream needs no buffering of its own.
+ * 
+ * POSIX pax headers are read along the way: their values, e.g. names longer
+ * than 255 bytes or sizes of 8 GiB and more, are applied to the entry that
+ * follows them, global ones to all entries that follow.
+ * 
+ * Sparse files in the GNU 1.0 pax format read like the file they were
+ * created from, with zeros for the holes, which {@link #holeLength()} tells
+ * about so extraction can skip them.
+ * 
  * @author Kamran Zafar
  * 
  */
 public class TarInputStream extends FilterInputStream {
 
-	private static final int SKIP_BUFFER_SIZE = 2048;
-	private TarEntry currentEntry;
+	private final byte[] record;
+	private int recordPosition;
+	private int recordLimit;
+
+	// The current header, in the record while it is there, else a copy
+	private final byte[] headerBlock = new byte[TarConstants.HEADER_BLOCK];
+	private final TarHeaderView headerView = new TarHeaderView(headerBlock);
+	private int headerInRecord = -1;
+	private long currentHeaderOffset;
+
+	private final PaxHeaders globalPax = new PaxHeaders();
+	private final PaxHeaders localPax = new PaxHeaders();
+	private final PaxHeaders entryPax = new PaxHeaders();
+
+	// Sparse entries: the offsets and lengths of the data segments, read
+	// from the front of the stored data when the entry is first read
+	private long[] sparseMap;
+	private boolean sparseMapPending;
+	private int sparseIndex;
+	private long dataEnd;
+	private final byte[] single = new byte[1];
+
+	private boolean inEntry;
+	private long currentEntrySize;
 	private long currentFileSize;
 	private long bytesRead;
 	private boolean defaultSkip = false;
 
 	public TarInputStream(InputStream in) {
+		this(in, TarConstants.DEFAULT_BLOCKING_FACTOR);
+	}
+
+	/**
+	 * @param in
+	 *            the archive
+	 * @param blockingFactor
+	 *            the number of 512-byte blocks read from <code>in</code> at
+	 *            a time
+	 */
+	public TarInputStream(InputStream in, int blockingFactor) {
 		super(in);
+		if (blockingFactor < 1) {
+			throw new IllegalArgumentException("Blocking factor must be positive: " + blockingFactor);
+		}
+
+		record = new byte[blockingFactor * TarConstants.DATA_BLOCK];
 		currentFileSize = 0;
 		bytesRead = 0;
 	}
@@ -68,15 +120,24 @@ public class TarInputStream extends FilterInputStream {
 	 */
 	@Override
 	public int read() throws IOException {
-		byte[] buf = new byte[1];
+		if (inEntry && currentFileSize == currentEntrySize) {
+			return -1;
+		}
 
-		int res = this.read(buf, 0, 1);
+		if (isSparse()) {
+			return read(single, 0, 1) == 1 ? 0xFF & single[0] : -1;
+		}
+
+		if (recordPosition == recordLimit && !fillRecord()) {
+			return -1;
+		}
 
-		if (res != -1) {
-			return 0xFF & buf[0];
+		if (inEntry) {
+			currentFileSize++;
 		}
+		bytesRead++;
 
-		return res;
+		return 0xFF & record[recordPosition++];
 	}
 
 	/**
@@ -88,27 +149,86 @@ public class TarInputStream extends FilterInputStream {
 	 */
 	@Override
 	public int read(byte[] b, int off, int len) throws IOException {
-		if (currentEntry != null) {
-			if (currentFileSize == currentEntry.getSize()) {
+		if (inEntry) {
+			if (currentFileSize == currentEntrySize) {
 				return -1;
-			} else if ((currentEntry.getSize() - currentFileSize) < len) {
-				len = (int) (currentEntry.getSize() - currentFileSize);
+			} else if ((currentEntrySize - currentFileSize) < len) {
+				len = (int) (currentEntrySize - currentFileSize);
 			}
 		}
 
-		int br = super.read(b, off, len);
+		if (len == 0) {
+			return 0;
+		}
+
+		int br = isSparse() ? readSparse(b, off, len) : readRecord(b, off, len);
 
-		if (br != -1) {
-			if (currentEntry != null) {
-				currentFileSize += br;
-			}
+		if (br != -1 && inEntry) {
+			currentFileSize += br;
+		}
 
+		return br;
+	}
+
+	/**
+	 * Reads from the record, or straight from the underlying stream
+	 */
+	private int readRecord(byte[] b, int off, int len) throws IOException {
+		int br;
+		if (recordPosition < recordLimit) {
+			br = Math.min(len, recordLimit - recordPosition);
+			System.arraycopy(record, recordPosition, b, off, br);
+			recordPosition += br;
+		} else if (len >= record.length) {
+			// Large reads bypass the record
+			br = in.read(b, off, len);
+		} else if (fillRecord()) {
+			br = Math.min(len, recordLimit);
+			System.arraycopy(record, 0, b, off, br);
+			recordPosition = br;
+		} else {
+			br = -1;
+		}
+
+		if (br != -1) {
 			bytesRead += br;
 		}
 
 		return br;
 	}
 
+	/**
+	 * Returns zeros in a hole, else reads up to the end of the data segment
+	 */
+	private int readSparse(byte[] b, int off, int len) throws IOException {
+		loadSparseMap();
+
+		long hole = holeAt(currentFileSize);
+		if (hole > 0) {
+			int n = (int) Math.min(len, hole);
+			Arrays.fill(b, off, off + n, (byte) 0);
+			return n;
+		}
+
+		long segmentEnd = sparseMap[sparseIndex] + sparseMap[sparseIndex + 1];
+		return readRecord(b, off, (int) Math.min(len, segmentEnd - currentFileSize));
+	}
+
+	/**
+	 * Returns the data left in the record, and what the underlying stream
+	 * says it has, up to the end of the current entry
+	 */
+	@Override
+	public int available() throws IOException {
+		long available = (long) (recordLimit - recordPosition) + in.available();
+
+		if (inEntry) {
+			available = Math.min(available, currentEntrySize - currentFileSize);
+		}
+
+		return (int) Math.min(available, Integer.MAX_VALUE);
+	}
+
 	/**
 	 * Returns the next entry in the tar file
 	 * 
@@ -116,38 +236,114 @@ public class TarInputStream extends FilterInputStream {
 	 * @throws IOException
 	 */
 	public TarEntry getNextEntry() throws IOException {
+		TarHeaderView header = getNextHeader();
+
+		return header != null ? header.toTarEntry() : null;
+	}
+
+	/**
+	 * Moves to the next entry like {@link #getNextEntry()}, but returns a
+	 * view of its header instead of parsing it. The same view is returned for
+	 * every entry and is only valid until the next call, so listing or
+	 * filtering an archive does not allocate anything per entry.
+	 * 
+	 * @return the header of the next entry, or <code>null</code> at the end
+	 *         of the archive
+	 * @throws IOException
+	 */
+	public TarHeaderView getNextHeader() throws IOException {
 		closeCurrentEntry();
 
-		byte[] header = new byte[TarConstants.HEADER_BLOCK];
-		byte[] theader = new byte[TarConstants.HEADER_BLOCK];
-		int tr = 0;
+		currentHeaderOffset = bytesRead;
+		localPax.clear();
 
-		// Read full header
-		while (tr < TarConstants.HEADER_BLOCK) {
-			int res = read(theader, 0, TarConstants.HEADER_BLOCK - tr);
+		while (true) {
+			long headerOffset = bytesRead;
+			readHeaderBlock();
 
-			if (res < 0) {
-				break;
+			// Check if record is null
+			if (headerView.isZeroBlock()) {
+				return null;
 			}
 
-			System.arraycopy(theader, 0, header, tr, res);
-			tr += res;
-		}
+			if (!headerView.isCheckSumValid()) {
+				throw new IOException("Possible tar file corruption: header checksum mismatch at offset "
+						+ headerOffset);
+			}
+			if (headerView.getSize() < 0) {
+				throw new IOException("Possible tar file corruption: negative entry size[" + headerView.getSize()
+						+ "] at offset " + headerOffset);
+			}
 
-		// Check if record is null
-		boolean eof = true;
-		for (byte b : header) {
-			if (b != 0) {
-				eof = false;
+			byte linkFlag = headerView.getLinkFlag();
+			if (linkFlag != TarHeader.LF_PAX_EXTENDED && linkFlag != TarHeader.LF_PAX_GLOBAL) {
 				break;
 			}
+
+			// The pax records are the content of their own entry
+			inEntry = true;
+			currentEntrySize = headerView.getSize();
+			(linkFlag == TarHeader.LF_PAX_GLOBAL ? globalPax : localPax).parse(this, currentEntrySize);
+			closeCurrentEntry();
+		}
+
+		entryPax.clear();
+		entryPax.putAll(globalPax);
+		entryPax.putAll(localPax);
+		if (!entryPax.isEmpty()) {
+			headerView.wrap(headerInRecord >= 0 ? record : headerBlock, Math.max(headerInRecord, 0), entryPax);
 		}
 
-		if (!eof) {
-			currentEntry = new TarEntry(header);
+		inEntry = true;
+		if (headerView.isSparse()) {
+			sparseMapPending = true;
+			dataEnd = bytesRead + headerView.getSize();
+			currentEntrySize = headerView.getRealSize();
+		} else {
+			currentEntrySize = headerView.getSize();
 		}
 
-		return currentEntry;
+		return headerView;
+	}
+
+	/**
+	 * Reads the next header block and wraps the view around it
+	 */
+	private void readHeaderBlock() throws IOException {
+		int available = recordLimit - recordPosition;
+		if (available < TarConstants.HEADER_BLOCK) {
+			// Move the start of the header to the front and read the rest
+			headerInRecord = -1;
+			System.arraycopy(record, recordPosition, record, 0, available);
+			recordPosition = 0;
+			recordLimit = available;
+
+			while (recordLimit < TarConstants.HEADER_BLOCK) {
+				int res = in.read(record, recordLimit, record.length - recordLimit);
+
+				if (res < 0) {
+					break;
+				}
+
+				recordLimit += res;
+			}
+		}
+
+		if (recordLimit - recordPosition >= TarConstants.HEADER_BLOCK) {
+			headerView.wrap(record, recordPosition);
+			headerInRecord = recordPosition;
+			recordPosition += TarConstants.HEADER_BLOCK;
+			bytesRead += TarConstants.HEADER_BLOCK;
+		} else {
+			// Truncated archive, parse what there is
+			int tr = recordLimit - recordPosition;
+			System.arraycopy(record, recordPosition, headerBlock, 0, tr);
+			Arrays.fill(headerBlock, tr, TarConstants.HEADER_BLOCK, (byte) 0);
+			headerView.wrap(headerBlock);
+			headerInRecord = -1;
+			recordPosition = recordLimit;
+			bytesRead += tr;
+		}
 	}
 
 	/**
@@ -157,6 +353,14 @@ public class TarInputStream extends FilterInputStream {
 	public long getCurrentOffset() {
 		return bytesRead;
 	}
+
+	/**
+	 * Returns the offset at which the headers of the current entry begin,
+	 * including the pax headers before its own header
+	 */
+	public long getCurrentHeaderOffset() {
+		return currentHeaderOffset;
+	}
 	
 	/**
 	 * Closes the current tar entry
@@ -164,24 +368,20 @@ public class TarInputStream extends FilterInputStream {
 	 * @throws IOException
 	 */
 	protected void closeCurrentEntry() throws IOException {
-		if (currentEntry != null) {
-			if (currentEntry.getSize() > currentFileSize) {
-				// Not fully read, skip rest of the bytes
-				long bs = 0;
-				while (bs < currentEntry.getSize() - currentFileSize) {
-					long res = skip(currentEntry.getSize() - currentFileSize - bs);
-
-					if (res == 0 && currentEntry.getSize() - currentFileSize > 0) {
-						// I suspect file corruption
-						throw new IOException("Possible tar file corruption");
-					}
-
-					bs += res;
-				}
+		if (inEntry) {
+			// The stored data of sparse entries ends before the real size
+			long left = isSparse() ? dataEnd - bytesRead : currentEntrySize - currentFileSize;
+
+			// Not fully read, skip rest of the bytes
+			if (left > 0 && skipBytes(left) < left) {
+				// I suspect file corruption
+				throw new IOException("Possible tar file corruption");
 			}
 
-			currentEntry = null;
+			inEntry = false;
 			currentFileSize = 0L;
+			sparseMap = null;
+			sparseMapPending = false;
 			skipPad();
 		}
 	}
@@ -196,54 +396,237 @@ public class TarInputStream extends FilterInputStream {
 			int extra = (int) (bytesRead % TarConstants.DATA_BLOCK);
 
 			if (extra > 0) {
-				long bs = 0;
-				while (bs < TarConstants.DATA_BLOCK - extra) {
-					long res = skip(TarConstants.DATA_BLOCK - extra - bs);
-					bs += res;
-				}
+				skipBytes(TarConstants.DATA_BLOCK - extra);
 			}
 		}
 	}
 
 	/**
-	 * Skips 'n' bytes on the InputStream<br>
+	 * Skips 'n' bytes of the current entry<br>
 	 * Overrides default implementation of skip
 	 * 
 	 */
 	@Override
 	public long skip(long n) throws IOException {
-		if (defaultSkip) {
-			// use skip method of parent stream
-			// may not work if skip not implemented by parent
-			long bs = super.skip(n);
-			bytesRead += bs;
-
-			return bs;
+		if (inEntry) {
+			n = Math.min(n, currentEntrySize - currentFileSize);
 		}
 
 		if (n <= 0) {
 			return 0;
 		}
 
-		long left = n;
-		byte[] sBuff = new byte[SKIP_BUFFER_SIZE];
+		long skipped = isSparse() ? skipSparse(n) : skipBytes(n);
+		if (inEntry) {
+			currentFileSize += skipped;
+		}
 
-		while (left > 0) {
-			int res = read(sBuff, 0, (int) (left < SKIP_BUFFER_SIZE ? left : SKIP_BUFFER_SIZE));
-			if (res < 0) {
+		return skipped;
+	}
+
+	/**
+	 * Returns the number of bytes from the current position to the end of
+	 * the hole of a sparse entry it is in. They read as zeros, and skipping
+	 * them costs nothing. Returns 0 in data and for other entries.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public long holeLength() throws IOException {
+		if (!isSparse()) {
+			return 0;
+		}
+
+		loadSparseMap();
+		return holeAt(currentFileSize);
+	}
+
+	private boolean isSparse() {
+		return sparseMap != null || sparseMapPending;
+	}
+
+	/**
+	 * Skips holes without reading anything and data segments with
+	 * {@link #skipBytes(long)}
+	 */
+	private long skipSparse(long n) throws IOException {
+		loadSparseMap();
+
+		long skipped = 0;
+		while (skipped < n) {
+			long position = currentFileSize + skipped;
+			long hole = holeAt(position);
+			if (hole > 0) {
+				skipped += Math.min(hole, n - skipped);
+				continue;
+			}
+
+			long segmentEnd = sparseMap[sparseIndex] + sparseMap[sparseIndex + 1];
+			long want = Math.min(segmentEnd - position, n - skipped);
+			long res = skipBytes(want);
+			skipped += res;
+			if (res < want) {
 				break;
 			}
-			left -= res;
 		}
 
-		return n - left;
+		return skipped;
+	}
+
+	/**
+	 * Returns the length of the hole at the given position, 0 if it is in a
+	 * data segment. Positions only ever grow, so does the segment index.
+	 */
+	private long holeAt(long position) {
+		while (sparseIndex < sparseMap.length && sparseMap[sparseIndex] + sparseMap[sparseIndex + 1] <= position) {
+			sparseIndex += 2;
+		}
+
+		if (sparseIndex < sparseMap.length && sparseMap[sparseIndex] <= position) {
+			return 0;
+		}
+
+		long next = sparseIndex < sparseMap.length ? sparseMap[sparseIndex] : currentEntrySize;
+		return Math.max(0, Math.min(next, currentEntrySize) - position);
+	}
+
+	/**
+	 * Reads the map of a sparse entry: the number of data segments and the
+	 * offset and length of each, as decimal numbers on lines of their own,
+	 * padded to a whole block
+	 */
+	private void loadSparseMap() throws IOException {
+		if (!sparseMapPending) {
+			return;
+		}
+
+		long count = readMapNumber();
+		// Every segment takes at least four bytes of the map
+		if (count > (dataEnd - bytesRead) / 4) {
+			throw new IOException("Malformed sparse map of " + count + " segments");
+		}
+
+		long[] map = new long[(int) count * 2];
+		long last = 0;
+		long stored = 0;
+		for (int i = 0; i < map.length; i += 2) {
+			map[i] = readMapNumber();
+			map[i + 1] = readMapNumber();
+			if (map[i] < last || map[i] + map[i + 1] > currentEntrySize) {
+				throw new IOException("Malformed sparse map: segment at " + map[i] + " of length " + map[i + 1]);
+			}
+			last = map[i] + map[i + 1];
+			stored += map[i + 1];
+		}
+
+		skipPad();
+		if (stored > dataEnd - bytesRead) {
+			throw new IOException("Possible tar file corruption: sparse data exceeds the entry");
+		}
+
+		sparseMap = map;
+		sparseMapPending = false;
+		sparseIndex = 0;
+	}
+
+	private long readMapNumber() throws IOException {
+		long value = 0;
+		int digits = 0;
+
+		while (true) {
+			if (bytesRead >= dataEnd || (recordPosition == recordLimit && !fillRecord())) {
+				throw new IOException("Unexpected end of sparse map");
+			}
+
+			int c = record[recordPosition++];
+			bytesRead++;
+			if (c == '\n' && digits > 0) {
+				return value;
+			}
+			if (c < '0' || c > '9' || ++digits > 18) {
+				throw new IOException("Malformed sparse map");
+			}
+			value = value * 10 + c - '0';
+		}
 	}
 
 	public boolean isDefaultSkip() {
 		return defaultSkip;
 	}
 
+	/**
+	 * Whether to skip unread data with the underlying stream's
+	 * <code>skip</code> instead of reading it. Data that is already in the
+	 * record is skipped either way.
+	 * 
+	 * @param defaultSkip
+	 */
 	public void setDefaultSkip(boolean defaultSkip) {
 		this.defaultSkip = defaultSkip;
 	}
+
+	/**
+	 * Skips up to <code>n</code> bytes, less only at the end of the stream
+	 */
+	private long skipBytes(long n) throws IOException {
+		long left = n;
+
+		int buffered = (int) Math.min(left, recordLimit - recordPosition);
+		recordPosition += buffered;
+		left -= buffered;
+
+		while (left > 0) {
+			long res = 0;
+			if (defaultSkip) {
+				// use skip method of parent stream
+				// may not work if skip not implemented by parent
+				res = in.skip(left);
+			}
+
+			if (res <= 0) {
+				keepHeader();
+				recordPosition = 0;
+				recordLimit = 0;
+				res = in.read(record, 0, (int) Math.min(left, record.length));
+				if (res < 0) {
+					break;
+				}
+			}
+
+			left -= res;
+		}
+
+		bytesRead += n - left;
+		return n - left;
+	}
+
+	/**
+	 * Reads the next record, or as much of it as the underlying stream
+	 * returns at once
+	 */
+	private boolean fillRecord() throws IOException {
+		keepHeader();
+		recordPosition = 0;
+		recordLimit = 0;
+
+		int res = in.read(record, 0, record.length);
+		if (res < 0) {
+			return false;
+		}
+
+		recordLimit = res;
+		return true;
+	}
+
+	/**
+	 * Copies the current header out of the record before the record is
+	 * overwritten, so the header view stays valid while the entry is read
+	 */
+	private void keepHeader() {
+		if (headerInRecord >= 0) {
+			System.arraycopy(record, headerInRecord, headerBlock, 0, TarConstants.HEADER_BLOCK);
+			headerView.wrap(headerBlock, 0, headerView.getPax());
+			headerInRecord = -1;
+		}
+	}
 }
@@ -0,0 +1,281 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <p>Lists and verifies an archive file by reading its headers only. Each
+ * header is read with a positional read and checked against its checksum,
+ * the content of the entries is jumped over, so listing an archive reads a
+ * block per entry whatever the size of the entries.</p>
+ *
+ * <p>Entries are returned one at a time by {@link #getNextEntry()}, like
+ * {@link TarInputStream#getNextEntry()}, without building an index of the
+ * whole archive as {@link TarFile} does.</p>
+ *
+ * <p>With {@link #setDigest(String, int)} the content of every entry is
+ * digested as well, on a pool of threads that reads ahead of the entry
+ * returned. The entries are still returned in archive order.</p>
+ *
+ * <pre>
+ * try (TarLister lister = new TarLister(tar)) {
+ *     lister.setDigest("SHA-256", 4);
+ *     TarLister.Item item;
+ *     while ((item = lister.getNextEntry()) != null) {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ */
+public class TarLister implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int READ_AHEAD_PER_THREAD = 4;
+
+	private final FileChannel channel;
+	private final HeaderScanner scanner;
+	private final ArrayDeque<Item> pending = new ArrayDeque<Item>();
+	private String algorithm;
+	private int parallelism;
+	private BoundedExecutor executor;
+	private boolean end;
+	private boolean failed;
+
+	/**
+	 * An entry of the archive, where it is and the digest of its content
+	 */
+	public static final class Item {
+		private final TarEntry entry;
+		private final long headerOffset;
+		private final long dataOffset;
+		private final long size;
+		private final CountDownLatch digested;
+		private volatile byte[] digest;
+
+		Item(TarEntry entry, long headerOffset, long dataOffset, long size, boolean digest) {
+			this.entry = entry;
+			this.headerOffset = headerOffset;
+			this.dataOffset = dataOffset;
+			this.size = size;
+			this.digested = digest ? new CountDownLatch(1) : null;
+		}
+
+		/**
+		 * The entry's header, including the values of its pax headers
+		 *
+		 * @return
+		 */
+		public TarEntry getEntry() {
+			return entry;
+		}
+
+		/**
+		 * Offset of the entry's first header, a pax header if it has one
+		 *
+		 * @return
+		 */
+		public long getHeaderOffset() {
+			return headerOffset;
+		}
+
+		public long getDataOffset() {
+			return dataOffset;
+		}
+
+		/**
+		 * Number of content bytes in the archive, for sparse files the
+		 * stored data and its map
+		 *
+		 * @return
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * The digest of the content bytes in the archive, or null if no
+		 * digest was asked for
+		 *
+		 * @return
+		 */
+		public byte[] getDigest() {
+			return digest;
+		}
+	}
+
+	/**
+	 * Opens the archive for listing
+	 *
+	 * @param file
+	 * @throws IOException
+	 */
+	public TarLister(File file) throws IOException {
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+		try {
+			this.scanner = new HeaderScanner(channel);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public String getDigest() {
+		return algorithm;
+	}
+
+	/**
+	 * Digests the content of the entries with the given algorithm, e.g.
+	 * "SHA-256", using the given number of threads. Must be called before
+	 * the first entry is read.
+	 *
+	 * @param algorithm
+	 *            a {@link MessageDigest} algorithm, or null for no digests
+	 * @param parallelism
+	 */
+	public void setDigest(String algorithm, int parallelism) {
+		if (executor != null || end) {
+			throw new IllegalStateException("Entries have been read already");
+		}
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("At least one thread is required: " + parallelism);
+		}
+		if (algorithm != null) {
+			newDigest(algorithm);
+		}
+
+		this.algorithm = algorithm;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Returns the next entry of the archive, after its content has been
+	 * digested if digests are on
+	 *
+	 * @return the entry, or <code>null</code> at the end of the archive
+	 * @throws IOException
+	 *             if a header is corrupt, or reading content for a digest
+	 *             failed
+	 */
+	public Item getNextEntry() throws IOException {
+		if (algorithm == null) {
+			return scan() ? item(false) : null;
+		}
+
+		if (executor == null) {
+			executor = new BoundedExecutor(parallelism, parallelism * READ_AHEAD_PER_THREAD);
+		} else if (failed) {
+			// Tasks after a failed one are skipped, rethrow the failure
+			executor.drain();
+		}
+
+		while (pending.size() < parallelism * READ_AHEAD_PER_THREAD && scan()) {
+			final Item item = item(true);
+			executor.submit(new BoundedExecutor.IOTask() {
+				@Override
+				public void run() throws IOException {
+					item.digest = digest(item);
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					// Also when the digest is skipped after another one failed
+					item.digested.countDown();
+				}
+			});
+			pending.add(item);
+		}
+
+		Item item = pending.poll();
+		if (item == null) {
+			return null;
+		}
+
+		try {
+			item.digested.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a digest");
+		}
+		if (item.digest == null) {
+			// Rethrows the failure of this or an earlier digest
+			failed = true;
+			executor.drain();
+		}
+
+		return item;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (executor != null) {
+			executor.close();
+		}
+		channel.close();
+	}
+
+	private boolean scan() throws IOException {
+		if (!end && !scanner.next()) {
+			end = true;
+		}
+
+		return !end;
+	}
+
+	private Item item(boolean digest) {
+		return new Item(scanner.getHeader().toTarEntry(), scanner.getHeaderOffset(), scanner.getDataOffset(),
+				scanner.getSize(), digest);
+	}
+
+	private byte[] digest(Item item) throws IOException {
+		MessageDigest digest = newDigest(algorithm);
+		ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(item.size, 1)));
+		long position = item.dataOffset;
+		long end = item.dataOffset + item.size;
+
+		while (position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int res = channel.read(buffer, position);
+			if (res < 0) {
+				throw new IOException("Unexpected end of archive at offset " + position);
+			}
+			buffer.flip();
+			digest.update(buffer);
+			position += res;
+		}
+
+		return digest.digest();
+	}
+
+	private static MessageDigest newDigest(String algorithm) {
+		try {
+			return MessageDigest.getInstance(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalArgumentException("Unknown digest algorithm: " + algorithm, e);
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>An immutable name as it is stored in a tar header: the UTF-8 bytes of
+ * the name, without the NUL padding of the header field.</p>
+ *
+ * <p>Names are kept as bytes, so reading a header copies a field without
+ * decoding it, and writing one copies it back. Comparisons, prefix and
+ * suffix checks work on the bytes and the hash is computed once. A String is
+ * only created by {@link #toString()}, which for the usual ASCII names is a
+ * plain copy. Other names are decoded once, also for {@link #length()} and
+ * {@link #charAt(int)}.</p>
+ *
+ * <p>Names that repeat in every header of an archive, like owner names, can
+ * be shared with {@link #intern()}.</p>
+ */
+public final class TarName implements CharSequence, Comparable<TarName> {
+	private static final Charset UTF_8 = StandardCharsets.UTF_8;
+	private static final Charset ISO_8859_1 = StandardCharsets.ISO_8859_1;
+
+	private static final int MAX_INTERNED = 1024;
+	private static final ConcurrentMap<TarName, TarName> INTERNED = new ConcurrentHashMap<TarName, TarName>();
+
+	public static final TarName EMPTY = new TarName(new byte[0], true);
+
+	private final byte[] bytes;
+	private final boolean ascii;
+	private int hash;
+	// Decoded once, for the characters of a non-ASCII name
+	private String decoded;
+
+	private TarName(byte[] bytes, boolean ascii) {
+		this.bytes = bytes;
+		this.ascii = ascii;
+	}
+
+	/**
+	 * Returns the name for the given String
+	 *
+	 * @param name
+	 * @return
+	 */
+	public static TarName of(String name) {
+		int length = name.length();
+		if (length == 0) {
+			return EMPTY;
+		}
+
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			char c = name.charAt(i);
+			if (c >= 0x80) {
+				return new TarName(name.getBytes(UTF_8), false);
+			}
+			bytes[i] = (byte) c;
+		}
+
+		return new TarName(bytes, true);
+	}
+
+	/**
+	 * Reads a name from a header field, which ends at the first NUL or after
+	 * <code>length</code> bytes
+	 *
+	 * @param buf
+	 *            the header buffer
+	 * @param offset
+	 *            the start of the field
+	 * @param length
+	 *            the size of the field
+	 * @return
+	 */
+	public static TarName parse(byte[] buf, int offset, int length) {
+		int end = offset;
+		int limit = offset + length;
+		while (end < limit && buf[end] != 0) {
+			end++;
+		}
+
+		if (end == offset) {
+			return EMPTY;
+		}
+
+		byte[] bytes = Arrays.copyOfRange(buf, offset, end);
+		return new TarName(bytes, isAscii(bytes, 0, bytes.length));
+	}
+
+	/**
+	 * Returns <code>dir + "/" + name</code>, or <code>name</code> if
+	 * <code>dir</code> is empty, like a ustar prefix and name are joined
+	 *
+	 * @param dir
+	 * @param name
+	 * @return
+	 */
+	public static TarName join(TarName dir, TarName name) {
+		if (dir.bytes.length == 0) {
+			return name;
+		}
+
+		byte[] bytes = new byte[dir.bytes.length + 1 + name.bytes.length];
+		System.arraycopy(dir.bytes, 0, bytes, 0, dir.bytes.length);
+		bytes[dir.bytes.length] = '/';
+		System.arraycopy(name.bytes, 0, bytes, dir.bytes.length + 1, name.bytes.length);
+		return new TarName(bytes, dir.ascii && name.ascii);
+	}
+
+	/**
+	 * Returns a shared instance of an equal name. Only the first names
+	 * interned are kept, so interning names that do not repeat is harmless
+	 * but useless.
+	 *
+	 * @return
+	 */
+	public TarName intern() {
+		TarName interned = INTERNED.get(this);
+		if (interned != null) {
+			return interned;
+		}
+
+		if (INTERNED.size() < MAX_INTERNED) {
+			interned = INTERNED.putIfAbsent(this, this);
+		}
+
+		return interned != null ? interned : this;
+	}
+
+	/**
+	 * Writes the name into a header field and pads it with NULs. Names longer
+	 * than the field are cut off.
+	 *
+	 * @param buf
+	 * @param offset
+	 * @param length
+	 * @return the offset after the field
+	 */
+	public int writeTo(byte[] buf, int offset, int length) {
+		int n = Math.min(length, bytes.length);
+		System.arraycopy(bytes, 0, buf, offset, n);
+		Arrays.fill(buf, offset + n, offset + length, (byte) 0);
+
+		return offset + length;
+	}
+
+	/**
+	 * Returns the length of the UTF-8 encoded name
+	 *
+	 * @return
+	 */
+	public int byteLength() {
+		return bytes.length;
+	}
+
+	public byte byteAt(int index) {
+		return bytes[index];
+	}
+
+	public boolean isEmpty() {
+		return bytes.length == 0;
+	}
+
+	public boolean isAscii() {
+		return ascii;
+	}
+
+	public boolean startsWith(TarName prefix) {
+		return regionMatches(0, prefix);
+	}
+
+	public boolean endsWith(TarName suffix) {
+		return regionMatches(bytes.length - suffix.bytes.length, suffix);
+	}
+
+	/**
+	 * Checks the last character, which must be ASCII, e.g. '/'
+	 *
+	 * @param c
+	 * @return
+	 */
+	public boolean endsWith(char c) {
+		return bytes.length > 0 && bytes[bytes.length - 1] == c;
+	}
+
+	@Override
+	public int length() {
+		return ascii ? bytes.length : toString().length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return ascii ? (char) bytes[index] : toString().charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public int compareTo(TarName other) {
+		int n = Math.min(bytes.length, other.bytes.length);
+		for (int i = 0; i < n; i++) {
+			int diff = (bytes[i] & 0xFF) - (other.bytes[i] & 0xFF);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+
+		return bytes.length - other.bytes.length;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof TarName)) {
+			return false;
+		}
+
+		TarName other = (TarName) obj;
+		return bytes.length == other.bytes.length && hashCode() == other.hashCode()
+				&& Arrays.equals(bytes, other.bytes);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0 && bytes.length > 0) {
+			h = Arrays.hashCode(bytes);
+			hash = h;
+		}
+
+		return h;
+	}
+
+	@Override
+	public String toString() {
+		if (ascii) {
+			return new String(bytes, ISO_8859_1);
+		}
+
+		String s = decoded;
+		if (s == null) {
+			s = new String(bytes, UTF_8);
+			decoded = s;
+		}
+
+		return s;
+	}
+
+	/**
+	 * Decodes UTF-8 bytes, e.g. a header field that is only needed as a
+	 * String
+	 */
+	static String decode(byte[] buf, int offset, int length) {
+		return new String(buf, offset, length, isAscii(buf, offset, length) ? ISO_8859_1 : UTF_8);
+	}
+
+	static boolean isAscii(byte[] buf, int offset, int length) {
+		for (int i = offset, end = offset + length; i < end; i++) {
+			if (buf[i] < 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private boolean regionMatches(int offset, TarName other) {
+		if (offset < 0 || offset + other.bytes.length > bytes.length) {
+			return false;
+		}
+
+		for (int i = 0; i < other.bytes.length; i++) {
+			if (bytes[offset + i] != other.bytes[i]) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+}
@@ -19,30 +19,121 @@ package org.kamranzafar.jtar;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
+ * Writes a tar archive entry by entry.
+ * 
+ * Streams created with a blocking factor stage headers, content and padding
+ * in a record buffer and only ever write whole records to the underlying
+ * stream or channel, which suits tapes and sinks that handle small writes
+ * badly. The archive then ends with a full record as well.
+ * 
  * @author Kamran Zafar
  * 
  */
 public class TarOutputStream extends OutputStream {
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	private static final byte[] ZEROS = new byte[TarConstants.EOF_BLOCK];
+	private static final int DEDUPLICATED_FILES = 100000;
+
 	private final OutputStream out;
+	private WritableByteChannel channel;
+	private byte[] copyBuffer;
+	private final byte[] headerBuffer = new byte[TarConstants.HEADER_BLOCK];
+	private final TarHeaderEncoder headerEncoder = new TarHeaderEncoder();
+
+	// Record mode only
+	private byte[] record;
+	private int recordLength;
+	private ByteBuffer[] gather;
     private long bytesWritten;
     private long currentFileSize;
     private TarEntry currentEntry;
+    private File archiveFile;
+    private File indexFile;
+    private List<TarIndexEntry> indexEntries;
+    private boolean sparseFiles;
+    // "dev:ino" of files with several links, to the entry written for them
+    private Map<String, String> linkTargets;
+    private DuplicateFiles duplicates;
+    // The entry whose content is digested as it is written, for duplicates
+    private TarEntry original;
+    private MessageDigest originalDigest;
 
     public TarOutputStream(OutputStream out) {
         this.out = out;
+        if (out instanceof FileOutputStream) {
+            this.channel = ( (FileOutputStream) out ).getChannel();
+        }
+        bytesWritten = 0;
+        currentFileSize = 0;
+    }
+
+    /**
+     * Writes the archive to a channel. File contents written with
+     * {@link #writeFileEntry(TarEntry)} are transferred to the channel
+     * without copying them through the Java heap.
+     */
+    public TarOutputStream(WritableByteChannel channel) {
+        this.out = Channels.newOutputStream( channel );
+        this.channel = channel;
         bytesWritten = 0;
         currentFileSize = 0;
     }
 
+    /**
+     * Writes the archive in records of <code>blockingFactor</code> 512-byte
+     * blocks, e.g. 20 for the usual 10 KiB records or 8 to match a 4 KiB
+     * filesystem block.
+     * 
+     * @param out
+     * @param blockingFactor
+     */
+    public TarOutputStream(OutputStream out, int blockingFactor) {
+        this( out );
+        useRecords( blockingFactor );
+    }
+
+    /**
+     * Writes the archive to a channel in records of
+     * <code>blockingFactor</code> 512-byte blocks. Staged data and large
+     * writes are combined into one gathering write if the channel supports
+     * it.
+     * 
+     * @param channel
+     * @param blockingFactor
+     */
+    public TarOutputStream(WritableByteChannel channel, int blockingFactor) {
+        this( channel );
+        useRecords( blockingFactor );
+    }
+
 	public TarOutputStream(final File fout) throws FileNotFoundException {
-		this.out = new BufferedOutputStream(new FileOutputStream(fout));
+		FileOutputStream fos = new FileOutputStream(fout);
+		this.out = new BufferedOutputStream(fos);
+		this.channel = fos.getChannel();
+		this.archiveFile = fout;
 		bytesWritten = 0;
 		currentFileSize = 0;
 	}
@@ -57,9 +148,136 @@ public class TarOutputStream extends OutputStream {
 		if (append && fileSize > TarConstants.EOF_BLOCK) {
 			raf.seek(fileSize - TarConstants.EOF_BLOCK);
 		}
-		out = new BufferedOutputStream(new FileOutputStream(raf.getFD()));
+		FileOutputStream fos = new FileOutputStream(raf.getFD());
+		out = new BufferedOutputStream(fos);
+		channel = fos.getChannel();
+		archiveFile = fout;
+		// Offsets of appended entries are relative to the start of the file
+		bytesWritten = raf.getFilePointer();
+	}
+
+	/**
+	 * Writes an index of all entries to the given file when the stream is
+	 * closed, see {@link TarIndex}. Only available if the stream was opened
+	 * on a file, use {@link #setIndexFile(File, File)} otherwise.
+	 * 
+	 * @param indexFile
+	 * @throws IOException
+	 */
+	public void setIndexFile(File indexFile) throws IOException {
+		if (archiveFile == null) {
+			throw new IllegalStateException("The archive file is unknown, use setIndexFile(File, File)");
+		}
+
+		setIndexFile(indexFile, archiveFile);
+	}
+
+	/**
+	 * Writes an index of all entries to the given file when the stream is
+	 * closed, see {@link TarIndex}. The index is stamped with the length and
+	 * modification time of the archive file after closing, so the stream must
+	 * write to that file.
+	 * 
+	 * When appending to an archive, the index of the existing entries is
+	 * loaded from the index file or rebuilt from the archive.
+	 * 
+	 * @param indexFile
+	 * @param archiveFile
+	 * @throws IOException
+	 */
+	public void setIndexFile(File indexFile, File archiveFile) throws IOException {
+		if (currentEntry != null || indexEntries != null) {
+			throw new IllegalStateException("The index must be set up before the first entry is written");
+		}
+
+		this.indexFile = indexFile;
+		this.archiveFile = archiveFile;
+		this.indexEntries = new ArrayList<TarIndexEntry>();
+
+		if (bytesWritten > 0) {
+			TarIndex existing = null;
+			if (indexFile.isFile()) {
+				existing = TarIndex.read(indexFile);
+			}
+			if (existing == null || !existing.isValidFor(archiveFile)) {
+				existing = TarIndex.build(archiveFile);
+			}
+
+			for (TarIndexEntry entry : existing.getEntries()) {
+				if (entry.getEndOffset() <= bytesWritten) {
+					indexEntries.add(entry);
+				}
+			}
+		}
 	}
 
+    public boolean isSparseFiles() {
+        return sparseFiles;
+    }
+
+    /**
+     * Whether {@link #writeFileEntry(TarEntry)} looks for holes, i.e. blocks
+     * of zeros, in files and writes files that have some as sparse entries in
+     * the GNU 1.0 pax format. Only the data is stored, and extracting the
+     * entry recreates the holes instead of writing zeros.
+     * 
+     * Finding the holes reads the whole file once more, the JDK offers no
+     * way to ask the file system for them.
+     * 
+     * @param sparseFiles
+     */
+    public void setSparseFiles(boolean sparseFiles) {
+        this.sparseFiles = sparseFiles;
+    }
+
+    public boolean isHardLinks() {
+        return linkTargets != null;
+    }
+
+    /**
+     * Whether files with several hard links are stored once. The first entry
+     * written for such a file gets its content, later ones become hard link
+     * entries to the first, see {@link #putHardLinkEntry(TarEntry)}.
+     * 
+     * Links are found by the device and inode numbers of the files, which
+     * only file systems with the "unix" attribute view provide.
+     * 
+     * @param hardLinks
+     */
+    public void setHardLinks(boolean hardLinks) {
+        if (!hardLinks) {
+            linkTargets = null;
+        } else if (linkTargets == null) {
+            linkTargets = new HashMap<String, String>();
+        }
+    }
+
+    public boolean isDeduplicate() {
+        return duplicates != null;
+    }
+
+    /**
+     * Whether files with the same content as a file written earlier are
+     * stored as hard link entries to it, see
+     * {@link #putHardLinkEntry(TarEntry)}. Extracting such an archive creates
+     * hard links, so the extracted files share their content.
+     * 
+     * The content of files is hashed as it is written, so it is copied
+     * through a buffer rather than transferred between channels. Another
+     * file is read to hash it only if a file of the same size was written
+     * before. Up to 100000 files are remembered for the comparison.
+     * 
+     * @param deduplicate
+     */
+    public void setDeduplicate(boolean deduplicate) {
+        if (!deduplicate) {
+            duplicates = null;
+            original = null;
+        } else if (duplicates == null) {
+            duplicates = new DuplicateFiles( DEDUPLICATED_FILES );
+        }
+    }
+
     /**
      * Appends the EOF record and closes the stream
      * 
@@ -68,8 +286,20 @@ public class TarOutputStream extends OutputStream {
     @Override
     public void close() throws IOException {
         closeCurrentEntry();
-        write( new byte[TarConstants.EOF_BLOCK] );
+        write( ZEROS, 0, TarConstants.EOF_BLOCK );
+
+        if (record != null && recordLength > 0) {
+            // The last record is filled up with zeros
+            Arrays.fill( record, recordLength, record.length, (byte) 0 );
+            recordLength = record.length;
+            writeRecord();
+        }
+
         out.close();
+
+        if (indexFile != null) {
+            new TarIndex( indexEntries, archiveFile.length(), archiveFile.lastModified() ).write( indexFile );
+        }
     }
     /**
      * Writes a byte to the stream and updates byte counters
@@ -78,9 +308,20 @@ public class TarOutputStream extends OutputStream {
      */
     @Override
     public void write(int b) throws IOException {
-        out.write( b );
+        if (record != null) {
+            record[recordLength++] = (byte) b;
+            if (recordLength == record.length) {
+                writeRecord();
+            }
+        } else {
+            out.write( b );
+        }
         bytesWritten += 1;
 
+        if (isDigesting()) {
+            originalDigest.update( (byte) b );
+        }
+
         if (currentEntry != null) {
             currentFileSize += 1;
         }
@@ -101,32 +342,428 @@ public class TarOutputStream extends OutputStream {
             }
         }
 
-        out.write( b, off, len );
-        
+        if (record != null) {
+            writeRecords( b, off, len );
+        } else {
+            out.write( b, off, len );
+        }
+
         bytesWritten += len;
 
+        if (isDigesting()) {
+            originalDigest.update( b, off, len );
+        }
+
         if (currentEntry != null) {
             currentFileSize += len;
         }        
     }
 
     /**
-     * Writes the next tar entry header on the stream
+     * Writes the next tar entry header on the stream. Values the ustar header
+     * cannot hold, like names longer than 255 bytes or sizes of 8 GiB and
+     * more, are written to a POSIX pax header before it.
      * 
      * @param entry
      * @throws IOException
      */
     public void putNextEntry(TarEntry entry) throws IOException {
         closeCurrentEntry();
+        if (entry != original) {
+            original = null;
+        }
+
+        long headerOffset = bytesWritten;
 
-        byte[] header = new byte[TarConstants.HEADER_BLOCK];
-        entry.writeEntryHeader( header );
+        TarHeader header = entry.getHeader();
+        byte[] pax = PaxHeaders.forHeader( header );
+        if (pax != null) {
+            writePaxHeader( entry, pax );
+        }
 
-        write( header );
+        if (header.realSize >= 0) {
+            // Readers without sparse support extract the stored data under
+            // another name, like GNU tar names it
+            TarName name = header.name;
+            TarName prefix = header.namePrefix;
+            TarHeader alias = TarHeader.createHeader( sparseAlias( entry.getName() ), 0, 0, false );
+            header.name = alias.name;
+            header.namePrefix = alias.namePrefix;
+            try {
+                writeHeader( header );
+            } finally {
+                header.name = name;
+                header.namePrefix = prefix;
+            }
+        } else {
+            writeHeader( header );
+        }
+
+        if (indexEntries != null) {
+            indexEntries.add( new TarIndexEntry( entry.getName(), headerOffset, bytesWritten, entry.getSize(),
+                    entry.getHeader().linkFlag ) );
+        }
 
         currentEntry = entry;
     }
 
+    /**
+     * Encodes the header straight into the staged record in record mode,
+     * where entries end on block boundaries and leave room for it
+     */
+    private void writeHeader(TarHeader header) throws IOException {
+        if (record != null && record.length - recordLength >= TarConstants.HEADER_BLOCK) {
+            recordLength = headerEncoder.encode( header, record, recordLength );
+            bytesWritten += TarConstants.HEADER_BLOCK;
+            if (recordLength == record.length) {
+                writeRecord();
+            }
+        } else {
+            headerEncoder.encode( header, headerBuffer, 0 );
+            write( headerBuffer );
+        }
+    }
+
+    private static String sparseAlias(String name) {
+        int slash = name.lastIndexOf( '/' );
+        return name.substring( 0, slash + 1 ) + "GNUSparseFile.0/" + name.substring( slash + 1 );
+    }
+
+    /**
+     * Writes a pax header with the given records for the entry, named after
+     * it like other tar implementations do
+     */
+    private void writePaxHeader(TarEntry entry, byte[] records) throws IOException {
+        String name = entry.getName();
+        if (name.endsWith( "/" )) {
+            name = name.substring( 0, name.length() - 1 );
+        }
+        name = "PaxHeaders/" + name.substring( name.lastIndexOf( '/' ) + 1 );
+
+        TarHeader header = TarHeader.createHeader( name, records.length, entry.getHeader().modTime, false );
+        header.linkFlag = TarHeader.LF_PAX_EXTENDED;
+        // Keeps the pax header itself free of values that would need one
+        header.modTime = Math.max( 0, Math.min( header.modTime, PaxHeaders.MAX_OCTAL_LONG ) );
+        if (header.name.byteLength() > TarHeader.NAMELEN) {
+            header.name = TarName.of( "PaxHeaders/entry" );
+            header.namePrefix = TarName.EMPTY;
+        }
+
+        writeHeader( header );
+        write( records, 0, records.length );
+        pad();
+    }
+
+    /**
+     * Writes the entry as a hard link if hard links are stored once and its
+     * file is another link to a file that an earlier entry was written for,
+     * or if {@link #setDeduplicate(boolean)} is set and the file has the
+     * content of such a file. The entry then becomes a
+     * {@link TarHeader#LF_LINK} entry without content. Otherwise nothing is written and the caller writes the entry
+     * as usual.
+     * 
+     * {@link #writeFileEntry(TarEntry)} does this by itself.
+     * 
+     * @param entry
+     *            an entry created with {@link TarEntry#TarEntry(File, String)}
+     * @return whether a link entry was written
+     * @throws IOException
+     */
+    public boolean putHardLinkEntry(TarEntry entry) throws IOException {
+        File file = entry.getFile();
+        if (file == null || entry.isDirectory()) {
+            return false;
+        }
+
+        String target = linkTargets != null ? findLinkTarget( entry ) : null;
+        if (target == null && duplicates != null && entry.getSize() > 0) {
+            // Registers the previous file before this one is digested
+            closeCurrentEntry();
+            target = duplicates.find( file, entry.getSize() );
+            if (target == null && !duplicates.isFull()) {
+                // Remembered once its content is written
+                original = entry;
+                originalDigest = duplicates.startOriginal();
+            }
+        }
+        if (target == null) {
+            return false;
+        }
+
+        TarHeader header = entry.getHeader();
+        header.linkFlag = TarHeader.LF_LINK;
+        header.linkName = TarName.of( target );
+        header.size = 0;
+        putNextEntry( entry );
+        closeCurrentEntry();
+        return true;
+    }
+
+    /**
+     * Returns the name of the entry written for another link to the entry's
+     * file, or remembers the entry's name for the file and returns null
+     */
+    private String findLinkTarget(TarEntry entry) throws IOException {
+        Map<String, Object> attributes;
+        try {
+            attributes = Files.readAttributes( entry.getFile().toPath(), "unix:dev,ino,nlink", LinkOption.NOFOLLOW_LINKS );
+        } catch (UnsupportedOperationException e) {
+            // No inode numbers on this file system
+            return null;
+        }
+
+        if (( (Number) attributes.get( "nlink" ) ).intValue() < 2) {
+            return null;
+        }
+
+        String key = attributes.get( "dev" ) + ":" + attributes.get( "ino" );
+        String target = linkTargets.get( key );
+        if (target == null) {
+            linkTargets.put( key, entry.getName() );
+        }
+        return target;
+    }
+
+    /**
+     * Writes the header of a file based entry, the complete content of its file
+     * and the padding. Directory entries only get a header, files that are
+     * hard links to earlier entries are written as links if
+     * {@link #setHardLinks(boolean)} is set, and so are duplicates of earlier
+     * files if {@link #setDeduplicate(boolean)} is set.
+     * 
+     * If the archive is written to a file or channel, the content is
+     * transferred with {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+     * instead of being copied through a buffer.
+     * 
+     * @param entry
+     *            an entry created with {@link TarEntry#TarEntry(File, String)}
+     * @throws IOException
+     *             also if the file is shorter than the size recorded in the
+     *             entry, e.g. because it changed after the entry was created
+     */
+    public void writeFileEntry(TarEntry entry) throws IOException {
+        File file = entry.getFile();
+        if (file == null) {
+            throw new IllegalArgumentException( "The entry[" + entry.getName() + "] is not backed by a file." );
+        }
+
+        if (entry.isDirectory()) {
+            putNextEntry( entry );
+            closeCurrentEntry();
+            return;
+        }
+
+        if (putHardLinkEntry( entry )) {
+            return;
+        }
+
+        try (FileInputStream fis = new FileInputStream( file )) {
+            FileChannel in = fis.getChannel();
+            long[] segments = sparseFiles ? findData( in, entry.getSize() ) : null;
+
+            if (segments != null) {
+                writeSparse( entry, in, segments );
+            } else {
+                putNextEntry( entry );
+                transferFrom( in, 0, entry.getSize() );
+            }
+        }
+
+        closeCurrentEntry();
+    }
+
+    /**
+     * Writes the map of the data segments and the segments. The entry's
+     * size becomes the size of both, the size of the file its real size.
+     */
+    private void writeSparse(TarEntry entry, FileChannel in, long[] segments) throws IOException {
+        StringBuilder map = new StringBuilder();
+        map.append( segments.length / 2 ).append( '\n' );
+        long stored = 0;
+        for (int i = 0; i < segments.length; i += 2) {
+            map.append( segments[i] ).append( '\n' ).append( segments[i + 1] ).append( '\n' );
+            stored += segments[i + 1];
+        }
+        byte[] mapBytes = map.toString().getBytes( StandardCharsets.US_ASCII );
+
+        // Only the content of files without holes is digested
+        original = null;
+
+        TarHeader header = entry.getHeader();
+        header.realSize = header.size;
+        header.size = TarUtils.paddedSize( mapBytes.length ) + stored;
+
+        putNextEntry( entry );
+        write( mapBytes, 0, mapBytes.length );
+        pad();
+        for (int i = 0; i < segments.length; i += 2) {
+            transferFrom( in, segments[i], segments[i + 1] );
+        }
+    }
+
+    /**
+     * Finds the data in the first <code>size</code> bytes of a file, which
+     * is everything except whole blocks of zeros. Returns the offset and
+     * length of each segment of data, or <code>null</code> if the file has no
+     * holes. A file that ends with a hole gets an empty last segment at its
+     * end, as GNU tar writes it.
+     */
+    private long[] findData(FileChannel in, long size) throws IOException {
+        if (size == 0) {
+            return null;
+        }
+        if (copyBuffer == null) {
+            copyBuffer = new byte[COPY_BUFFER_SIZE];
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap( copyBuffer );
+        long[] segments = new long[16];
+        int count = 0;
+        long dataStart = -1;
+        long position = 0;
+
+        while (position < size) {
+            buffer.clear();
+            buffer.limit( (int) Math.min( buffer.capacity(), size - position ) );
+            while (buffer.hasRemaining()) {
+                if (in.read( buffer, position + buffer.position() ) < 0) {
+                    // Shorter than the entry, which writing reports
+                    return null;
+                }
+            }
+
+            for (int block = 0; block < buffer.limit(); block += TarConstants.DATA_BLOCK) {
+                int blockEnd = Math.min( buffer.limit(), block + TarConstants.DATA_BLOCK );
+                boolean zeros = isZeros( copyBuffer, block, blockEnd );
+                if (!zeros && dataStart < 0) {
+                    dataStart = position + block;
+                } else if (zeros && dataStart >= 0) {
+                    if (count == segments.length) {
+                        segments = Arrays.copyOf( segments, count * 2 );
+                    }
+                    segments[count++] = dataStart;
+                    segments[count++] = position + block - dataStart;
+                    dataStart = -1;
+                }
+            }
+
+            position += buffer.limit();
+        }
+
+        if (count + 2 > segments.length) {
+            segments = Arrays.copyOf( segments, count + 2 );
+        }
+        if (dataStart == 0) {
+            return null;
+        }
+        segments[count++] = dataStart >= 0 ? dataStart : size;
+        segments[count++] = dataStart >= 0 ? size - dataStart : 0;
+
+        return Arrays.copyOf( segments, count );
+    }
+
+    private static boolean isZeros(byte[] b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (b[i] != 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies up to <code>size</code> bytes from the given position of the
+     * channel into the current entry. Stops early if the channel has fewer
+     * bytes, which {@link #closeCurrentEntry()} then reports.
+     */
+    private void transferFrom(FileChannel in, long start, long size) throws IOException {
+        long end = start + size;
+
+        if (channel == null || isDigesting()) {
+            if (copyBuffer == null) {
+                copyBuffer = new byte[COPY_BUFFER_SIZE];
+            }
+
+            in.position( start );
+            InputStream is = Channels.newInputStream( in );
+            long left = size;
+            while (left > 0) {
+                int res = is.read( copyBuffer, 0, (int) Math.min( left, copyBuffer.length ) );
+                if (res < 0) {
+                    break;
+                }
+                write( copyBuffer, 0, res );
+                left -= res;
+            }
+            return;
+        }
+
+        long position = start;
+        if (record != null) {
+            // Complete the staged record, transfer whole records, stage the rest
+            position = readIntoRecord( in, position, end );
+            if (recordLength == record.length) {
+                writeRecord();
+
+                long wholeEnd = position + ( end - position ) / record.length * record.length;
+                position = transfer( in, position, wholeEnd );
+                if (position == wholeEnd) {
+                    position = readIntoRecord( in, position, end );
+                }
+            }
+        } else {
+            // Everything written so far must reach the channel first
+            out.flush();
+            position = transfer( in, position, end );
+        }
+
+        bytesWritten += position - start;
+        currentFileSize += position - start;
+    }
+
+    private long transfer(FileChannel in, long position, long end) throws IOException {
+        while (position < end) {
+            long res = in.transferTo( position, end - position, channel );
+            if (res <= 0) {
+                break;
+            }
+            position += res;
+        }
+
+        return position;
+    }
+
+    /**
+     * Reads from the channel into the free part of the record, up to
+     * <code>end</code>
+     * 
+     * @return the channel position after the data read
+     */
+    private long readIntoRecord(FileChannel in, long position, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap( record, recordLength,
+                (int) Math.min( record.length - recordLength, end - position ) );
+        while (buffer.hasRemaining()) {
+            int res = in.read( buffer, position );
+            if (res < 0) {
+                break;
+            }
+            position += res;
+        }
+        recordLength = buffer.position();
+
+        return position;
+    }
+
+    /**
+     * Only flushes the underlying stream. In record mode a partly filled
+     * record stays staged until it is full or the stream is closed.
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
     /**
      * Closes the current tar entry
      * 
@@ -139,6 +776,11 @@ public class TarOutputStream extends OutputStream {
                         + currentEntry.getSize() + "] has not been fully written." );
             }
 
+            if (isDigesting()) {
+                duplicates.addOriginal( original.getName(), original.getSize(), originalDigest.digest() );
+                original = null;
+            }
+
             currentEntry = null;
             currentFileSize = 0;
 
@@ -146,6 +788,10 @@ public class TarOutputStream extends OutputStream {
         }
     }
 
+    private boolean isDigesting() {
+        return original != null && currentEntry == original;
+    }
+
     /**
      * Pads the last content block
      * 
@@ -156,8 +802,58 @@ public class TarOutputStream extends OutputStream {
             int extra = (int) ( bytesWritten % TarConstants.DATA_BLOCK );
 
             if (extra > 0) {
-                write( new byte[TarConstants.DATA_BLOCK - extra] );
+                write( ZEROS, 0, TarConstants.DATA_BLOCK - extra );
             }
         }
     }
+
+    private void useRecords(int blockingFactor) {
+        if (blockingFactor < 1) {
+            throw new IllegalArgumentException( "Blocking factor must be positive: " + blockingFactor );
+        }
+
+        record = new byte[blockingFactor * TarConstants.DATA_BLOCK];
+        if (channel instanceof GatheringByteChannel) {
+            gather = new ByteBuffer[] { ByteBuffer.wrap( record ), null };
+        }
+    }
+
+    /**
+     * Stages data in the record and writes every record that is filled.
+     * Whole records of a large write are written straight from the caller's
+     * array, together with the staged data in one gathering write where the
+     * channel allows it.
+     */
+    private void writeRecords(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int whole = ( recordLength + len ) / record.length * record.length - recordLength;
+
+            if (recordLength > 0 && gather != null && whole >= record.length) {
+                gather[0].clear().limit( recordLength );
+                gather[1] = ByteBuffer.wrap( b, off, whole );
+                while (gather[1].hasRemaining()) {
+                    ( (GatheringByteChannel) channel ).write( gather );
+                }
+                gather[1] = null;
+                recordLength = 0;
+            } else if (recordLength == 0 && whole > 0) {
+                out.write( b, off, whole );
+            } else {
+                whole = Math.min( len, record.length - recordLength );
+                System.arraycopy( b, off, record, recordLength, whole );
+                recordLength += whole;
+                if (recordLength == record.length) {
+                    writeRecord();
+                }
+            }
+
+            off += whole;
+            len -= whole;
+        }
+    }
+
+    private void writeRecord() throws IOException {
+        out.write( record, 0, recordLength );
+        recordLength = 0;
+    }
 }
@@ -0,0 +1,376 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Extracts the entries of a {@link TarInputStream}. Unlike
+ * {@link TarFileExtractor}, the archive can only be read front to back, so
+ * contents must be read by the thread that parses the headers.
+ */
+class TarStreamExtractor {
+	static final int SMALL_FILE = 1024 * 1024;
+
+	static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File destFolder;
+	private final Set<File> createdDirs = new HashSet<File>();
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	// Hard links to entries the filter rejected, by name
+	private final Map<String, PendingLink> pendingLinks = new LinkedHashMap<String, PendingLink>();
+
+	/**
+	 * A hard link that gets the content of its target, which the filter
+	 * rejected, from a second pass over the archive
+	 */
+	private static final class PendingLink {
+		final File file;
+		final String target;
+		// Position of the link among the entries
+		final int index;
+		boolean found;
+
+		PendingLink(File file, String target, int index) {
+			this.file = file;
+			this.target = target;
+			this.index = index;
+		}
+	}
+
+	TarStreamExtractor(File destFolder) {
+		this.destFolder = destFolder;
+	}
+
+	/**
+	 * Extracts all entries on the calling thread
+	 *
+	 * @param tis
+	 * @throws IOException
+	 */
+	void extractAll(TarInputStream tis) throws IOException {
+		TarEntry entry;
+		while ((entry = tis.getNextEntry()) != null) {
+			File target = prepare(entry);
+			if (target != null) {
+				copy(tis, entry, target);
+			}
+		}
+	}
+
+	/**
+	 * Extracts the entries the filter accepts on the calling thread. The
+	 * content of the other entries is skipped with the underlying stream's
+	 * skip where it has one.
+	 *
+	 * Hard links to entries the filter rejected are not created but left to
+	 * {@link #extractLinkTargets(TarInputStream)}, see
+	 * {@link #getPendingLinks()}. Once the filter is complete, the rest of
+	 * the archive is not read.
+	 *
+	 * @param tis
+	 * @param filter
+	 * @throws IOException
+	 */
+	void extractAll(TarInputStream tis, EntryFilter filter) throws IOException {
+		Set<String> extracted = new HashSet<String>();
+		filter = filter.start();
+		tis.setDefaultSkip(true);
+
+		TarHeaderView header;
+		for (int index = 0; !filter.isComplete() && (header = tis.getNextHeader()) != null; index++) {
+			if (!filter.accept(header)) {
+				continue;
+			}
+
+			TarEntry entry = header.toTarEntry();
+			File target = prepare(entry);
+			pendingLinks.remove(entry.getName());
+			if (target == null) {
+				continue;
+			}
+
+			if (entry.isHardLink() && !extracted.contains(entry.getLinkName())) {
+				pendingLinks.put(entry.getName(), new PendingLink(target, entry.getLinkName(), index));
+			} else {
+				copy(tis, entry, target);
+				extracted.add(entry.getName());
+			}
+		}
+	}
+
+	/**
+	 * The names of the hard links whose target the filter rejected
+	 */
+	Set<String> getPendingLinks() {
+		return pendingLinks.keySet();
+	}
+
+	/**
+	 * Reads the archive once more and writes the content of the targets of
+	 * the pending links under the links' names, from the last entry of the
+	 * target's name before each link. Several links to the same target are
+	 * linked to the first of them.
+	 *
+	 * @param tis
+	 *            the same archive as before, from its start
+	 * @throws IOException
+	 *             also if a link has no target before it
+	 */
+	void extractLinkTargets(TarInputStream tis) throws IOException {
+		Map<String, List<PendingLink>> byTarget = new HashMap<String, List<PendingLink>>();
+		int last = 0;
+		for (PendingLink link : pendingLinks.values()) {
+			List<PendingLink> links = byTarget.get(link.target);
+			if (links == null) {
+				links = new ArrayList<PendingLink>(1);
+				byTarget.put(link.target, links);
+			}
+			links.add(link);
+			last = Math.max(last, link.index);
+		}
+		tis.setDefaultSkip(true);
+
+		TarHeaderView header;
+		for (int index = 0; index < last && (header = tis.getNextHeader()) != null; index++) {
+			List<PendingLink> links = byTarget.get(header.getName());
+			if (links == null || header.isDirectory() || header.getLinkFlag() == TarHeader.LF_LINK) {
+				continue;
+			}
+
+			TarEntry entry = header.toTarEntry();
+			File first = null;
+			for (PendingLink link : links) {
+				if (link.index <= index) {
+					continue;
+				}
+				if (first == null) {
+					copy(tis, entry, link.file);
+					first = link.file;
+				} else {
+					createLink(link.file, first);
+				}
+				link.found = true;
+			}
+		}
+
+		for (Map.Entry<String, PendingLink> link : pendingLinks.entrySet()) {
+			if (!link.getValue().found) {
+				throw new IOException("Cannot link " + link.getKey() + " to " + link.getValue().target
+						+ ", there is no such entry before it");
+			}
+		}
+		pendingLinks.clear();
+	}
+
+	/**
+	 * Extracts all entries with the given number of writer threads. The
+	 * calling thread parses the headers, creates the directories and reads
+	 * the contents of files up to {@link #SMALL_FILE} bytes into memory,
+	 * which the writers then write to disk. Larger files are written by the
+	 * calling thread.
+	 *
+	 * At most <code>parallelism * 4</code> files are read but not yet
+	 * written, so memory use is bounded.
+	 *
+	 * @param tis
+	 * @param parallelism
+	 * @throws IOException
+	 */
+	void extractAll(TarInputStream tis, int parallelism) throws IOException {
+		if (parallelism <= 1) {
+			extractAll(tis);
+			return;
+		}
+
+		Set<File> written = new HashSet<File>();
+		BoundedExecutor executor = new BoundedExecutor(parallelism, parallelism * 4);
+		try {
+			TarEntry entry;
+			while ((entry = tis.getNextEntry()) != null) {
+				final File target = prepare(entry);
+				if (target == null) {
+					continue;
+				}
+
+				// A later entry with the same name must overwrite the earlier one,
+				// and the file a link points to must have been written
+				if (!written.add(target) || entry.isHardLink()) {
+					executor.drain();
+				}
+
+				if (entry.getSize() > SMALL_FILE || entry.isSparse() || entry.isHardLink()) {
+					copy(tis, entry, target);
+					continue;
+				}
+
+				final byte[] data = new byte[(int) entry.getSize()];
+				final int length = readFully(tis, data);
+				executor.submit(new BoundedExecutor.IOTask() {
+					@Override
+					public void run() throws IOException {
+						deleteExisting(target);
+						try (FileOutputStream fos = new FileOutputStream(target)) {
+							fos.write(data, 0, length);
+						}
+					}
+				});
+			}
+
+			executor.await();
+		} finally {
+			executor.close();
+		}
+	}
+
+	/**
+	 * Creates the directories needed for the entry. Returns the file to
+	 * write the content to, or <code>null</code> if there is nothing to write.
+	 */
+	private File prepare(TarEntry entry) {
+		File target = new File(destFolder, entry.getName());
+
+		if (entry.isDirectory()) {
+			mkdirs(target);
+			return null;
+		}
+
+		mkdirs(target.getParentFile());
+		return target;
+	}
+
+	private void mkdirs(File dir) {
+		if (dir != null && createdDirs.add(dir)) {
+			dir.mkdirs();
+		}
+	}
+
+	private void copy(TarInputStream tis, TarEntry entry, File target) throws IOException {
+		if (entry.isHardLink()) {
+			createLink(target, linkTarget(destFolder, entry.getLinkName()));
+			return;
+		}
+
+		if (entry.isSparse()) {
+			copySparse(tis, target, buffer);
+			return;
+		}
+
+		deleteExisting(target);
+		try (FileOutputStream fos = new FileOutputStream(target)) {
+			int count;
+			while ((count = tis.read(buffer)) != -1) {
+				fos.write(buffer, 0, count);
+			}
+		}
+	}
+
+	/**
+	 * Writes the current entry of a sparse file. Holes are skipped in the
+	 * target file instead of being written, so the file system leaves them
+	 * unallocated.
+	 */
+	static void copySparse(TarInputStream tis, File target, byte[] buffer) throws IOException {
+		deleteExisting(target);
+		try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+			FileChannel out = file.getChannel();
+			long position = 0;
+			while (true) {
+				long hole = tis.holeLength();
+				if (hole > 0) {
+					position += tis.skip(hole);
+					continue;
+				}
+
+				int count = tis.read(buffer);
+				if (count == -1) {
+					break;
+				}
+
+				ByteBuffer src = ByteBuffer.wrap(buffer, 0, count);
+				while (src.hasRemaining()) {
+					position += out.write(src, position);
+				}
+			}
+
+			// A hole at the end only exists once the length is set
+			file.setLength(position);
+		}
+	}
+
+	/**
+	 * Deletes the file a regular file is about to replace, like GNU tar
+	 * does. Writing into it instead would also change every file it is a
+	 * hard link to, e.g. one extracted from an earlier link entry.
+	 */
+	static void deleteExisting(File target) throws IOException {
+		Files.deleteIfExists(target.toPath());
+	}
+
+	/**
+	 * Resolves the target of a hard link entry in the destination folder
+	 *
+	 * @throws IOException
+	 *             if the target is outside the folder, e.g. "../file"
+	 */
+	static File linkTarget(File destFolder, String linkName) throws IOException {
+		File target = new File(destFolder, linkName);
+		String folder = destFolder.getCanonicalPath();
+		if (!target.getCanonicalPath().startsWith(folder.endsWith(File.separator) ? folder : folder + File.separator)) {
+			throw new IOException("Hard link target outside the destination folder: " + linkName);
+		}
+		return target;
+	}
+
+	/**
+	 * Creates a hard link, or a copy where the file system has no hard links
+	 * or the target is on another one
+	 */
+	static void createLink(File link, File target) throws IOException {
+		Files.deleteIfExists(link.toPath());
+		try {
+			Files.createLink(link.toPath(), target.toPath());
+		} catch (UnsupportedOperationException | FileSystemException e) {
+			if (!target.isFile()) {
+				throw new IOException("Cannot link " + link + " to " + target, e);
+			}
+			Files.copy(target.toPath(), link.toPath());
+		}
+	}
+
+	private static int readFully(TarInputStream tis, byte[] data) throws IOException {
+		int length = 0;
+		int res;
+		while (length < data.length && (res = tis.read(data, length, data.length - length)) != -1) {
+			length += res;
+		}
+		return length;
+	}
+}
@@ -18,12 +18,15 @@
 package org.kamranzafar.jtar;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 /**
  * @author Kamran
  * 
  */
 public class TarUtils {
+	private static final long EVEN_BYTES = 0x00FF00FF00FF00FFL;
+
 	/**
 	 * Determines the tar file size of the given folder/file path
 	 * 
@@ -73,6 +76,64 @@ public class TarUtils {
 		return size;
 	}
 
+	/**
+	 * Rounds the given content size up to the next full data block
+	 *
+	 * @param size
+	 * @return
+	 */
+	public static long paddedSize(long size) {
+		long extra = size % TarConstants.DATA_BLOCK;
+
+		if (extra > 0) {
+			return size + (TarConstants.DATA_BLOCK - extra);
+		}
+
+		return size;
+	}
+
+	/**
+	 * Checks if the given block consists of zeros only, which is how the end
+	 * of an archive is marked
+	 *
+	 * @param block
+	 * @return
+	 */
+	public static boolean isZeroBlock(byte[] block) {
+		for (byte b : block) {
+			if (b != 0) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Sums the bytes of a header block as unsigned values, which is the
+	 * header's checksum if its checksum field holds spaces.
+	 * 
+	 * Adds 8 bytes at a time: the even and the odd bytes of each long are
+	 * added into four 16 bit lanes, which the 64 longs of a block cannot
+	 * overflow, and the lanes are added up at the end.
+	 *
+	 * @param block
+	 * @param offset
+	 *            where the header starts in the block
+	 * @return
+	 */
+	public static long checkSum(byte[] block, int offset) {
+		// The byte order does not change the sum
+		ByteBuffer words = ByteBuffer.wrap(block);
+		long lanes = 0;
+		for (int i = offset, end = offset + TarConstants.HEADER_BLOCK; i < end; i += 8) {
+			long word = words.getLong(i);
+			lanes += (word & EVEN_BYTES) + ((word >>> 8) & EVEN_BYTES);
+		}
+
+		return (lanes & 0xFFFF) + ((lanes >>> 16) & 0xFFFF) + ((lanes >>> 32) & 0xFFFF) + (lanes >>> 48);
+	}
+
 	public static String trim(String s, char c) {
 		StringBuffer tmp = new StringBuffer(s);
 		for (int i = 0; i < tmp.length(); i++) {
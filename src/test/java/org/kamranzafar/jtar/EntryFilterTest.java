@@ -0,0 +1,173 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class EntryFilterTest {
+	private File dir;
+	private File tar;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("filter").toFile();
+		tar = new File(dir, "bundle.tar");
+
+		TarOutputStream out = new TarOutputStream(tar);
+		for (String name : new String[] { "config/app.conf", "config/sub/log.conf", "lib/libfoo.so", "lib/x/libbar.so",
+				"README", "data/big.bin" }) {
+			byte[] content = name.getBytes(StandardCharsets.UTF_8);
+			out.putNextEntry(new TarEntry(TarHeader.createHeader(name, content.length, 0, false)));
+			out.write(content);
+		}
+		out.close();
+	}
+
+	@Test
+	public void globs() {
+		assertTrue(matches("config/**", "config/app.conf"));
+		assertTrue(matches("config/**", "config/sub/log.conf"));
+		assertFalse(matches("config/**", "configs/app.conf"));
+		assertTrue(matches("config/*", "config/app.conf"));
+		assertFalse(matches("config/*", "config/sub/log.conf"));
+		assertTrue(matches("*.so", "lib/x/libbar.so"));
+		assertTrue(matches("*.so", "libfoo.so"));
+		assertFalse(matches("*.so", "lib/libfoo.so.1"));
+		assertTrue(matches("lib/**/*.so", "lib/libfoo.so"));
+		assertTrue(matches("lib/**/*.so", "lib/x/y/libbar.so"));
+		assertTrue(matches("lib/lib???.so", "lib/libfoo.so"));
+		assertFalse(matches("lib/?ibfoo.so", "/libfoo.so"));
+		assertTrue(matches("config/sub", "config/sub/"));
+		assertTrue(matches("däta/*", "däta/x"));
+
+		// Names in the ustar prefix
+		String deep = "a/very/long/directory/name/that/does/not/fit/into/the/name/field/of/a/tar/header/alone/"
+				+ "so/it/needs/the/ustar/prefix/file.txt";
+		assertTrue(matches("a/very/**/file.txt", deep));
+		assertTrue(matches("*.txt", deep));
+		assertFalse(matches("a/*/file.txt", deep));
+	}
+
+	@Test(timeout = 10000)
+	public void pathologicalGlobsMatchInLinearTime() {
+		StringBuilder name = new StringBuilder();
+		for (int i = 0; i < 27; i++) {
+			name.append("aaaaaaaa/");
+		}
+		name.append("aaaaaaaa");
+
+		StringBuilder glob = new StringBuilder("*/");
+		for (int i = 0; i < 12; i++) {
+			glob.append("**a");
+		}
+		assertFalse(matches(glob + "**b", name.toString()));
+		assertTrue(matches(glob + "**a", name.toString()));
+		assertFalse(matches("*a*a*a*a*a*a*a*a*a*a*a*a*b", name.toString()));
+	}
+
+	@Test
+	public void extractsSelectedEntries() throws IOException {
+		File fromFile = new File(dir, "file");
+		new JTar().unpackTar(tar, fromFile, 2, EntryFilter.glob("*.so"));
+		assertEquals("lib/libfoo.so", read(new File(fromFile, "lib/libfoo.so")));
+		assertEquals("lib/x/libbar.so", read(new File(fromFile, "lib/x/libbar.so")));
+		assertFalse(new File(fromFile, "config").exists());
+		assertFalse(new File(fromFile, "README").exists());
+
+		File fromStream = new File(dir, "stream");
+		new JTar().unpackTarFromStream(new FileInputStream(tar), fromStream.getPath(), EntryFilter.prefix("config/"));
+		assertEquals("config/app.conf", read(new File(fromStream, "config/app.conf")));
+		assertEquals("config/sub/log.conf", read(new File(fromStream, "config/sub/log.conf")));
+		assertFalse(new File(fromStream, "lib").exists());
+	}
+
+	@Test
+	public void lastEntryOfANameWins() throws IOException {
+		TarOutputStream out = new TarOutputStream(tar, true);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("README", 3, 0, false)));
+		out.write("new".getBytes(StandardCharsets.UTF_8));
+		out.close();
+
+		EntryFilter filter = EntryFilter.names("README", "config/app.conf");
+		File fromFile = new File(dir, "file");
+		new JTar().unpackTar(tar, fromFile, filter);
+		assertEquals("new", read(new File(fromFile, "README")));
+		assertEquals("config/app.conf", read(new File(fromFile, "config/app.conf")));
+		assertFalse(new File(fromFile, "lib").exists());
+
+		File fromStream = new File(dir, "stream");
+		new JTar().unpackTarFromStream(new FileInputStream(tar), fromStream.getPath(), filter);
+		assertEquals("new", read(new File(fromStream, "README")));
+	}
+
+	@Test
+	public void firstOccurrenceStopsOnceAllNamesAreFound() throws IOException {
+		TarOutputStream out = new TarOutputStream(tar, true);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("README", 3, 0, false)));
+		out.write("new".getBytes(StandardCharsets.UTF_8));
+		out.close();
+		// Whatever follows the wanted entries is never read
+		try (RandomAccessFile file = new RandomAccessFile(tar, "rw")) {
+			file.seek(5 * 2 * TarConstants.HEADER_BLOCK + 10);
+			file.write('x');
+		}
+
+		EntryFilter filter = EntryFilter.firstOccurrence("README", "config/app.conf");
+		File fromFile = new File(dir, "file");
+		new JTar().unpackTar(tar, fromFile, filter);
+		assertEquals("README", read(new File(fromFile, "README")));
+		assertEquals("config/app.conf", read(new File(fromFile, "config/app.conf")));
+		assertFalse(new File(fromFile, "lib").exists());
+
+		// The filter can be used again
+		File fromStream = new File(dir, "stream");
+		new JTar().unpackTarFromStream(new FileInputStream(tar), fromStream.getPath(), filter);
+		assertEquals("README", read(new File(fromStream, "README")));
+		assertEquals("config/app.conf", read(new File(fromStream, "config/app.conf")));
+
+		try {
+			new JTar().unpackTar(tar, new File(dir, "all"), EntryFilter.names("README"));
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+		}
+	}
+
+	private static boolean matches(String glob, String name) {
+		byte[] block = new byte[TarConstants.HEADER_BLOCK];
+		boolean dir = name.endsWith("/");
+		new TarEntry(TarHeader.createHeader(dir ? name.substring(0, name.length() - 1) : name, 0, 0, dir))
+				.writeEntryHeader(block);
+		return EntryFilter.glob(glob).accept(new TarHeaderView(block));
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,297 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HardLinksTest {
+	private File dir;
+	private File source;
+	private byte[] content;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("links").toFile();
+		source = new File(dir, "source");
+		new File(source, "a").mkdirs();
+		new File(source, "b").mkdirs();
+		content = new byte[10000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		Files.write(new File(source, "a/data").toPath(), content);
+		Files.createLink(new File(source, "b/data").toPath(), new File(source, "a/data").toPath());
+		Files.write(new File(source, "b/other").toPath(), content);
+	}
+
+	@Test
+	public void storesLinkedFilesOnce() throws IOException {
+		File tar = new File(dir, "links.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.setHardLinks(true);
+		out.writeFileEntry(new TarEntry(new File(source, "a/data"), "a/data"));
+		out.writeFileEntry(new TarEntry(new File(source, "b/data"), "b/data"));
+		out.writeFileEntry(new TarEntry(new File(source, "b/other"), "b/other"));
+		out.close();
+
+		try (TarInputStream in = new TarInputStream(new FileInputStream(tar))) {
+			TarEntry entry = in.getNextEntry();
+			assertFalse(entry.isHardLink());
+			assertEquals(content.length, entry.getSize());
+
+			entry = in.getNextEntry();
+			assertEquals("b/data", entry.getName());
+			assertTrue(entry.isHardLink());
+			assertEquals("a/data", entry.getLinkName());
+			assertEquals(0, entry.getSize());
+
+			entry = in.getNextEntry();
+			assertFalse(entry.isHardLink());
+			assertEquals(content.length, entry.getSize());
+			assertNull(in.getNextEntry());
+		}
+	}
+
+	@Test
+	public void extractsLinks() throws IOException {
+		File tar = new File(dir, "links.tar");
+		JTar jtar = new JTar();
+		jtar.setHardLinks(true);
+		jtar.packTar(source, tar, 2);
+
+		File fromFile = new File(dir, "file");
+		jtar.unpackTar(tar, fromFile, 2);
+		assertLinked(fromFile);
+
+		File fromStream = new File(dir, "stream");
+		jtar.unpackTarFromStream(new FileInputStream(tar), fromStream.getPath());
+		assertLinked(fromStream);
+
+		try (TarFile tarFile = new TarFile(tar)) {
+			assertTrue(tarFile.getEntry("source/b/data").isHardLink());
+		}
+	}
+
+	@Test
+	public void rejectsLinksOutOfTheDestination() throws IOException {
+		File secret = new File(dir, "secret.txt");
+		Files.write(secret.toPath(), content);
+
+		File tar = new File(dir, "escape.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.putNextEntry(new TarEntry(linkHeader("leak", "../secret.txt")));
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("leak", 5, 0, false)));
+		out.write("PWNED".getBytes("US-ASCII"));
+		out.close();
+
+		File target = new File(dir, "out");
+		try {
+			new JTar().unpackTarFromStream(new FileInputStream(tar), target.getPath());
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("../secret.txt"));
+		}
+		assertArrayEquals(content, Files.readAllBytes(secret.toPath()));
+	}
+
+	@Test
+	public void regularFilesReplaceLinks() throws IOException {
+		File tar = new File(dir, "replace.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("data", 3, 0, false)));
+		out.write(new byte[] { 1, 2, 3 });
+		out.putNextEntry(new TarEntry(linkHeader("copy", "data")));
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("copy", 2, 0, false)));
+		out.write(new byte[] { 4, 5 });
+		out.close();
+
+		File fromStream = new File(dir, "stream");
+		new JTar().unpackTarFromStream(new FileInputStream(tar), fromStream.getPath());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(new File(fromStream, "data").toPath()));
+		assertArrayEquals(new byte[] { 4, 5 }, Files.readAllBytes(new File(fromStream, "copy").toPath()));
+
+		// Files left from an earlier extraction are replaced as well
+		Files.delete(new File(fromStream, "copy").toPath());
+		Files.createLink(new File(fromStream, "copy").toPath(), new File(fromStream, "data").toPath());
+		new JTar().unpackTar(tar, fromStream);
+		assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(new File(fromStream, "data").toPath()));
+		assertArrayEquals(new byte[] { 4, 5 }, Files.readAllBytes(new File(fromStream, "copy").toPath()));
+	}
+
+	@Test
+	public void linksAreOptIn() throws IOException {
+		File tar = new File(dir, "plain.tar");
+		new JTar().packTar(source, tar);
+
+		try (TarFile tarFile = new TarFile(tar)) {
+			for (TarIndexEntry entry : tarFile.getEntries()) {
+				assertFalse(entry.isHardLink());
+			}
+		}
+	}
+
+	@Test
+	public void deduplicatesFilesWithTheSameContent() throws IOException {
+		byte[] changed = content.clone();
+		changed[5000]++;
+		Files.write(new File(source, "b/changed").toPath(), changed);
+
+		File tar = new File(dir, "dedup.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.setDeduplicate(true);
+		out.writeFileEntry(new TarEntry(new File(source, "b/other"), "b/other"));
+		out.writeFileEntry(new TarEntry(new File(source, "b/changed"), "b/changed"));
+		out.writeFileEntry(new TarEntry(new File(source, "a/data"), "a/data"));
+		out.close();
+
+		try (TarInputStream in = new TarInputStream(new FileInputStream(tar))) {
+			assertFalse(in.getNextEntry().isHardLink());
+			assertFalse(in.getNextEntry().isHardLink());
+			TarEntry entry = in.getNextEntry();
+			assertEquals("a/data", entry.getName());
+			assertTrue(entry.isHardLink());
+			assertEquals("b/other", entry.getLinkName());
+			assertNull(in.getNextEntry());
+		}
+
+		File target = new File(dir, "dedup");
+		new JTar().unpackTar(tar, target);
+		assertArrayEquals(content, Files.readAllBytes(new File(target, "a/data").toPath()));
+		assertArrayEquals(changed, Files.readAllBytes(new File(target, "b/changed").toPath()));
+	}
+
+	@Test
+	public void deduplicatesByTheStoredContent() throws IOException {
+		byte[] changed = content.clone();
+		changed[5000]++;
+		Files.write(new File(source, "b/changed").toPath(), changed);
+
+		File tar = new File(dir, "dedup.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.setDeduplicate(true);
+		out.writeFileEntry(new TarEntry(new File(source, "b/other"), "b/other"));
+		// Changes after the file was stored must not count
+		Files.write(new File(source, "b/other").toPath(), changed);
+		out.writeFileEntry(new TarEntry(new File(source, "b/changed"), "b/changed"));
+		out.writeFileEntry(new TarEntry(new File(source, "a/data"), "a/data"));
+		out.close();
+
+		try (TarInputStream in = new TarInputStream(new FileInputStream(tar))) {
+			assertFalse(in.getNextEntry().isHardLink());
+			assertFalse(in.getNextEntry().isHardLink());
+			TarEntry entry = in.getNextEntry();
+			assertTrue(entry.isHardLink());
+			assertEquals("b/other", entry.getLinkName());
+		}
+
+		File target = new File(dir, "dedup");
+		new JTar().unpackTar(tar, target);
+		assertArrayEquals(content, Files.readAllBytes(new File(target, "b/other").toPath()));
+		assertArrayEquals(changed, Files.readAllBytes(new File(target, "b/changed").toPath()));
+		assertArrayEquals(content, Files.readAllBytes(new File(target, "a/data").toPath()));
+	}
+
+	@Test
+	public void packsDeduplicated() throws IOException {
+		File tar = new File(dir, "dedup.tar");
+		JTar jtar = new JTar();
+		jtar.setDeduplicate(true);
+		jtar.packTar(source, tar, 2);
+
+		int links = 0;
+		try (TarFile tarFile = new TarFile(tar)) {
+			for (TarIndexEntry entry : tarFile.getEntries()) {
+				if (entry.isHardLink()) {
+					links++;
+				}
+			}
+		}
+		assertEquals(2, links);
+
+		File target = new File(dir, "unpacked");
+		jtar.unpackTar(tar, target, 2);
+		assertArrayEquals(content, Files.readAllBytes(new File(target, "source/b/other").toPath()));
+		assertArrayEquals(content, Files.readAllBytes(new File(target, "source/b/data").toPath()));
+	}
+
+	@Test
+	public void extractsLinksToFilteredTargets() throws IOException {
+		File tar = new File(dir, "filtered.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("a/lib.so", 3, 0, false)));
+		out.write(new byte[] { 1, 2, 3 });
+		out.putNextEntry(new TarEntry(linkHeader("b/lib.so", "a/lib.so")));
+		out.putNextEntry(new TarEntry(linkHeader("b/lib2.so", "a/lib.so")));
+		// Content after the links does not belong to them
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("a/lib.so", 2, 0, false)));
+		out.write(new byte[] { 4, 5 });
+		out.close();
+		File tarGz = new File(dir, "filtered.tar.gz");
+		OutputStream gz = new GZIPOutputStream(new FileOutputStream(tarGz));
+		gz.write(Files.readAllBytes(tar.toPath()));
+		gz.close();
+
+		EntryFilter filter = EntryFilter.glob("b/*");
+		File fromFile = new File(dir, "file");
+		new JTar().unpackTar(tar, fromFile, filter);
+		File fromGz = new File(dir, "gz");
+		new JTar().unpackTarGz(tarGz, fromGz, filter);
+		for (File root : new File[] { fromFile, fromGz }) {
+			assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(new File(root, "b/lib.so").toPath()));
+			assertArrayEquals(new byte[] { 1, 2, 3 }, Files.readAllBytes(new File(root, "b/lib2.so").toPath()));
+			assertFalse(new File(root, "a").exists());
+		}
+
+		try {
+			new JTar().unpackTarFromStream(new FileInputStream(tar), new File(dir, "stream").getPath(), filter);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("b/lib.so"));
+		}
+	}
+
+	private static TarHeader linkHeader(String name, String linkName) {
+		TarHeader header = TarHeader.createHeader(name, 0, 0, false);
+		header.linkFlag = TarHeader.LF_LINK;
+		header.linkName = TarName.of(linkName);
+		return header;
+	}
+
+	private void assertLinked(File root) throws IOException {
+		File first = new File(root, "source/a/data");
+		File second = new File(root, "source/b/data");
+		assertArrayEquals(content, Files.readAllBytes(first.toPath()));
+		assertArrayEquals(content, Files.readAllBytes(second.toPath()));
+		assertArrayEquals(content, Files.readAllBytes(new File(root, "source/b/other").toPath()));
+		assertEquals(Files.getAttribute(first.toPath(), "unix:ino"), Files.getAttribute(second.toPath(), "unix:ino"));
+	}
+}
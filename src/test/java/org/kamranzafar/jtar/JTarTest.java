@@ -24,6 +24,8 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
 
 import static org.junit.Assert.*;
 
@@ -89,6 +91,201 @@ public class JTarTest {
 				containsExactlyFiles("one", "two", "four", "five", "six"));
 	}
 
+	@Test
+	public void givenDir_whenUnpackingTarInParallel_shouldProduceTarContents()
+			throws IOException {
+		new JTar().unpackTar(new File(PATH_TO_TEST_TAR), targetDir, 4);
+		assertThat(new File(targetDir, "tartest"),
+				containsExactlyFiles("one", "two", "four", "five", "six"));
+		assertEquals(CONTENT1,
+				TestUtils.readFile(new File(targetDir, "tartest/one")));
+	}
+
+	@Test
+	public void givenManyNestedFiles_whenUnpackingInParallel_shouldMatchSequentialUnpack()
+			throws IOException {
+		File tar = new File(sourceDir, "many.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		for (int i = 0; i < 200; i++) {
+			byte[] content = ("content of file " + i).getBytes("UTF-8");
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("d" + (i % 7)
+					+ "/sub" + (i % 3) + "/f" + i, content.length, 0, false)));
+			out.write(content);
+		}
+		out.close();
+
+		new JTar().unpackTar(tar, targetDir, 8);
+
+		for (int i = 0; i < 200; i++) {
+			assertEquals("content of file " + i, TestUtils.readFile(new File(
+					targetDir, "d" + (i % 7) + "/sub" + (i % 3) + "/f" + i)));
+		}
+	}
+
+	@Test
+	public void givenDir_whenUnpackingTarAsync_shouldProduceTarContents()
+			throws Exception {
+		new JTar().unpackTarAsync(new File(PATH_TO_TEST_TAR), targetDir).get();
+		assertThat(new File(targetDir, "tartest"),
+				containsExactlyFiles("one", "two", "four", "five", "six"));
+		assertEquals(CONTENT1,
+				TestUtils.readFile(new File(targetDir, "tartest/one")));
+	}
+
+	@Test
+	public void givenSmallLimits_whenUnpackingAsync_shouldMatchSequentialUnpack()
+			throws Exception {
+		File tar = new File(sourceDir, "many.tar");
+		byte[] large = new byte[3 * 1024 * 1024 + 100];
+		new Random(1).nextBytes(large);
+		TarOutputStream out = new TarOutputStream(tar);
+		for (int i = 0; i < 50; i++) {
+			byte[] content = ("content of file " + i).getBytes("UTF-8");
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("d" + (i % 7)
+					+ "/f" + i, content.length, 0, false)));
+			out.write(content);
+		}
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("large",
+				large.length, 0, false)));
+		out.write(large);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("empty", 0, 0,
+				false)));
+		out.close();
+
+		File expected = Files.createTempDirectory("tartest").toFile();
+		new JTar().unpackTar(tar, expected);
+		new JTar().unpackTarAsync(tar, targetDir, 4096, 2).get();
+
+		for (int i = 0; i < 50; i++) {
+			String name = "d" + (i % 7) + "/f" + i;
+			assertEquals(TestUtils.readFile(new File(expected, name)),
+					TestUtils.readFile(new File(targetDir, name)));
+		}
+		assertArrayEquals(large,
+				Files.readAllBytes(new File(targetDir, "large").toPath()));
+		assertEquals(0, new File(targetDir, "empty").length());
+	}
+
+	@Test
+	public void givenUnboundedWrites_whenUnpackingAsync_shouldProduceTarContents()
+			throws Exception {
+		new JTar().unpackTarAsync(new File(PATH_TO_TEST_TAR), targetDir,
+				Integer.MAX_VALUE, Integer.MAX_VALUE).get();
+		assertThat(new File(targetDir, "tartest"),
+				containsExactlyFiles("one", "two", "four", "five", "six"));
+		assertEquals(CONTENT1,
+				TestUtils.readFile(new File(targetDir, "tartest/one")));
+	}
+
+	@Test
+	public void givenMissingTar_whenUnpackingAsync_shouldFailTheFuture()
+			throws InterruptedException {
+		try {
+			new JTar().unpackTarAsync(new File(sourceDir, "missing.tar"),
+					targetDir).get();
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void givenDir_whenPackingTar_shouldRoundTrip() throws IOException {
+		File packDir = createTreeToPack();
+		File tar = new File(sourceDir, "packed.tar");
+
+		new JTar().packTar(packDir, tar);
+
+		assertEquals(TarUtils.calculateTarSize(packDir), tar.length());
+		new JTar().unpackTar(tar, targetDir);
+		assertTreeUnpacked();
+	}
+
+	@Test
+	public void givenDir_whenPackingTarGz_shouldRoundTrip() throws IOException {
+		File packDir = createTreeToPack();
+		File tarGz = new File(sourceDir, "packed.tar.gz");
+
+		new JTar().packTarGz(packDir.getAbsolutePath(),
+				tarGz.getAbsolutePath());
+
+		new JTar().unpackTarGz(tarGz, targetDir);
+		assertTreeUnpacked();
+	}
+
+	@Test
+	public void givenDir_whenUnpackingTarGzPipelined_shouldProduceTarContents()
+			throws IOException {
+		new JTar().unpackTarGz(new File(PATH_TO_TEST_TAR_GZ), targetDir, 4);
+		assertThat(new File(targetDir, "tartest"),
+				containsExactlyFiles("one", "two", "four", "five", "six"));
+		assertEquals(CONTENT1,
+				TestUtils.readFile(new File(targetDir, "tartest/one")));
+	}
+
+	@Test
+	public void givenPackedTarGz_whenUnpackingPipelined_shouldRoundTrip()
+			throws IOException {
+		File packDir = createTreeToPack();
+		File tarGz = new File(sourceDir, "packed.tar.gz");
+
+		new JTar().packTarGz(packDir, tarGz, 4);
+
+		new JTar().unpackTarGz(tarGz, targetDir, 4);
+		assertTreeUnpacked();
+	}
+
+	@Test
+	public void givenDir_whenPackingWithDifferentParallelism_shouldProduceSameArchive()
+			throws IOException {
+		File packDir = createTreeToPack();
+		File sequential = new File(sourceDir, "sequential.tar");
+		File parallel = new File(sourceDir, "parallel.tar");
+
+		new JTar().packTar(packDir, sequential, 1);
+		new JTar().packTar(packDir, parallel, 8);
+
+		assertArrayEquals(Files.readAllBytes(sequential.toPath()),
+				Files.readAllBytes(parallel.toPath()));
+	}
+
+	@Test(timeout = 10000, expected = IllegalArgumentException.class)
+	public void givenFileSystemRoot_whenPacking_shouldFail()
+			throws IOException {
+		new JTar().packTar(new File("/"), new File(sourceDir, "root.tar"), 2);
+	}
+
+	private File createTreeToPack() throws IOException {
+		File packDir = new File(sourceDir, "pack");
+		new File(packDir, "sub/deeper").mkdirs();
+		new File(packDir, "empty").mkdirs();
+		TestUtils.writeStringToFile(CONTENT1, new File(packDir, FILENAME1));
+		TestUtils.writeStringToFile(CONTENT2, new File(packDir, "sub/"
+				+ FILENAME2));
+		TestUtils.writeStringToFile(CONTENT3, new File(packDir,
+				"sub/deeper/" + FILENAME3));
+
+		byte[] big = new byte[DirectoryPacker.SMALL_FILE + 12345];
+		for (int i = 0; i < big.length; i++) {
+			big[i] = (byte) (i * 31);
+		}
+		Files.write(new File(packDir, "sub/big").toPath(), big);
+		return packDir;
+	}
+
+	private void assertTreeUnpacked() throws IOException {
+		File unpacked = new File(targetDir, "pack");
+		assertEquals(CONTENT1, TestUtils.readFile(new File(unpacked, FILENAME1)));
+		assertEquals(CONTENT2,
+				TestUtils.readFile(new File(unpacked, "sub/" + FILENAME2)));
+		assertEquals(CONTENT3, TestUtils.readFile(new File(unpacked,
+				"sub/deeper/" + FILENAME3)));
+		assertTrue(new File(unpacked, "empty").isDirectory());
+		assertArrayEquals(
+				Files.readAllBytes(new File(sourceDir, "pack/sub/big").toPath()),
+				Files.readAllBytes(new File(unpacked, "sub/big").toPath()));
+	}
+
 	private Matcher<File> containsExactlyFiles(final String... filenames) {
 		return new BaseMatcher<File>() {
 
@@ -17,19 +17,30 @@
 
 package org.kamranzafar.jtar;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.zip.GZIPInputStream;
 
 import org.junit.Before;
@@ -73,6 +84,63 @@ public class LowLevelApiTest {
 		assertEquals(TarUtils.calculateTarSize(new File(dir.getAbsolutePath() + "/tartest")), new File(dir.getAbsolutePath() + "/tartest.tar").length());
 	}
 
+	/**
+	 * Tar files in one call per entry, with and without a channel to transfer
+	 * to
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void tarWithFileEntries() throws IOException {
+		File tartest = new File(dir.getAbsolutePath(), "tartest");
+		tartest.mkdirs();
+
+		TestUtils.writeStringToFile("HPeX2kD5kSTc7pzCDX", new File(tartest, "one"));
+		TestUtils.writeStringToFile("gTzyuQjfhrnyX9cTBSy", new File(tartest, "two"));
+		TestUtils.writeStringToFile("KG889vdgjPHQXUEXCqrr", new File(tartest, "three"));
+		TestUtils.writeStringToFile("CNBDGjEJNYfms7rwxfkAJ", new File(tartest, "four"));
+		TestUtils.writeStringToFile("tT6mFKuLRjPmUDjcVTnjBL", new File(tartest, "five"));
+		TestUtils.writeStringToFile("jrPYpzLfWB5vZTRsSKqFvVj", new File(tartest, "six"));
+
+		File channelTar = new File(dir, "channel.tar");
+		File streamTar = new File(dir, "stream.tar");
+		TarOutputStream channelOut = new TarOutputStream(channelTar);
+		TarOutputStream streamOut = new TarOutputStream(new BufferedOutputStream(new FileOutputStream(streamTar)));
+
+		for (String name : new String[] { "one", "two", "three", "four", "five", "six" }) {
+			channelOut.writeFileEntry(new TarEntry(new File(tartest, name), "tartest/" + name));
+			streamOut.writeFileEntry(new TarEntry(new File(tartest, name), "tartest/" + name));
+		}
+		channelOut.close();
+		streamOut.close();
+
+		assertEquals(TarUtils.calculateTarSize(tartest), channelTar.length());
+		assertEquals(TarUtils.calculateTarSize(tartest), streamTar.length());
+
+		for (File tar : new File[] { channelTar, streamTar }) {
+			File destFolder = new File(dir, "untar-" + tar.getName());
+			TarInputStream tis = new TarInputStream(new BufferedInputStream(new FileInputStream(tar)));
+			untar(tis, destFolder.getAbsolutePath());
+			tis.close();
+
+			assertFileContents(destFolder);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void fileEntryShorterThanHeader() throws IOException {
+		File file = TestUtils.writeStringToFile("0123456789", new File(dir, "shrinking"));
+		TarEntry entry = new TarEntry(file, "shrinking");
+		TestUtils.writeStringToFile("01234", file);
+
+		TarOutputStream out = new TarOutputStream(new File(dir, "shrinking.tar"));
+		try {
+			out.writeFileEntry(entry);
+		} finally {
+			out.close();
+		}
+	}
+
 	/**
 	 * Untar the tar file
 	 * 
@@ -264,6 +332,274 @@ public class LowLevelApiTest {
 		assertTrue(fileEntry.equals(createdEntry));
 	}
 
+	@Test
+	public void headerView() throws IOException {
+		String longName = "a/very/long/directory/name/that/does/not/fit/into/the/name/field/of/a/tar/header/alone/"
+				+ "so/it/needs/the/ustar/prefix/file.txt";
+		TarEntry entry = new TarEntry(TarHeader.createHeader(longName, 123456789L, 1400000000L, false));
+		entry.setIds(1000, 100);
+		entry.setUserName("someone");
+
+		// The block sits in the middle of a larger record
+		byte[] record = new byte[3 * TarConstants.HEADER_BLOCK];
+		byte[] block = new byte[TarConstants.HEADER_BLOCK];
+		entry.writeEntryHeader(block);
+		System.arraycopy(block, 0, record, TarConstants.HEADER_BLOCK, block.length);
+
+		TarHeaderView view = new TarHeaderView().wrap(record, TarConstants.HEADER_BLOCK);
+		assertEquals(longName, view.getName());
+		assertTrue(view.nameEquals(longName));
+		assertFalse(view.nameEquals(longName + "x"));
+		assertFalse(view.nameEquals(longName.replace('/', '_')));
+		assertTrue(view.nameStartsWith("a/very/long/"));
+		assertTrue(view.nameStartsWith(longName.substring(0, longName.lastIndexOf('/') + 1)));
+		assertFalse(view.nameStartsWith("a/very/short/"));
+		assertEquals(123456789L, view.getSize());
+		assertEquals(1400000000L, view.getModTime());
+		assertEquals(1000, view.getUserId());
+		assertEquals(100, view.getGroupId());
+		assertEquals("someone", view.getUserName());
+		assertEquals(TarHeader.LF_NORMAL, view.getLinkFlag());
+		assertFalse(view.isDirectory());
+		assertEquals(entry.getName(), view.toTarEntry().getName());
+
+		ByteBuffer direct = ByteBuffer.allocateDirect(block.length);
+		new TarEntry(TarHeader.createHeader("dir", 0, 0, true)).writeEntryHeader(block);
+		direct.put(block).flip();
+		assertTrue(view.wrap(direct).isDirectory());
+		assertTrue(view.nameEquals("dir/"));
+		assertFalse(view.wrap(new byte[TarConstants.HEADER_BLOCK]).nameStartsWith("d"));
+		assertTrue(view.isZeroBlock());
+	}
+
+	@Test
+	public void headerCheckSum() throws IOException {
+		byte[] block = new byte[TarConstants.HEADER_BLOCK];
+		TarEntry entry = new TarEntry(TarHeader.createHeader("n\u00e4me", 0777777, 01234567, false));
+		entry.writeEntryHeader(block);
+		TarHeaderView view = new TarHeaderView(block);
+		assertTrue(view.isCheckSumValid());
+		assertEquals(0777777, view.getSize());
+		assertEquals(01234567, view.getModTime());
+		assertEquals(TarUtils.checkSum(block, 0) - sum(block, 148, 156) + 8 * ' ', view.getCheckSum());
+
+		// Old writers summed signed bytes
+		int signed = 0;
+		for (int i = 0; i < block.length; i++) {
+			signed += i >= 148 && i < 156 ? ' ' : block[i];
+		}
+		Octal.getCheckSumOctalBytes(signed, block, 148, TarHeader.CHKSUMLEN);
+		assertTrue(view.isCheckSumValid());
+
+		block[0]++;
+		assertFalse(view.isCheckSumValid());
+		try {
+			new TarInputStream(new ByteArrayInputStream(Arrays.copyOf(block, 2048))).getNextEntry();
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("checksum"));
+		}
+
+		byte[] field = new byte[12];
+		for (long value : new long[] { 0, 1, 7, 8, 0777, 077777777777L }) {
+			Octal.getLongOctalBytes(value, field, 0, field.length);
+			assertEquals(' ', field[11]);
+			assertEquals(value, Octal.parseOctal(field, 0, field.length));
+		}
+	}
+
+	@Test
+	public void headerEncoder() {
+		TarHeader[] headers = { TarHeader.createHeader("file.txt", 10, 1400000000L, false),
+				TarHeader.createHeader("file2.txt", 11, 1400000000L, false),
+				TarHeader.createHeader("a/much/longer/name/of/a/directory", 0, 1400000001L, true),
+				TarHeader.createHeader("b", 10L * 1024 * 1024 * 1024, -1, false),
+				TarHeader.createHeader("b", 0, 0, false) };
+		headers[1].userId = 5000000;
+		headers[1].userName = TarName.of("someone");
+		headers[2].linkFlag = TarHeader.LF_SYMLINK;
+		headers[2].linkName = TarName.of("target");
+		headers[3].mode = 0755;
+		headers[3].devMajor = 8;
+
+		TarHeaderEncoder encoder = new TarHeaderEncoder();
+		byte[] expected = new byte[TarConstants.HEADER_BLOCK];
+		byte[] encoded = new byte[TarConstants.HEADER_BLOCK + 10];
+		ByteBuffer direct = ByteBuffer.allocateDirect(2 * TarConstants.HEADER_BLOCK);
+		for (TarHeader header : headers) {
+			new TarEntry(header).writeEntryHeader(expected);
+			assertEquals(encoded.length, encoder.encode(header, encoded, 10));
+			assertArrayEquals(expected, Arrays.copyOfRange(encoded, 10, encoded.length));
+
+			direct.clear().position(7);
+			encoder.encode(header, direct);
+			assertEquals(7 + TarConstants.HEADER_BLOCK, direct.position());
+			direct.position(7);
+			direct.get(encoded, 0, TarConstants.HEADER_BLOCK);
+			assertArrayEquals(expected, Arrays.copyOf(encoded, TarConstants.HEADER_BLOCK));
+		}
+	}
+
+	private static long sum(byte[] b, int from, int to) {
+		long sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += b[i] & 0xFF;
+		}
+		return sum;
+	}
+
+	@Test
+	public void listWithHeaderViews() throws IOException {
+		TarInputStream tis = new TarInputStream(new BufferedInputStream(new FileInputStream(
+				"src/test/resources/tartest.tar")));
+		TarHeaderView first = tis.getNextHeader();
+		assertEquals("tartest/six", first.getName());
+
+		// Content is skipped whether it is read or not
+		byte[] data = new byte[BUFFER];
+		int files = 1;
+		TarHeaderView header;
+		while ((header = tis.getNextHeader()) != null) {
+			assertTrue(header == first);
+			if (header.nameEquals("tartest/two")) {
+				assertEquals("gTzyuQjfhrnyX9cTBSy", new String(data, 0, tis.read(data), "UTF-8"));
+			}
+			files++;
+		}
+		tis.close();
+
+		assertEquals(6, files);
+	}
+
+	@Test
+	public void readThroughRecordBuffer() throws IOException {
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(tar);
+		int[] sizes = { 0, 1, 511, 512, 513, 3000, 25000 };
+		for (int i = 0; i < sizes.length; i++) {
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("f" + i, sizes[i], 0, false)));
+			for (int j = 0; j < sizes[i]; j++) {
+				out.write(j * 31 + i);
+			}
+		}
+		out.close();
+		final byte[] bytes = tar.toByteArray();
+
+		for (int blockingFactor : new int[] { 1, 3, TarConstants.DEFAULT_BLOCKING_FACTOR }) {
+			for (final int chunk : new int[] { 1, 100, 100000 }) {
+				for (boolean defaultSkip : new boolean[] { false, true }) {
+					// Underlying stream that returns at most chunk bytes per read
+					InputStream trickle = new ByteArrayInputStream(bytes) {
+						@Override
+						public synchronized int read(byte[] b, int off, int len) {
+							return super.read(b, off, Math.min(len, chunk));
+						}
+					};
+					TarInputStream tis = new TarInputStream(trickle, blockingFactor);
+					tis.setDefaultSkip(defaultSkip);
+
+					byte[] buffer = new byte[4096];
+					for (int i = 0; i < sizes.length; i++) {
+						TarHeaderView header = tis.getNextHeader();
+						assertTrue(header.nameEquals("f" + i));
+						assertEquals(TarConstants.HEADER_BLOCK * (i + 1) + paddedTotal(sizes, i), tis.getCurrentOffset());
+
+						if (i % 2 == 0) {
+							// Byte by byte, then in a large read, skipping some in between
+							int j = 0;
+							for (; j < sizes[i] && j < 700; j++) {
+								assertEquals(j * 31 + i & 0xFF, tis.read());
+							}
+							j += tis.skip(300);
+							int count;
+							while ((count = tis.read(buffer)) != -1) {
+								for (int k = 0; k < count; k++, j++) {
+									assertEquals((byte) (j * 31 + i), buffer[k]);
+								}
+							}
+							assertEquals(sizes[i], j);
+						}
+
+						// The view survives reading the content
+						assertTrue(header.nameEquals("f" + i));
+						assertEquals(sizes[i], header.getSize());
+					}
+					assertNull(tis.getNextHeader());
+					tis.close();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void writeWholeRecords() throws IOException {
+		final int blockingFactor = 4;
+		final int recordSize = blockingFactor * TarConstants.DATA_BLOCK;
+		byte[] content = new byte[10000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) (i * 7);
+		}
+		File file = new File(dir, "content");
+		Files.write(file.toPath(), content);
+
+		// Every write that reaches the sink is a whole number of records
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream() {
+			@Override
+			public synchronized void write(byte[] b, int off, int len) {
+				assertEquals(0, len % recordSize);
+				super.write(b, off, len);
+			}
+
+			@Override
+			public synchronized void write(int b) {
+				throw new AssertionError("Single byte write");
+			}
+		};
+		File channelTar = new File(dir, "records.tar");
+		FileChannel channel = FileChannel.open(channelTar.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE);
+		TarOutputStream[] outs = { new TarOutputStream(streamed, blockingFactor),
+				new TarOutputStream(channel, blockingFactor) };
+
+		for (TarOutputStream out : outs) {
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("small", 3, 0, false)));
+			out.write(content, 0, 2);
+			out.write(content[2]);
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("large", content.length, 0, false)));
+			out.write(content);
+			out.writeFileEntry(new TarEntry(file, "file"));
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("dir", 0, 0, true)));
+			out.close();
+		}
+
+		byte[] channelBytes = Files.readAllBytes(channelTar.toPath());
+		assertEquals(0, channelBytes.length % recordSize);
+		assertTrue(Arrays.equals(streamed.toByteArray(), channelBytes));
+
+		TarInputStream tis = new TarInputStream(new ByteArrayInputStream(channelBytes));
+		assertEquals("small", tis.getNextEntry().getName());
+		assertEquals("large", tis.getNextEntry().getName());
+		TarEntry entry = tis.getNextEntry();
+		assertEquals("file", entry.getName());
+		byte[] read = new byte[content.length];
+		int count = 0;
+		while (count < read.length) {
+			count += tis.read(read, count, read.length - count);
+		}
+		assertTrue(Arrays.equals(content, read));
+		assertTrue(tis.getNextEntry().isDirectory());
+		assertNull(tis.getNextEntry());
+		tis.close();
+	}
+
+	private static long paddedTotal(int[] sizes, int count) {
+		long total = 0;
+		for (int i = 0; i < count; i++) {
+			total += TarUtils.paddedSize(sizes[i]);
+		}
+		return total;
+	}
+
 	private void assertFileContents(File destFolder) throws UnsupportedEncodingException, FileNotFoundException, IOException {
 		assertEquals("HPeX2kD5kSTc7pzCDX", TestUtils.readFile(new File(destFolder, "tartest/one")));
 		assertEquals("gTzyuQjfhrnyX9cTBSy", TestUtils.readFile(new File(destFolder, "tartest/two")));
@@ -0,0 +1,192 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelGunzipInputStreamTest {
+	private File dir;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("gunzip").toFile();
+	}
+
+	@Test
+	public void readsScannedMembersInOrder() throws IOException {
+		byte[] data = ParallelGzipOutputStreamTest.testData(1000000);
+		File file = blockGzip(data, 20000, Deflater.DEFAULT_COMPRESSION);
+
+		for (int maxBuffered : new int[] { 4096, ParallelGunzipInputStream.MAX_BUFFERED }) {
+			try (InputStream in = openScanned(file, 3, maxBuffered)) {
+				assertArrayEquals(data, readAll(in));
+			}
+		}
+	}
+
+	@Test
+	public void ignoresHeadersInsideMembers() throws IOException {
+		// Stored blocks keep the fake headers visible in the compressed file
+		byte[] fake = { 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3 };
+		byte[] data = new byte[200000];
+		for (int i = 0; i + fake.length < data.length; i += 997) {
+			System.arraycopy(fake, 0, data, i, fake.length);
+		}
+		File file = blockGzip(data, 30000, Deflater.NO_COMPRESSION);
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			assertTrue(ParallelGunzipInputStream.scan(channel).size() > 100);
+		}
+		try (InputStream in = openScanned(file, 4, ParallelGunzipInputStream.MAX_BUFFERED)) {
+			assertArrayEquals(data, readAll(in));
+		}
+	}
+
+	@Test
+	public void ignoresTrailingGarbage() throws IOException {
+		byte[] data = ParallelGzipOutputStreamTest.testData(100000);
+		File file = blockGzip(data, 10000, Deflater.DEFAULT_COMPRESSION);
+		try (OutputStream out = new FileOutputStream(file, true)) {
+			out.write(new byte[] { 0, 0, 0, 0 });
+		}
+
+		try (InputStream in = ParallelGunzipInputStream.open(file, 2)) {
+			assertArrayEquals(data, readAll(in));
+		}
+	}
+
+	@Test
+	public void singleMemberIsLeftToGZIPInputStream() throws IOException {
+		File file = new File(dir, "single.gz");
+		byte[] data = ParallelGzipOutputStreamTest.testData(100000);
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+			out.write(data);
+		}
+
+		assertNull(ParallelGunzipInputStream.open(file, 2));
+		try (InputStream in = new JTar.ParallelGUnzipping(file, 2).getStream()) {
+			assertArrayEquals(data, readAll(in));
+		}
+	}
+
+	@Test
+	public void singleMemberWithHeadersInsideIsLeftToGZIPInputStream() throws IOException {
+		byte[] fake = { 0x1F, (byte) 0x8B, 8, 0, 0, 0, 0, 0, 0, 0, 1, 2, 3 };
+		byte[] data = new byte[200000];
+		for (int i = 0; i + fake.length < data.length; i += 997) {
+			System.arraycopy(fake, 0, data, i, fake.length);
+		}
+		File file = gzip(data, Deflater.NO_COMPRESSION);
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			assertTrue(ParallelGunzipInputStream.scan(channel).size() > 100);
+		}
+		assertNull(ParallelGunzipInputStream.open(file, 2));
+	}
+
+	@Test
+	public void readsMembersStoredInsideAMember() throws IOException {
+		// A .gz file in a tar.gz is usually stored as it is
+		byte[] inner = Files.readAllBytes(blockGzip(ParallelGzipOutputStreamTest.testData(50000), 10000,
+				Deflater.DEFAULT_COMPRESSION).toPath());
+		byte[] data = new byte[inner.length * 3];
+		System.arraycopy(inner, 0, data, inner.length, inner.length);
+		File file = gzip(data, Deflater.NO_COMPRESSION);
+
+		try (InputStream in = ParallelGunzipInputStream.open(file, 2)) {
+			assertArrayEquals(data, readAll(in));
+		}
+	}
+
+	@Test
+	public void unpacksSeekableArchiveUsingItsIndex() throws IOException {
+		File tarGz = new File(dir, "seekable.tar.gz");
+		SeekableTarGzOutputStream out = new SeekableTarGzOutputStream(tarGz, 16 * 1024, Deflater.DEFAULT_COMPRESSION);
+		for (int i = 0; i < 100; i++) {
+			byte[] content = ParallelGzipOutputStreamTest.testData(i * 300);
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("dir/f" + i, content.length, 0, false)));
+			out.write(content);
+		}
+		out.close();
+
+		List<ParallelGunzipInputStream.Member> members = ParallelGunzipInputStream.fromIndex(TarGzIndex
+				.read(TarGzIndex.indexFileFor(tarGz)));
+		assertTrue(members.size() > 10);
+
+		File targetDir = new File(dir, "out");
+		new JTar().unpackTarGz(tarGz, targetDir, 4);
+		for (int i = 0; i < 100; i++) {
+			assertArrayEquals(ParallelGzipOutputStreamTest.testData(i * 300),
+					Files.readAllBytes(new File(targetDir, "dir/f" + i).toPath()));
+		}
+		assertEquals(100, new File(targetDir, "dir").list().length);
+	}
+
+	private File blockGzip(byte[] data, int blockSize, int level) throws IOException {
+		File file = new File(dir, "blocks.gz");
+		try (BlockGzipOutputStream out = new BlockGzipOutputStream(new FileOutputStream(file), blockSize, level)) {
+			out.write(data);
+		}
+		return file;
+	}
+
+	private File gzip(byte[] data, final int level) throws IOException {
+		File file = new File(dir, "single.gz");
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file)) {
+			{
+				def.setLevel(level);
+			}
+		}) {
+			out.write(data);
+		}
+		return file;
+	}
+
+	private static InputStream openScanned(File file, int threads, int maxBuffered) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		return new ParallelGunzipInputStream(channel, new ParallelGunzipInputStream.Scanner(channel), true, threads,
+				maxBuffered);
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[3000];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+public class ParallelGzipOutputStreamTest {
+	private static final int BLOCK = 32 * 1024;
+
+	@Test
+	public void combinedCrcMatchesCrcOfConcatenation() {
+		byte[] data = testData(100000);
+		CRC32 whole = new CRC32();
+		whole.update(data);
+
+		for (int split : new int[] { 0, 1, 4095, 50000, 99999, 100000 }) {
+			CRC32 first = new CRC32();
+			first.update(data, 0, split);
+			CRC32 second = new CRC32();
+			second.update(data, split, data.length - split);
+
+			assertEquals(whole.getValue(),
+					ParallelGzipOutputStream.combineCrc32(first.getValue(), second.getValue(), data.length - split));
+		}
+	}
+
+	@Test
+	public void roundTripsThroughGZIPInputStream() throws IOException {
+		for (int size : new int[] { 0, 1, BLOCK - 1, BLOCK, BLOCK + 1, 7 * BLOCK / 2, 40 * BLOCK + 17 }) {
+			for (int threads : new int[] { 1, 3 }) {
+				byte[] data = testData(size);
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				ParallelGzipOutputStream out = new ParallelGzipOutputStream(compressed, threads, BLOCK,
+						Deflater.DEFAULT_COMPRESSION);
+				// Uneven writes across block boundaries
+				for (int off = 0; off < size; off += 1000) {
+					out.write(data, off, Math.min(1000, size - off));
+				}
+				out.close();
+
+				assertArrayEquals("size " + size, data, gunzip(compressed.toByteArray()));
+			}
+		}
+	}
+
+	@Test
+	public void compressesAboutAsWellAsGZIPOutputStream() throws IOException {
+		byte[] data = testData(64 * BLOCK);
+
+		ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+		ParallelGzipOutputStream out = new ParallelGzipOutputStream(parallel, 4, BLOCK, Deflater.DEFAULT_COMPRESSION);
+		out.write(data);
+		out.close();
+
+		ByteArrayOutputStream single = new ByteArrayOutputStream();
+		GZIPOutputStream gz = new GZIPOutputStream(single);
+		gz.write(data);
+		gz.close();
+
+		assertTrue(parallel.size() < single.size() * 1.05);
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		in.close();
+		return out.toByteArray();
+	}
+
+	/**
+	 * Compressible data with repetitions that span block boundaries
+	 */
+	static byte[] testData(int size) {
+		byte[] data = new byte[size];
+		Random random = new Random(size);
+		byte[] words = "lorem ipsum dolor sit amet consectetur adipiscing elit ".getBytes();
+		for (int i = 0; i < size; i++) {
+			data[i] = random.nextInt(10) == 0 ? (byte) random.nextInt(256) : words[(i / 3) % words.length];
+		}
+		return data;
+	}
+}
@@ -0,0 +1,290 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class PaxHeadersTest {
+	private static final long TEN_GIB = 10L * 1024 * 1024 * 1024;
+
+	@Test
+	public void longNamesRoundTrip() throws IOException {
+		char[] segment = new char[120];
+		Arrays.fill(segment, 'd');
+		String dir = new String(segment) + "/" + new String(segment) + "/" + new String(segment);
+		String name = dir + "/file.txt";
+		String link = dir + "/target.txt";
+
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(tar);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader(dir, 0, 0, true)));
+		out.putNextEntry(new TarEntry(TarHeader.createHeader(name, 3, 0, false)));
+		out.write(new byte[] { 1, 2, 3 });
+		TarHeader symlink = TarHeader.createHeader(dir + "/link", 0, 0, false);
+		symlink.linkFlag = TarHeader.LF_SYMLINK;
+		symlink.linkName = TarName.of(link);
+		out.putNextEntry(new TarEntry(symlink));
+		out.close();
+
+		TarInputStream in = new TarInputStream(new ByteArrayInputStream(tar.toByteArray()));
+		TarHeaderView header = in.getNextHeader();
+		assertEquals(dir + "/", header.getName());
+		assertTrue(header.isDirectory());
+
+		header = in.getNextHeader();
+		assertEquals(name, header.getName());
+		assertTrue(header.nameEquals(name));
+		assertTrue(header.nameStartsWith(dir));
+		assertEquals(3, header.getSize());
+		byte[] content = new byte[3];
+		assertEquals(3, in.read(content));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, content);
+
+		TarEntry entry = in.getNextEntry();
+		assertEquals(dir + "/link", entry.getName());
+		assertEquals(link, entry.getHeader().linkName.toString());
+		assertNull(in.getNextEntry());
+		in.close();
+	}
+
+	@Test
+	public void largeSizesUseBase256AndPax() throws IOException {
+		TarEntry entry = new TarEntry(TarHeader.createHeader("huge.bin", TEN_GIB, 1400000000L, false));
+		entry.setIds(3000000, 7);
+
+		// Only the headers are written, the content would not fit
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		new TarOutputStream(tar).putNextEntry(entry);
+		byte[] bytes = tar.toByteArray();
+		assertEquals(3 * TarConstants.HEADER_BLOCK, bytes.length);
+
+		TarEntry ustar = new TarEntry(Arrays.copyOfRange(bytes, 2 * TarConstants.HEADER_BLOCK, bytes.length));
+		assertEquals(TEN_GIB, ustar.getSize());
+		assertEquals(3000000, ustar.getUserId());
+		assertEquals((byte) 0x80, bytes[2 * TarConstants.HEADER_BLOCK + 124]);
+
+		String records = new String(bytes, TarConstants.HEADER_BLOCK, 40, StandardCharsets.US_ASCII);
+		assertTrue(records, records.startsWith("20 size=10737418240\n"));
+
+		TarInputStream in = new TarInputStream(new ByteArrayInputStream(bytes));
+		TarHeaderView header = in.getNextHeader();
+		assertEquals("huge.bin", header.getName());
+		assertEquals(TEN_GIB, header.getSize());
+		assertEquals(3000000, header.getUserId());
+		assertEquals(0, in.getCurrentHeaderOffset());
+		assertEquals(3 * TarConstants.HEADER_BLOCK, in.getCurrentOffset());
+		in.close();
+
+		byte[] field = new byte[12];
+		for (long value : new long[] { TEN_GIB, Long.MAX_VALUE, -1, -TEN_GIB }) {
+			Octal.getBase256Bytes(value, field, 0, field.length);
+			assertEquals(value, Octal.parseOctal(field, 0, field.length));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void negativeSizesAreRejected() throws IOException {
+		// A base-256 size with a lead byte of 0xFF
+		TarHeader header = TarHeader.createHeader("negative", -512, 0, false);
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(tar);
+		out.putNextEntry(new TarEntry(header));
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("after", 0, 0, false)));
+		out.close();
+		assertEquals((byte) 0xFF, tar.toByteArray()[124]);
+		assertRejected(tar.toByteArray(), "negative entry size");
+
+		for (String size : new String[] { "-512", "abc" }) {
+			tar = new ByteArrayOutputStream();
+			out = new TarOutputStream(tar);
+			writePax(out, TarHeader.LF_PAX_EXTENDED, record("size", size));
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("file", 0, 0, false)));
+			out.close();
+			assertRejected(tar.toByteArray(), "size=" + size);
+		}
+	}
+
+	/**
+	 * Both the stream and the random access reader throw an IOException
+	 */
+	private void assertRejected(byte[] tar, String message) throws IOException {
+		try {
+			new TarInputStream(new ByteArrayInputStream(tar)).getNextHeader();
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		}
+
+		File file = File.createTempFile("corrupt", ".tar");
+		Files.write(file.toPath(), tar);
+		try {
+			new TarFile(file).close();
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains(message));
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void readsPaxHeadersOfOtherWriters() throws IOException {
+		char[] attribute = new char[3 * 1024 * 1024];
+		Arrays.fill(attribute, 'a');
+		String records = record("SCHILY.xattr.user.big", new String(attribute)) + record("mtime", "1400000000.25")
+				+ record("path", "other/" + new String(attribute, 0, 200)) + record("uname", "someone");
+
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(tar);
+		writePax(out, TarHeader.LF_PAX_GLOBAL, record("gname", "staff"));
+		writePax(out, TarHeader.LF_PAX_EXTENDED, records);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("short", 1, 0, false)));
+		out.write('x');
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("plain", 0, 0, false)));
+		out.close();
+
+		TarInputStream in = new TarInputStream(new ByteArrayInputStream(tar.toByteArray()));
+		TarHeaderView header = in.getNextHeader();
+		assertEquals("other/" + new String(attribute, 0, 200), header.getName());
+		assertEquals(1400000000L, header.getModTime());
+		assertEquals(250000000, header.getModTimeNanos());
+		assertEquals("someone", header.getUserName());
+		assertEquals("staff", header.getGroupName());
+		assertEquals('x', in.read());
+
+		TarEntry entry = in.getNextEntry();
+		assertEquals("plain", entry.getName());
+		assertEquals("staff", entry.getGroupName());
+		assertEquals(0, entry.getModTimeNanos());
+		assertNull(in.getNextEntry());
+		in.close();
+	}
+
+	@Test
+	public void emptyValuesRemoveKeywords() throws IOException {
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(tar);
+		writePax(out, TarHeader.LF_PAX_GLOBAL, record("gname", "staff") + record("mtime", "1400000000"));
+		writePax(out, TarHeader.LF_PAX_EXTENDED, record("gname", ""));
+		out.putNextEntry(new TarEntry(groupHeader("first")));
+		out.putNextEntry(new TarEntry(groupHeader("second")));
+		writePax(out, TarHeader.LF_PAX_GLOBAL, record("gname", "") + record("size", ""));
+		out.putNextEntry(new TarEntry(groupHeader("third")));
+		out.close();
+
+		TarInputStream in = new TarInputStream(new ByteArrayInputStream(tar.toByteArray()));
+		TarEntry entry = in.getNextEntry();
+		assertEquals("first", entry.getName());
+		assertEquals("wheel", entry.getGroupName());
+		assertEquals(1400000000L, entry.getHeader().modTime);
+
+		entry = in.getNextEntry();
+		assertEquals("staff", entry.getGroupName());
+
+		entry = in.getNextEntry();
+		assertEquals("third", entry.getName());
+		assertEquals("wheel", entry.getGroupName());
+		assertEquals(1400000000L, entry.getHeader().modTime);
+		assertNull(in.getNextEntry());
+		in.close();
+	}
+
+	@Test
+	public void modTimeNanosRoundTrip() throws IOException {
+		TarEntry entry = new TarEntry(TarHeader.createHeader("precise", 0, 0, false));
+		entry.setModTime(1400000000L, 123456789);
+
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(tar);
+		out.putNextEntry(entry);
+		out.close();
+
+		TarEntry read = new TarInputStream(new ByteArrayInputStream(tar.toByteArray())).getNextEntry();
+		assertEquals(1400000000L, read.getHeader().modTime);
+		assertEquals(123456789, read.getModTimeNanos());
+		assertEquals(1400000000123L, read.getModTime().getTime());
+	}
+
+	@Test
+	public void randomAccessToPaxEntries() throws IOException {
+		char[] segment = new char[200];
+		Arrays.fill(segment, 'n');
+		String name = "dir/" + new String(segment);
+
+		File file = new File(Files.createTempDirectory("pax").toFile(), "pax.tar");
+		TarOutputStream out = new TarOutputStream(file);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("first", 2, 0, false)));
+		out.write(new byte[] { 1, 2 });
+		TarEntry entry = new TarEntry(TarHeader.createHeader(name, 4, 0, false));
+		entry.setModTime(1400000000L, 500000000);
+		out.putNextEntry(entry);
+		out.write(new byte[] { 3, 4, 5, 6 });
+		out.close();
+
+		try (TarFile tarFile = new TarFile(file)) {
+			assertEquals(2, tarFile.size());
+			TarIndexEntry indexEntry = tarFile.getEntry(name);
+			assertEquals(2 * TarConstants.HEADER_BLOCK, indexEntry.getHeaderOffset());
+			assertEquals(5 * TarConstants.HEADER_BLOCK, indexEntry.getDataOffset());
+
+			TarEntry tarEntry = tarFile.getTarEntry(indexEntry);
+			assertEquals(name, tarEntry.getName());
+			assertEquals(500000000, tarEntry.getModTimeNanos());
+
+			InputStream content = tarFile.getInputStream(indexEntry);
+			assertEquals(3, content.read());
+			content.close();
+		}
+	}
+
+	private static TarHeader groupHeader(String name) {
+		TarHeader header = TarHeader.createHeader(name, 0, 0, false);
+		header.groupName = TarName.of("wheel");
+		return header;
+	}
+
+	private static void writePax(TarOutputStream out, byte type, String records) throws IOException {
+		byte[] content = records.getBytes(StandardCharsets.UTF_8);
+		TarHeader header = TarHeader.createHeader("PaxHeaders/test", content.length, 0, false);
+		header.linkFlag = type;
+		out.putNextEntry(new TarEntry(header));
+		out.write(content);
+	}
+
+	private static String record(String key, String value) {
+		int length = key.length() + value.length() + 3;
+		int digits = Integer.toString(length).length();
+		if (Integer.toString(length + digits).length() > digits) {
+			digits++;
+		}
+		return (length + digits) + " " + key + "=" + value + "\n";
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SparseFilesTest {
+	private static final int MIB = 1024 * 1024;
+
+	private File dir;
+	private File sparse;
+	private byte[] content;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("sparse").toFile();
+		sparse = new File(dir, "disk.img");
+		content = new byte[8 * MIB];
+		for (int i = 0; i < 1000; i++) {
+			content[i] = (byte) (i % 251 + 1);
+		}
+		for (int i = 5 * MIB + 100; i < 5 * MIB + 700; i++) {
+			content[i] = 7;
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(sparse, "rw")) {
+			file.write(content, 0, 1000);
+			file.seek(5 * MIB + 100);
+			file.write(content, 5 * MIB + 100, 600);
+			file.setLength(content.length);
+		}
+	}
+
+	@Test
+	public void storesOnlyTheData() throws IOException {
+		File tar = new File(dir, "sparse.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.setSparseFiles(true);
+		out.writeFileEntry(new TarEntry(sparse, "img/disk.img"));
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("after", 1, 0, false)));
+		out.write(9);
+		out.close();
+		assertTrue(tar.length() < 16 * 1024);
+
+		try (TarInputStream in = new TarInputStream(new FileInputStream(tar))) {
+			TarEntry entry = in.getNextEntry();
+			assertEquals("img/disk.img", entry.getName());
+			assertTrue(entry.isSparse());
+			assertEquals(content.length, entry.getRealSize());
+			assertTrue(entry.getSize() < 4096);
+			assertArrayEquals(content, readAll(in));
+
+			assertEquals("after", in.getNextEntry().getName());
+			assertEquals(9, in.read());
+			assertNull(in.getNextEntry());
+		}
+
+		// Skipping an entry that was not read, and holes inside one
+		try (TarInputStream in = new TarInputStream(new FileInputStream(tar))) {
+			in.getNextEntry();
+			assertEquals(0, in.holeLength());
+			assertEquals(5 * MIB - 100, in.skip(5 * MIB - 100));
+			// Holes are whole blocks, the data starts with the block at 5 MiB
+			assertEquals(100, in.holeLength());
+			assertEquals(200, in.skip(200));
+			assertEquals(7, in.read());
+			assertEquals(4 * 1024, in.skip(4 * 1024));
+			assertEquals("after", in.getNextEntry().getName());
+		}
+	}
+
+	@Test
+	public void extractsHoles() throws Exception {
+		File tar = new File(dir, "sparse.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		out.setSparseFiles(true);
+		out.writeFileEntry(new TarEntry(sparse, "disk.img"));
+		out.close();
+
+		File fromFile = new File(dir, "file");
+		new JTar().unpackTar(tar, fromFile, 2);
+		assertArrayEquals(content, Files.readAllBytes(new File(fromFile, "disk.img").toPath()));
+
+		File async = new File(dir, "async");
+		new JTar().unpackTarAsync(tar, async).get();
+		assertArrayEquals(content, Files.readAllBytes(new File(async, "disk.img").toPath()));
+
+		File fromStream = new File(dir, "stream");
+		new File(fromStream, "disk.img").getParentFile().mkdirs();
+		Files.write(new File(fromStream, "disk.img").toPath(), new byte[9 * MIB]);
+		new JTar().unpackTarFromStream(new FileInputStream(tar), fromStream.getPath());
+		assertArrayEquals(content, Files.readAllBytes(new File(fromStream, "disk.img").toPath()));
+
+		try (TarFile tarFile = new TarFile(tar)) {
+			TarIndexEntry entry = tarFile.getEntry("disk.img");
+			assertTrue(tarFile.getTarEntry(entry).isSparse());
+			assertArrayEquals(content, readAll(tarFile.getInputStream(entry)));
+		}
+	}
+
+	@Test
+	public void filesWithoutHolesAreNotSparse() throws IOException {
+		File full = new File(dir, "full");
+		Files.write(full.toPath(), new byte[] { 1, 2, 3 });
+		File empty = new File(dir, "empty");
+		Files.write(empty.toPath(), new byte[0]);
+
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(tar);
+		out.setSparseFiles(true);
+		out.writeFileEntry(new TarEntry(full, "full"));
+		out.writeFileEntry(new TarEntry(empty, "empty"));
+		out.close();
+
+		TarInputStream in = new TarInputStream(new ByteArrayInputStream(tar.toByteArray()));
+		assertFalse(in.getNextEntry().isSparse());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, readAll(in));
+		assertFalse(in.getNextEntry().isSparse());
+		assertNull(in.getNextEntry());
+		in.close();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7000];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,299 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TarFileTest {
+	private static final File TEST_TAR = new File("src/test/resources/tartest.tar");
+
+	private File dir;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("tarfile").toFile();
+		dir.mkdirs();
+	}
+
+	@Test
+	public void catalogMatchesSequentialRead() throws IOException {
+		try (TarFile tarFile = new TarFile(TEST_TAR)) {
+			assertEquals(6, tarFile.size());
+			assertEquals("tartest/six", tarFile.getEntries().get(0).getName());
+			assertEquals(0, tarFile.getEntries().get(0).getHeaderOffset());
+
+			// Same offset as TarInputStream reports in LowLevelApiTest.testOffset
+			TarIndexEntry two = tarFile.getEntry("tartest/two");
+			assertEquals(TarConstants.HEADER_BLOCK * 3 + TarConstants.DATA_BLOCK * 2, two.getDataOffset());
+			assertEquals(19, two.getSize());
+			assertEquals(TarHeader.LF_NORMAL, two.getLinkFlag());
+
+			assertNull(tarFile.getEntry("tartest/seven"));
+		}
+	}
+
+	@Test
+	public void readEntriesInAnyOrder() throws IOException {
+		try (TarFile tarFile = new TarFile(TEST_TAR)) {
+			assertEquals("jrPYpzLfWB5vZTRsSKqFvVj", read(tarFile.getInputStream(tarFile.getEntry("tartest/six"))));
+			assertEquals("HPeX2kD5kSTc7pzCDX", read(tarFile.getInputStream(tarFile.getEntry("tartest/one"))));
+			assertEquals("KG889vdgjPHQXUEXCqrr", read(tarFile.getInputStream(tarFile.getEntry("tartest/three"))));
+			assertEquals("tartest/three", tarFile.getTarEntry(tarFile.getEntry("tartest/three")).getName());
+		}
+	}
+
+	@Test
+	public void readEntryThroughChannel() throws IOException {
+		File tar = new File(dir, "big.tar");
+		byte[] content = new byte[100000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+
+		try (TarOutputStream out = new TarOutputStream(new FileOutputStream(tar))) {
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("dir", 0, 0, true)));
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("dir/big", content.length, 0, false)));
+			out.write(content);
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("small", 1, 0, false)));
+			out.write(42);
+		}
+
+		try (TarFile tarFile = new TarFile(tar)) {
+			assertEquals(3, tarFile.size());
+			assertEquals(true, tarFile.getEntry("dir/").isDirectory());
+
+			ReadableByteChannel channel = tarFile.getChannel(tarFile.getEntry("dir/big"));
+			ByteBuffer buffer = ByteBuffer.allocate(content.length + 1000);
+			while (channel.read(buffer) >= 0) {
+			}
+			assertEquals(content.length, buffer.position());
+			assertEquals(true, Arrays.equals(content, Arrays.copyOf(buffer.array(), content.length)));
+
+			InputStream in = tarFile.getInputStream(tarFile.getEntry("small"));
+			assertEquals(42, in.read());
+			assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void indexWrittenWhilePackingMatchesScan() throws IOException {
+		File tar = new File(dir, "indexed.tar");
+		File idx = TarIndex.indexFileFor(tar);
+
+		TarOutputStream out = new TarOutputStream(tar);
+		out.setIndexFile(idx);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("a", 600, 0, false)));
+		out.write(new byte[600]);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("b", 0, 0, true)));
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("b/c", 3, 0, false)));
+		out.write(new byte[] { 'a', 'b', 'c' });
+		out.close();
+
+		TarIndex index = TarIndex.read(idx);
+		assertEquals(true, index.isValidFor(tar));
+		assertEntriesEqual(TarIndex.build(tar).getEntries(), index.getEntries());
+
+		try (TarFile tarFile = new TarFile(tar, index)) {
+			assertEquals("abc", read(tarFile.getInputStream(tarFile.getEntry("b/c"))));
+		}
+	}
+
+	@Test
+	public void indexCoversAppendedEntries() throws IOException {
+		File tar = new File(dir, "appended.tar");
+		File idx = TarIndex.indexFileFor(tar);
+
+		TarOutputStream out = new TarOutputStream(tar);
+		out.setIndexFile(idx);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("a", 1, 0, false)));
+		out.write('a');
+		out.close();
+
+		out = new TarOutputStream(tar, true);
+		out.setIndexFile(idx);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader("b", 1, 0, false)));
+		out.write('b');
+		out.close();
+
+		TarIndex index = TarIndex.read(idx);
+		assertEquals(2, index.getEntries().size());
+		assertEntriesEqual(TarIndex.build(tar).getEntries(), index.getEntries());
+	}
+
+	@Test
+	public void openWritesAndReusesSidecarIndex() throws IOException {
+		File tar = new File(dir, "tartest.tar");
+		Files.copy(TEST_TAR.toPath(), tar.toPath());
+		File idx = TarIndex.indexFileFor(tar);
+
+		try (TarFile tarFile = TarFile.open(tar)) {
+			assertEquals(6, tarFile.size());
+		}
+		assertEquals(true, idx.isFile());
+
+		try (TarFile tarFile = TarFile.open(tar)) {
+			assertEquals("HPeX2kD5kSTc7pzCDX", read(tarFile.getInputStream(tarFile.getEntry("tartest/one"))));
+		}
+
+		// Stale index is detected and rebuilt
+		tar.setLastModified(tar.lastModified() - 10000);
+		assertEquals(false, TarIndex.read(idx).isValidFor(tar));
+		try (TarFile tarFile = TarFile.open(tar)) {
+			assertEquals(6, tarFile.size());
+		}
+		assertEquals(true, TarIndex.read(idx).isValidFor(tar));
+
+		// So is a damaged one
+		for (int count : new int[] { -1, Integer.MAX_VALUE }) {
+			try (RandomAccessFile file = new RandomAccessFile(idx, "rw")) {
+				file.seek(24);
+				file.writeInt(count);
+			}
+			try (TarFile tarFile = TarFile.open(tar)) {
+				assertEquals(6, tarFile.size());
+			}
+			assertEquals(6, TarIndex.read(idx).getEntries().size());
+		}
+	}
+
+	@Test
+	public void listAndDigestHeadersOnly() throws Exception {
+		try (TarFile tarFile = new TarFile(TEST_TAR); TarLister lister = new TarLister(TEST_TAR)) {
+			for (TarIndexEntry expected : tarFile.getEntries()) {
+				TarLister.Item item = lister.getNextEntry();
+				assertEquals(expected.getName(), item.getEntry().getName());
+				assertEquals(expected.getHeaderOffset(), item.getHeaderOffset());
+				assertEquals(expected.getDataOffset(), item.getDataOffset());
+				assertNull(item.getDigest());
+			}
+			assertNull(lister.getNextEntry());
+		}
+
+		File tar = new File(dir, "many.tar");
+		TarOutputStream out = new TarOutputStream(tar);
+		for (int i = 0; i < 50; i++) {
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("file" + i, i * 100, 0, false)));
+			byte[] content = new byte[i * 100];
+			Arrays.fill(content, (byte) i);
+			out.write(content);
+		}
+		out.close();
+
+		try (TarLister lister = new TarLister(tar)) {
+			lister.setDigest("SHA-256", 3);
+			for (int i = 0; i < 50; i++) {
+				TarLister.Item item = lister.getNextEntry();
+				assertEquals("file" + i, item.getEntry().getName());
+				byte[] content = new byte[i * 100];
+				Arrays.fill(content, (byte) i);
+				assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(content), item.getDigest());
+			}
+			assertNull(lister.getNextEntry());
+		}
+
+		// A corrupt header is reported where it is
+		try (RandomAccessFile file = new RandomAccessFile(tar, "rw")) {
+			file.seek(TarConstants.HEADER_BLOCK + 100 + 2);
+			file.write('x');
+		}
+		try (TarLister lister = new TarLister(tar)) {
+			lister.getNextEntry();
+			lister.getNextEntry();
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().endsWith("offset " + TarConstants.HEADER_BLOCK));
+		}
+	}
+
+	@Test
+	public void completionRunsForSkippedTasks() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch fail = new CountDownLatch(1);
+		final CountDownLatch completed = new CountDownLatch(1);
+
+		try (BoundedExecutor executor = new BoundedExecutor(1, 2)) {
+			executor.submit(new BoundedExecutor.IOTask() {
+				@Override
+				public void run() throws IOException {
+					started.countDown();
+					try {
+						fail.await();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+					throw new IOException("failed");
+				}
+			});
+			started.await();
+			executor.submit(new BoundedExecutor.IOTask() {
+				@Override
+				public void run() {
+					fail();
+				}
+			}, new Runnable() {
+				@Override
+				public void run() {
+					completed.countDown();
+				}
+			});
+			fail.countDown();
+
+			assertTrue(completed.await(10, TimeUnit.SECONDS));
+		}
+	}
+
+	private void assertEntriesEqual(List<TarIndexEntry> expected, List<TarIndexEntry> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).toString(), actual.get(i).toString());
+			assertEquals(expected.get(i).getLinkFlag(), actual.get(i).getLinkFlag());
+		}
+	}
+
+	private String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[7];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		in.close();
+		return out.toString("UTF-8");
+	}
+}
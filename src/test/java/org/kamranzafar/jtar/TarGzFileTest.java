@@ -0,0 +1,259 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TarGzFileTest {
+	private static final File TEST_TAR_GZ = new File("src/test/resources/tartest.tar.gz");
+	private static final int ENTRIES = 300;
+
+	private File dir;
+
+	@Before
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("targzfile").toFile();
+	}
+
+	@Test
+	public void decoderMatchesGZIPInputStream() throws IOException {
+		byte[] data = ParallelGzipOutputStreamTest.testData(300000);
+		byte[] random = new byte[70000];
+		new Random(1).nextBytes(random);
+		final int[] blocks = new int[1];
+
+		for (int level : new int[] { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED, Deflater.BEST_COMPRESSION }) {
+			for (int strategy : new int[] { Deflater.DEFAULT_STRATEGY, Deflater.HUFFMAN_ONLY }) {
+				for (byte[] input : new byte[][] { data, random, "x".getBytes(), new byte[0] }) {
+					byte[] compressed = gzip(input, level, strategy);
+					IndexingGzipInputStream in = new IndexingGzipInputStream(new ByteArrayInputStream(compressed),
+							new IndexingGzipInputStream.Listener() {
+								@Override
+								public void blockStart(long bitOffset, long outOffset, boolean memberStart) {
+									blocks[0]++;
+								}
+							});
+					assertArrayEquals("level " + level, input, readAll(in));
+				}
+			}
+		}
+		assertTrue(blocks[0] > 24);
+	}
+
+	@Test
+	public void readEntriesFromCheckpoints() throws IOException {
+		File tarGz = createArchive(false);
+		TarGzIndex index = TarGzIndex.build(tarGz, 64 * 1024);
+		assertTrue(index.getCheckpointCount() > 10);
+
+		// Most blocks do not start on a byte boundary, which needs the shifted input
+		boolean unaligned = false;
+		for (TarGzIndex.Checkpoint checkpoint : index.getCheckpoints()) {
+			unaligned |= checkpoint.bitOffset % 8 != 0;
+		}
+		assertTrue(unaligned);
+
+		try (TarGzFile tarGzFile = new TarGzFile(tarGz, index)) {
+			assertEquals(ENTRIES, tarGzFile.size());
+			assertContents(tarGzFile);
+		}
+	}
+
+	@Test
+	public void readEntriesAcrossMembers() throws IOException {
+		File tarGz = createArchive(true);
+		TarGzIndex index = TarGzIndex.build(tarGz, 64 * 1024);
+
+		try (TarGzFile tarGzFile = new TarGzFile(tarGz, index)) {
+			assertContents(tarGzFile);
+		}
+	}
+
+	@Test
+	public void indexSurvivesWriteAndRead() throws IOException {
+		File tarGz = createArchive(false);
+
+		try (TarGzFile first = TarGzFile.open(tarGz)) {
+			assertTrue(TarGzIndex.indexFileFor(tarGz).isFile());
+		}
+
+		TarGzIndex index = TarGzIndex.read(TarGzIndex.indexFileFor(tarGz));
+		assertEquals(ENTRIES, index.getEntries().size());
+
+		try (TarGzFile tarGzFile = TarGzFile.open(tarGz)) {
+			assertContents(tarGzFile);
+			assertEquals("d1/f1", tarGzFile.getTarEntry(tarGzFile.getEntry("d1/f1")).getName());
+		}
+
+		// A damaged index is rebuilt
+		try (RandomAccessFile file = new RandomAccessFile(TarGzIndex.indexFileFor(tarGz), "rw")) {
+			file.seek(24);
+			file.writeInt(Integer.MAX_VALUE);
+		}
+		try (TarGzFile tarGzFile = TarGzFile.open(tarGz)) {
+			assertContents(tarGzFile);
+		}
+		assertEquals(ENTRIES, TarGzIndex.read(TarGzIndex.indexFileFor(tarGz)).getEntries().size());
+	}
+
+	@Test
+	public void readExistingArchive() throws IOException {
+		try (TarGzFile tarGzFile = new TarGzFile(TEST_TAR_GZ)) {
+			assertEquals(6, tarGzFile.size());
+			assertEquals("HPeX2kD5kSTc7pzCDX",
+					new String(readAll(tarGzFile.getInputStream(tarGzFile.getEntry("tartest/one"))), "UTF-8"));
+		}
+	}
+
+	@Test
+	public void seekableArchiveKeepsSmallEntriesInOneMember() throws IOException {
+		File tarGz = new File(dir, "seekable.tar.gz");
+		int blockSize = 32 * 1024;
+
+		SeekableTarGzOutputStream out = new SeekableTarGzOutputStream(tarGz, blockSize, Deflater.DEFAULT_COMPRESSION);
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		TarOutputStream plainOut = new TarOutputStream(plain);
+		for (int i = 0; i < ENTRIES; i++) {
+			byte[] content = content(i);
+			TarHeader header = TarHeader.createHeader("d" + (i % 5) + "/f" + i, content.length, 0, false);
+			out.putNextEntry(new TarEntry(header));
+			out.write(content);
+			plainOut.putNextEntry(new TarEntry(header));
+			plainOut.write(content);
+		}
+		out.close();
+		plainOut.close();
+
+		// Plain gzip readers see the same tar
+		assertArrayEquals(plain.toByteArray(), readAll(new GZIPInputStream(new FileInputStream(tarGz))));
+
+		TarGzIndex index = TarGzIndex.read(TarGzIndex.indexFileFor(tarGz));
+		assertTrue(index.isValidFor(tarGz));
+		assertTrue(index.getCheckpointCount() > 10);
+		List<TarGzIndex.Checkpoint> checkpoints = index.getCheckpoints();
+		for (TarIndexEntry entry : index.getEntries()) {
+			if (entry.getEndOffset() - entry.getHeaderOffset() <= blockSize) {
+				assertEquals(entry.getName(), member(checkpoints, entry.getHeaderOffset()),
+						member(checkpoints, entry.getEndOffset() - 1));
+			}
+		}
+
+		try (TarGzFile tarGzFile = TarGzFile.open(tarGz)) {
+			assertContents(tarGzFile);
+		}
+
+		File targetDir = new File(dir, "unpacked");
+		new JTar().unpackTarGz(tarGz, targetDir);
+		assertArrayEquals(content(7), Files.readAllBytes(new File(targetDir, "d2/f7").toPath()));
+	}
+
+	private static int member(List<TarGzIndex.Checkpoint> checkpoints, long offset) {
+		int member = -1;
+		for (int i = 0; i < checkpoints.size() && checkpoints.get(i).outOffset <= offset; i++) {
+			member = i;
+		}
+		return member;
+	}
+
+	/**
+	 * Entries of different sizes, optionally split into two gzip members in
+	 * the middle of an entry
+	 */
+	private File createArchive(boolean twoMembers) throws IOException {
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(tar);
+		for (int i = 0; i < ENTRIES; i++) {
+			byte[] content = content(i);
+			out.putNextEntry(new TarEntry(TarHeader.createHeader("d" + (i % 5) + "/f" + i, content.length, 0, false)));
+			out.write(content);
+		}
+		out.close();
+
+		byte[] bytes = tar.toByteArray();
+		File tarGz = new File(dir, "archive.tar.gz");
+		try (OutputStream file = new FileOutputStream(tarGz)) {
+			int split = twoMembers ? bytes.length / 2 + 100 : bytes.length;
+			file.write(gzip(Arrays.copyOfRange(bytes, 0, split)));
+			if (split < bytes.length) {
+				file.write(gzip(Arrays.copyOfRange(bytes, split, bytes.length)));
+			}
+		}
+		return tarGz;
+	}
+
+	private static byte[] content(int i) {
+		return ParallelGzipOutputStreamTest.testData(i * 97 % 20000 + i);
+	}
+
+	private void assertContents(TarGzFile tarGzFile) throws IOException {
+		// Backwards, so every read starts from a different checkpoint
+		for (int i = ENTRIES - 1; i >= 0; i--) {
+			TarIndexEntry entry = tarGzFile.getEntry("d" + (i % 5) + "/f" + i);
+			try (InputStream in = tarGzFile.getInputStream(entry)) {
+				assertArrayEquals("entry " + i, content(i), readAll(in));
+			}
+		}
+	}
+
+	private static byte[] gzip(byte[] data) throws IOException {
+		return gzip(data, Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+	}
+
+	private static byte[] gzip(byte[] data, final int level, final int strategy) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		GZIPOutputStream gz = new GZIPOutputStream(compressed) {
+			{
+				def.setLevel(level);
+				def.setStrategy(strategy);
+			}
+		};
+		gz.write(data);
+		gz.close();
+		return compressed.toByteArray();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		int count;
+		while ((count = in.read(buffer)) != -1) {
+			out.write(buffer, 0, count);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.kamranzafar.jtar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class TarNameTest {
+
+	@Test
+	public void asciiAndUtf8Names() {
+		TarName ascii = TarName.of("dir/file.txt");
+		assertTrue(ascii.isAscii());
+		assertEquals(12, ascii.byteLength());
+		assertEquals("dir/file.txt", ascii.toString());
+		assertEquals('f', ascii.charAt(4));
+
+		TarName utf8 = TarName.of("dir/für-日本");
+		assertFalse(utf8.isAscii());
+		assertEquals(15, utf8.byteLength());
+		assertEquals(10, utf8.length());
+		assertEquals("dir/für-日本", utf8.toString());
+		assertEquals('日', utf8.charAt(8));
+		// Decoded once
+		assertSame(utf8.toString(), utf8.toString());
+
+		assertTrue(utf8.startsWith(TarName.of("dir/")));
+		assertTrue(utf8.endsWith(TarName.of("本")));
+		assertFalse(utf8.endsWith('/'));
+		assertTrue(TarName.of("dir/").endsWith('/'));
+		assertFalse(ascii.startsWith(TarName.of("dir/file.txt2")));
+
+		assertEquals(TarName.of("dir/file.txt"), ascii);
+		assertEquals(TarName.of("dir/file.txt").hashCode(), ascii.hashCode());
+		assertTrue(ascii.compareTo(utf8) < 0);
+		assertSame(TarName.EMPTY, TarName.of(""));
+	}
+
+	@Test
+	public void fieldsAndInterning() {
+		byte[] field = new byte[32];
+		TarName owner = TarName.of("owner");
+		assertEquals(32, owner.writeTo(field, 0, field.length));
+		assertEquals(0, field[5]);
+
+		TarName parsed = TarName.parse(field, 0, field.length);
+		assertEquals(owner, parsed);
+		assertSame(parsed.intern(), TarName.parse(field, 0, field.length).intern());
+		assertSame(TarName.EMPTY, TarName.parse(new byte[8], 0, 8));
+
+		assertEquals("prefix/name", TarName.join(TarName.of("prefix"), TarName.of("name")).toString());
+		assertEquals("name", TarName.join(TarName.EMPTY, TarName.of("name")).toString());
+	}
+
+	@Test
+	public void nonAsciiEntryNames() throws IOException {
+		String name = "déjà/日本語.txt";
+		ByteArrayOutputStream tar = new ByteArrayOutputStream();
+		TarOutputStream out = new TarOutputStream(tar);
+		out.putNextEntry(new TarEntry(TarHeader.createHeader(name, 3, 0, false)));
+		out.write(new byte[] { 1, 2, 3 });
+		out.close();
+
+		TarInputStream in = new TarInputStream(new ByteArrayInputStream(tar.toByteArray()));
+		TarHeaderView header = in.getNextHeader();
+		assertEquals(name, header.getName());
+		assertTrue(header.nameEquals(name));
+		assertTrue(header.nameStartsWith("déjà/"));
+		assertFalse(header.nameEquals("deja/日本語.txt"));
+		assertEquals(name, header.toTarEntry().getName());
+		in.close();
+	}
+}